@@ -4,6 +4,7 @@
 
 package frc.robot;
 
+import com.pathplanner.lib.PathConstraints;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Rotation3d;
@@ -34,7 +35,7 @@ public final class Constants {
   public static final class RobotConstants {
     public static final int COUNTS_PER_REV = 2048;
     public static final double SENSOR_GEAR_RATIO = 10.71;
-    public static final double WHEEL_RADIUS_INCHES = 6;
+    public static final double WHEEL_DIAMETER_INCHES = 6;
     public static final double TRACK_WIDTH = 18.75;
   }
 
@@ -44,6 +45,7 @@ public final class Constants {
   public static final class PathConstants {
     public static final double MAX_DRIVE_SPEED = 1;
     public static final double MAX_ACCELERATION = 0.5;
+    public static final PathConstraints CONSTRAINTS = new PathConstraints(MAX_DRIVE_SPEED, MAX_ACCELERATION);
     public static final double RAMSETE_B = 2.0;
     public static final double RAMSETE_ZETA = 0.7;
     public static final double kS = 0.86841;
@@ -53,6 +55,16 @@ public final class Constants {
     public static final double kI = 0;
     public static final double KD = 0.13772;
     public static final double MAX_OFFSET_START = 1;
+    /* Route waypoints closer than this to the start are skipped, so the path doesn't curl to reach them. */
+    public static final double MIN_WAYPOINT_SPACING_METERS = 0.3;
+    /* Paths generated from rest are cached by start pose, rounded to these, and scoring waypoint. */
+    public static final int ROUTE_CACHE_CAPACITY = 32;
+    public static final double ROUTE_CACHE_POSITION_RESOLUTION_METERS = 0.1;
+    public static final double ROUTE_CACHE_HEADING_RESOLUTION_DEGREES = 10;
+    /* Slower than this either way counts as stopped, so a path from rest, and the route cache, can be used. */
+    public static final double STOPPED_SPEED_METERS_PER_SECOND = 0.05;
+    /* How far ahead a replan plans from, until a path generation has been timed. */
+    public static final double REPLAN_LATENCY_SECONDS = 0.1;
   }
 
   /**
@@ -77,6 +89,14 @@ public final class Constants {
         new Pose2d(2.75, 3.85, new Rotation2d(0)), new Pose2d(2.75, 4.4, new Rotation2d(0)),
         new Pose2d(2.75, 5, new Rotation2d(0))
     };
+    /* Opposite corners of what the planner routes around: the grid and the charge station. */
+    public static final Translation2d[][] OBSTACLES = new Translation2d[][] {
+        {new Translation2d(0, 0), new Translation2d(1.38, 5.49)},
+        {new Translation2d(2.92, 1.51), new Translation2d(4.85, 3.98)}
+    };
+    public static final double OBSTACLE_CLEARANCE_METERS = 0.1;
+    public static final double FIELD_LENGTH_METERS = 16.54;
+    public static final double FIELD_WIDTH_METERS = 8.02;
     public static final double MAX_AUTO_DISTANCE_METERS = 10;
     public static final double SCORING_ZONE_DEADBAND = 0.5;
   }
@@ -101,7 +121,45 @@ public final class Constants {
     public static final Transform3d ROBOT_TO_REAR_CAMERA =
         new Transform3d(new Translation3d(-Units.inchesToMeters(12.1585), 0.07, Units.inchesToMeters(20.749)),
             new Rotation3d(0, 0, Math.PI));
-    public static final double MAINTAIN_CAMERA_CONFIDENCE_THRESHOLD = 0.7;
+    public static final double APRILTAG_SIZE_METERS = Units.inchesToMeters(6);
+    /* The vision thread reads the cameras this often and queues at most this many poses between robot cycles. */
+    public static final double POLL_PERIOD_SECONDS = 0.005;
+    public static final int POSE_QUEUE_CAPACITY = 16;
+    /* A frame timestamp this much older than the last means the camera's clock restarted, not a duplicate. */
+    public static final double FRAME_TIMESTAMP_RESET_SECONDS = 1.0;
+    /* Unique frames per second are averaged over this long. */
+    public static final double FRAME_RATE_WINDOW_SECONDS = 1.0;
+
+    /* All three cameras share this resolution and field of view; keep them in sync with the camera calibration. */
+    public static final int CAMERA_WIDTH_PIXELS = 960;
+    public static final int CAMERA_HEIGHT_PIXELS = 720;
+    public static final double CAMERA_HORIZONTAL_FOV_DEGREES = 70;
+
+    /* Fused multi-tag solve. */
+    public static final double CORNER_STD_DEV_PIXELS = 1.0;
+    public static final double MAX_REPROJECTION_ERROR_PIXELS = 6.0;
+    public static final int MAX_SOLVE_ITERATIONS = 10;
+    /* Frames from different cameras captured within this window are solved together. */
+    public static final double FUSION_WINDOW_SECONDS = 0.015;
+
+    /*
+     * Vision measurement trust. DriveConstants.VISION_STD_DEVS is multiplied by 1 + k * distance^2, by 1 + k *
+     * ambiguity and by 1 + k * speed for each kind of speed, and divided by the square root of the tag count.
+     */
+    public static final double DISTANCE_STD_DEV_SCALE = 0.1;
+    public static final double AMBIGUITY_STD_DEV_SCALE = 5;
+    public static final double SPEED_STD_DEV_SCALE = 0.5;
+    public static final double ANGULAR_SPEED_STD_DEV_SCALE = 0.5;
+    /* Mahalanobis gate: the 99% point of the chi-squared distribution with 3 degrees of freedom. */
+    public static final double GATE_CHI_SQUARED = 11.34;
+    /* After this many rejections in a row, the estimate is assumed to be wrong and the next measurement is taken. */
+    public static final int MAX_CONSECUTIVE_REJECTIONS = 10;
+
+    /* Simulated cameras. */
+    public static final double SIM_CAMERA_MAX_RANGE_METERS = 6;
+    public static final double SIM_CAMERA_PIXEL_NOISE = 0.5;
+    public static final double SIM_CAMERA_FRAME_RATE = 30;
+    public static final double SIM_CAMERA_LATENCY_SECONDS = 0.030;
   }
 
   /**
@@ -243,6 +301,67 @@ public final class Constants {
     public static final int SUPPLY_TRIGGER_THRESHOLD = 100;
     public static final double SUPPLY_TRIGGER_THRESHOLD_TIME = 0.5;
     public static final double SLEW_RATE_LIMIT = 1.8;
+    /*
+     * Path following tracks wheel velocity on each Talon's closed loop instead of with PathConstants' PID on the
+     * roboRIO. The Talons run kP, kI and KD from PathConstants, converted to their units and loop period, with the
+     * feedforward sent alongside.
+     */
+    public static final boolean ONBOARD_VELOCITY_CONTROL = true;
+    public static final int VELOCITY_SLOT = 0;
+    public static final double ONBOARD_LOOP_PERIOD_SECONDS = 0.001;
+    /* Talon gains are converted from volts as if full output were this many. */
+    public static final double NOMINAL_VOLTAGE = 12;
+    /* x, y and heading; WPILib's DifferentialDrivePoseEstimator defaults. */
+    public static final double[] STATE_STD_DEVS = {0.02, 0.02, 0.01};
+    public static final double[] VISION_STD_DEVS = {0.1, 0.1, 0.1};
+    /* The odometry thread samples the encoders and gyro this often; anything from 100 to 250 Hz works. */
+    public static final double ODOMETRY_PERIOD_SECONDS = 0.005;
+    /*
+     * Status frame periods by role. Leaders send feedback as often as odometry samples it, and their general frame,
+     * which followers follow, at the default rate. Followers send feedback once per loop. Frames nothing reads are
+     * slowed to 255 ms, the longest Phoenix allows, since they can't be turned off. Set TUNE_STATUS_FRAMES to false to
+     * measure the defaults.
+     */
+    public static final boolean TUNE_STATUS_FRAMES = true;
+    public static final int LEADER_GENERAL_STATUS_PERIOD_MS = 10;
+    public static final int FOLLOWER_GENERAL_STATUS_PERIOD_MS = 100;
+    public static final int FOLLOWER_FEEDBACK_STATUS_PERIOD_MS = 20;
+    public static final int CURRENT_STATUS_PERIOD_MS = 50;
+    public static final int TEMPERATURE_STATUS_PERIOD_MS = 250;
+    public static final int UNUSED_STATUS_PERIOD_MS = 255;
+    /* Leaders get a new setpoint once per loop, so their control frame doesn't need to repeat more often. */
+    public static final int LEADER_CONTROL_PERIOD_MS = 20;
+    public static final int CAN_CONFIG_TIMEOUT_MS = 50;
+    /*
+     * Odometry checks each side against the gyro. Each side, with the heading change, implies how far the robot's
+     * center moved; when the two disagree by more than this speed allows in a sample, plus the scrub below, the side
+     * further from the robot's recent motion is taken to be slipping and trusted less the more they disagree.
+     */
+    public static final double SLIP_THRESHOLD_METERS_PER_SECOND = 0.25;
+    /* Wheels scrub when turning, so the sides disagree by up to this much per radian turned without slipping. */
+    public static final double SLIP_SCRUB_METERS_PER_RADIAN = 0.05;
+    /*
+     * A side's leader and follower may read this far apart, plus how far the follower moves in one of its slower
+     * status frames. A side whose encoders disagree by more is trusted this much.
+     */
+    public static final double ENCODER_DISAGREEMENT_METERS = 0.02;
+    public static final double ENCODER_DISAGREEMENT_WEIGHT = 0.1;
+    /*
+     * Path following reads wheel velocities from a Kalman filter on the fused wheel distances and applied voltages,
+     * instead of the Talons' 100 ms averaged velocity. The filter trusts the plant to within this acceleration and the
+     * positions to within this distance; raise the acceleration to follow the encoders more closely.
+     */
+    public static final boolean ESTIMATE_WHEEL_VELOCITY = true;
+    public static final double VELOCITY_ESTIMATOR_ACCELERATION_STD_DEV = 2.0;
+    public static final double VELOCITY_ESTIMATOR_POSITION_STD_DEV = 0.005;
+    /* Vision frames older than this are dropped. 1.5 s at 200 Hz is 300 odometry samples. */
+    public static final double POSE_HISTORY_SECONDS = 1.5;
+    public static final int POSE_HISTORY_CAPACITY = 512;
+    public static final boolean SIM_TRACE_ENABLED = false;
+    public static final double SIM_TRACE_PERIOD_SECONDS = 1.0;
+    /* x, y, heading, left velocity, right velocity, left position, right position */
+    public static final double[] SIM_MEASUREMENT_STD_DEVS = {0, 0, 0.0001, 0.1, 0.1, 0.005, 0.005};
+    public static final long SIM_MEASUREMENT_SEED = 0;
 
     public static final LinearSystem<N2, N2, N2> kDrivetrainPlant =
     LinearSystemId.identifyDrivetrainSystem(
@@ -255,4 +374,26 @@ public final class Constants {
 public static final DCMotor kDriveGearbox = DCMotor.getFalcon500(2);
 public static final double kDriveGearing = 10.71;
   }
+
+  /**
+   * Stores the channels and settings for recording and replaying simulation runs with {@link lobstah.stl.io.InputLog}.
+   * Gamepads reserve channels from 0x1000 up.
+   */
+  public static final class ReplayConstants {
+    /* Set this environment variable to a file path to record a simulation run, e.g. from simulateJava. */
+    public static final String RECORD_ENVIRONMENT_VARIABLE = "ROBOT_INPUT_LOG";
+
+    public static final int DRIVER_STATION_MODE = 1;
+    public static final int BATTERY_VOLTAGE = 2;
+    public static final int AUTON_CHOOSER = 16;
+    public static final int INITIAL_POSITION_CHOOSER = 17;
+    public static final int CROSSING_POSITION_CHOOSER = 18;
+    public static final int ENDING_POSITION_CHOOSER = 19;
+    public static final int TARGET_POSITION_CHOOSER = 20;
+    /* Camera results use one channel per PhotonPoseEstimator id, starting here. */
+    public static final int VISION_RESULT = 32;
+    /* Pose outputs use three channels each: x, y and heading. */
+    public static final int ESTIMATED_POSE = 64;
+    public static final int SIMULATED_POSE = 68;
+  }
 }
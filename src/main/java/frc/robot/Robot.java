@@ -4,11 +4,21 @@
 
 package frc.robot;
 
+import java.io.IOException;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj.simulation.BatterySim;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
 import edu.wpi.first.wpilibj.simulation.RoboRioSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.Constants.ReplayConstants;
+import frc.robot.sim.LockstepClock;
+import lobstah.stl.io.InputLog;
 
 /**
  * The VM is configured to automatically run this class, and to call the functions corresponding to each mode, as
@@ -16,6 +26,11 @@ import edu.wpi.first.wpilibj2.command.CommandScheduler;
  * project, you must also update the build.gradle file in the project.
  */
 public class Robot extends TimedRobot {
+  private static final int ENABLED_BIT = 1;
+  private static final int AUTONOMOUS_BIT = 2;
+  private static final int TEST_BIT = 4;
+  private static final int DS_ATTACHED_BIT = 8;
+
   private Command m_autonomousCommand;
 
   private RobotContainer m_robotContainer;
@@ -26,9 +41,70 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void robotInit() {
+    String recordPath = System.getenv(ReplayConstants.RECORD_ENVIRONMENT_VARIABLE);
+    // Tools like HeadlessSimulation and ReplaySimulation pause the clock to drive it themselves; don't record those.
+    if (isSimulation() && recordPath != null && !SimHooks.isTimingPaused()) {
+      try {
+        InputLog.startRecording(recordPath);
+        LockstepClock.start(getPeriod());
+      } catch (IOException io) {
+        DriverStation.reportError("Failed to start recording to " + recordPath + ": " + io.getMessage(), false);
+      }
+    }
     m_robotContainer = new RobotContainer();
   }
 
+  /**
+   * Runs one iteration of the robot loop. While an {@link InputLog} is recording or replaying, the Driver Station mode
+   * is passed through the log first, and the resulting poses are checked afterwards.
+   */
+  @Override
+  protected void loopFunc() {
+    if (InputLog.isActive()) {
+      InputLog.beginCycle(RobotController.getFPGATime());
+      logDriverStationMode();
+    }
+    super.loopFunc();
+    if (InputLog.isActive()) {
+      checkPose(ReplayConstants.ESTIMATED_POSE, m_robotContainer.getEstimatedPose());
+      if (isSimulation()) {
+        checkPose(ReplayConstants.SIMULATED_POSE, m_robotContainer.getSimulatedPose());
+      }
+    }
+  }
+
+  /**
+   * Runs one iteration of the robot loop immediately, for tools that drive the simulation clock themselves.
+   */
+  public void runCycle() {
+    loopFunc();
+  }
+
+  private static void logDriverStationMode() {
+    if (InputLog.isRecording()) {
+      // Picks up the mode loopFunc is about to see.
+      DriverStation.refreshData();
+    }
+    int mode = InputLog.logInt(ReplayConstants.DRIVER_STATION_MODE,
+        (DriverStation.isEnabled() ? ENABLED_BIT : 0)
+            | (DriverStation.isAutonomous() ? AUTONOMOUS_BIT : 0)
+            | (DriverStation.isTest() ? TEST_BIT : 0)
+            | (DriverStation.isDSAttached() ? DS_ATTACHED_BIT : 0));
+    if (InputLog.isReplaying()) {
+      DriverStationSim.setDsAttached((mode & DS_ATTACHED_BIT) != 0);
+      DriverStationSim.setEnabled((mode & ENABLED_BIT) != 0);
+      DriverStationSim.setAutonomous((mode & AUTONOMOUS_BIT) != 0);
+      DriverStationSim.setTest((mode & TEST_BIT) != 0);
+      DriverStationSim.notifyNewData();
+    }
+  }
+
+  private static void checkPose(int channel, Pose2d pose) {
+    InputLog.checkOutput(channel, pose.getX());
+    InputLog.checkOutput(channel + 1, pose.getY());
+    InputLog.checkOutput(channel + 2, pose.getRotation().getRadians());
+  }
+
   /**
    * This function is called every 20 ms, no matter the mode. Use this for items like diagnostics that you want ran
    * during disabled, autonomous, teleoperated and test.
@@ -45,6 +121,13 @@ public class Robot extends TimedRobot {
     CommandScheduler.getInstance().run();
   }
 
+  /**
+   * Returns the {@link RobotContainer} created in {@link #robotInit()}.
+   */
+  public RobotContainer getRobotContainer() {
+    return m_robotContainer;
+  }
+
   /** This function is called once each time the robot enters Disabled mode. */
   @Override
   public void disabledInit() {}
@@ -110,6 +193,6 @@ public class Robot extends TimedRobot {
   public void simulationPeriodic() {
     double drawCurrent = m_robotContainer.getCurrentDrawAmps();
     double loadedVoltage = BatterySim.calculateDefaultBatteryLoadedVoltage(drawCurrent);
-    RoboRioSim.setVInVoltage(loadedVoltage);
+    RoboRioSim.setVInVoltage(InputLog.logDouble(ReplayConstants.BATTERY_VOLTAGE, loadedVoltage));
   }
 }
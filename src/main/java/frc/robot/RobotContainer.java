@@ -4,23 +4,24 @@
 
 package frc.robot;
 
-import com.pathplanner.lib.PathConstraints;
-import com.pathplanner.lib.PathPlanner;
 import com.pathplanner.lib.server.PathPlannerServer;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.ProxyCommand;
 import frc.robot.Constants.DriveConstants.DriveMotorCANIDs;
-import frc.robot.Constants.FieldConstants;
 import frc.robot.Constants.PathConstants;
+import frc.robot.Constants.ReplayConstants;
 import frc.robot.Constants.UIConstants.DriverConstants;
 import frc.robot.auton.AutonGenerator;
+import frc.robot.auton.TrajectoryCache;
 import frc.robot.commands.drive.PathFollowCommand;
 import frc.robot.commands.drive.StopDriveCommand;
 import frc.robot.commands.drive.TankDriveCommand;
 import frc.robot.subsystems.DriveBase;
 import lobstah.stl.io.LobstahGamepad;
+import lobstah.stl.io.LoggedSendableChooser;
 
 /**
  * This class is where the bulk of the robot should be declared. Since Command-based is a "declarative" paradigm, very
@@ -33,7 +34,8 @@ public class RobotContainer {
       DriveMotorCANIDs.LEFT_BACK,
       DriveMotorCANIDs.RIGHT_FRONT,
       DriveMotorCANIDs.RIGHT_BACK);
-  private final AutonGenerator autonGenerator = new AutonGenerator(driveBase);
+  private final TrajectoryCache trajectoryCache = new TrajectoryCache();
+  private final AutonGenerator autonGenerator = new AutonGenerator(driveBase, trajectoryCache);
 
   private final LobstahGamepad driverJoystick = new LobstahGamepad(DriverConstants.DRIVER_JOYSTICK_INDEX);
 
@@ -41,6 +43,8 @@ public class RobotContainer {
    * The container for the robot. Contains subsystems, OI devices, and commands.
    */
   public RobotContainer() {
+    // Generate every path while the robot is disabled, so autonomous only looks them up.
+    trajectoryCache.preloadAll(PathConstants.CONSTRAINTS);
     configureSmartDash();
     configureButtonBindings();
     PathPlannerServer.startServer(5811);
@@ -56,11 +60,43 @@ public class RobotContainer {
     return driveBase.getDrawnCurrentAmps();
   }
 
-  private final SendableChooser<Command> autonChooser = new SendableChooser<>();
-  private final SendableChooser<Integer> initialPosition = new SendableChooser<>();
-  private final SendableChooser<Integer> crossingPosition = new SendableChooser<>();
-  private final SendableChooser<Integer> endingPosition = new SendableChooser<>();
-  private final SendableChooser<Integer> targetPosition = new SendableChooser<>();
+  public AutonGenerator getAutonGenerator() {
+    return autonGenerator;
+  }
+
+  /**
+   * Places the simulated drivetrain at the given pose, at rest, and resets odometry to match. SIMULATION ONLY.
+   *
+   * @param pose The pose to place the robot at
+   */
+  public void resetSimulation(Pose2d pose) {
+    driveBase.resetSimulation(pose);
+  }
+
+  /**
+   * Returns the pose estimate as of the last update, without updating it.
+   */
+  public Pose2d getEstimatedPose() {
+    return driveBase.getEstimatedPose();
+  }
+
+  /**
+   * Returns the pose reported by the simulated drivetrain. SIMULATION ONLY.
+   */
+  public Pose2d getSimulatedPose() {
+    return driveBase.getSimulatedPose();
+  }
+
+  private final SendableChooser<Command> autonChooser =
+      new LoggedSendableChooser<>(ReplayConstants.AUTON_CHOOSER);
+  private final SendableChooser<Integer> initialPosition =
+      new LoggedSendableChooser<>(ReplayConstants.INITIAL_POSITION_CHOOSER);
+  private final SendableChooser<Integer> crossingPosition =
+      new LoggedSendableChooser<>(ReplayConstants.CROSSING_POSITION_CHOOSER);
+  private final SendableChooser<Integer> endingPosition =
+      new LoggedSendableChooser<>(ReplayConstants.ENDING_POSITION_CHOOSER);
+  private final SendableChooser<Integer> targetPosition =
+      new LoggedSendableChooser<>(ReplayConstants.TARGET_POSITION_CHOOSER);
 
   /**
    * Use this method to run tasks that configure sendables and other smartdashboard items.
@@ -90,8 +126,8 @@ public class RobotContainer {
     //        endingPosition.getSelected()));
     autonChooser.addOption("Simple Auton", autonGenerator.getSimpleAutonCommand());
     autonChooser.addOption("Do Nothing Auton", new StopDriveCommand(driveBase));
-    autonChooser.addOption("Test Path Command", new PathFollowCommand(driveBase, PathPlanner.loadPath("New Path",
-        new PathConstraints(PathConstants.MAX_DRIVE_SPEED, PathConstants.MAX_ACCELERATION))));
+    autonChooser.addOption("Test Path Command", new ProxyCommand(
+        () -> new PathFollowCommand(driveBase, trajectoryCache.get("New Path", PathConstants.CONSTRAINTS))));
     targetPosition.addOption("0", 0);
     targetPosition.addOption("1", 1);
     targetPosition.addOption("2", 2);
@@ -110,10 +146,12 @@ public class RobotContainer {
   }
 
   /**
-   * Updates the robot target for teleop with input from Shuffleboard.
+   * Returns the teleop target picked on Shuffleboard, as an index into
+   * {@link frc.robot.Constants.FieldConstants#SCORING_WAYPOINTS}, e.g. for a
+   * {@link frc.robot.commands.drive.TargetCommand}.
    */
-  public Pose2d updateTarget() {
-    return FieldConstants.SCORING_WAYPOINTS[targetPosition.getSelected()];
+  public int updateTarget() {
+    return targetPosition.getSelected();
   }
 
   /**
@@ -6,8 +6,6 @@ package frc.robot.auton;
 
 import java.util.ArrayList;
 
-import com.pathplanner.lib.PathConstraints;
-import com.pathplanner.lib.PathPlanner;
 import com.pathplanner.lib.PathPlannerTrajectory;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
@@ -26,14 +24,17 @@ import lobstah.stl.command.TimedCommand;
 public class AutonGenerator {
 
   private final DriveBase driveBase;
+  private final TrajectoryCache trajectoryCache;
 
   /**
    * Constructs an AutonGenerator with a {@link DriveBase}.
    *
    * @param driveBase The drivetrain for the AutonGenerator to control.
+   * @param trajectoryCache Where to get the paths' trajectories.
    */
-  public AutonGenerator(DriveBase driveBase) {
+  public AutonGenerator(DriveBase driveBase, TrajectoryCache trajectoryCache) {
     this.driveBase = driveBase;
+    this.trajectoryCache = trajectoryCache;
   }
 
   /**
@@ -79,10 +80,8 @@ public class AutonGenerator {
     ArrayList<PathPlannerTrajectory> pathGroup = new ArrayList<>();
     String firstPathName = String.valueOf(initialPosition) + "-" + String.valueOf(crossingPosition);
     String secondPathName = "_" + String.valueOf(crossingPosition) + "-" + String.valueOf(finalPosition);
-    PathPlannerTrajectory firstPath = PathPlanner.loadPath(firstPathName,
-        new PathConstraints(PathConstants.MAX_DRIVE_SPEED, PathConstants.MAX_ACCELERATION));
-    PathPlannerTrajectory secondPath = PathPlanner.loadPath(secondPathName,
-        new PathConstraints(PathConstants.MAX_DRIVE_SPEED, PathConstants.MAX_ACCELERATION));
+    PathPlannerTrajectory firstPath = trajectoryCache.get(firstPathName, PathConstants.CONSTRAINTS);
+    PathPlannerTrajectory secondPath = trajectoryCache.get(secondPathName, PathConstants.CONSTRAINTS);
     if (driveBase.getDistanceToPose(firstPath.getInitialPose()).getTranslation()
         .getNorm() > PathConstants.MAX_OFFSET_START) {
       SmartDashboard.putNumber("Distance from start",
@@ -0,0 +1,317 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.auton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.pathplanner.lib.PathPlannerTrajectory;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.Constants.FieldConstants;
+import frc.robot.Constants.PathConstants;
+
+/**
+ * Plans routes from anywhere on the field to a scoring waypoint over a graph of the traveling and scoring waypoints
+ * and the corners of {@link FieldConstants#OBSTACLES}.
+ *
+ * <p>
+ * Neighbouring traveling waypoints are connected along the lane, and each scoring waypoint only to the traveling
+ * waypoint closest to it, so the robot always drives straight in to score. Obstacle corners, pushed out past the
+ * clearance, are connected to every traveling waypoint and corner they can see, so a robot behind the charge station
+ * drives around it. Edges that would cross an obstacle are left out. The shortest distance and route between every
+ * pair of waypoints is found once, with Dijkstra's algorithm from each waypoint, so planning a route only has to pick
+ * which waypoint to join the graph at.
+ *
+ * <p>
+ * Trajectories generated from rest are kept in a least recently used cache, keyed by the start pose rounded to
+ * {@link PathConstants#ROUTE_CACHE_POSITION_RESOLUTION_METERS} and
+ * {@link PathConstants#ROUTE_CACHE_HEADING_RESOLUTION_DEGREES} and by the scoring waypoint, so asking for the same
+ * target from the same place again needs no generation.
+ */
+public class FieldPlanner {
+  private final Translation2d[] nodes;
+  private final int laneCount;
+  private final int scoringCount;
+  private final double[][] distances;
+  private final int[][] previous;
+
+  private final Map<Long, PathPlannerTrajectory> cache =
+      new LinkedHashMap<Long, PathPlannerTrajectory>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PathPlannerTrajectory> eldest) {
+          return size() > PathConstants.ROUTE_CACHE_CAPACITY;
+        }
+      };
+  private int cacheHits = 0;
+  private int cacheMisses = 0;
+
+  /**
+   * Builds the graph and finds the shortest routes between every pair of waypoints.
+   */
+  public FieldPlanner() {
+    Pose2d[] lane = FieldConstants.TRAVELING_WAYPOINTS;
+    Pose2d[] scoring = FieldConstants.SCORING_WAYPOINTS;
+    laneCount = lane.length;
+    scoringCount = scoring.length;
+    List<Translation2d> points = new ArrayList<>();
+    for (Pose2d waypoint : lane) {
+      points.add(waypoint.getTranslation());
+    }
+    for (Pose2d waypoint : scoring) {
+      points.add(waypoint.getTranslation());
+    }
+    double cornerOffset = 2 * FieldConstants.OBSTACLE_CLEARANCE_METERS;
+    for (Translation2d[] obstacle : FieldConstants.OBSTACLES) {
+      double minX = Math.min(obstacle[0].getX(), obstacle[1].getX()) - cornerOffset;
+      double maxX = Math.max(obstacle[0].getX(), obstacle[1].getX()) + cornerOffset;
+      double minY = Math.min(obstacle[0].getY(), obstacle[1].getY()) - cornerOffset;
+      double maxY = Math.max(obstacle[0].getY(), obstacle[1].getY()) + cornerOffset;
+      // Corners off the field or inside another obstacle can't be driven to.
+      for (Translation2d corner : new Translation2d[] {new Translation2d(minX, minY), new Translation2d(maxX, minY),
+          new Translation2d(maxX, maxY), new Translation2d(minX, maxY)}) {
+        if (corner.getX() > 0 && corner.getX() < FieldConstants.FIELD_LENGTH_METERS && corner.getY() > 0
+            && corner.getY() < FieldConstants.FIELD_WIDTH_METERS && isClear(corner, corner)) {
+          points.add(corner);
+        }
+      }
+    }
+    nodes = points.toArray(new Translation2d[0]);
+
+    double[][] edges = new double[nodes.length][nodes.length];
+    for (double[] row : edges) {
+      Arrays.fill(row, Double.POSITIVE_INFINITY);
+    }
+    for (int i = 0; i + 1 < laneCount; i++) {
+      connect(edges, i, i + 1);
+    }
+    for (int i = laneCount; i < laneCount + scoringCount; i++) {
+      connect(edges, i, closestLaneNode(nodes[i]));
+    }
+    for (int i = laneCount + scoringCount; i < nodes.length; i++) {
+      for (int j = 0; j < i; j++) {
+        if (!isScoringNode(j)) {
+          connect(edges, i, j);
+        }
+      }
+    }
+
+    distances = new double[nodes.length][];
+    previous = new int[nodes.length][];
+    for (int source = 0; source < nodes.length; source++) {
+      dijkstra(edges, source);
+    }
+  }
+
+  private void connect(double[][] edges, int a, int b) {
+    if (isClear(nodes[a], nodes[b])) {
+      edges[a][b] = edges[b][a] = nodes[a].getDistance(nodes[b]);
+    }
+  }
+
+  private boolean isScoringNode(int node) {
+    return node >= laneCount && node < laneCount + scoringCount;
+  }
+
+  private int closestLaneNode(Translation2d point) {
+    int closest = 0;
+    for (int i = 1; i < laneCount; i++) {
+      if (point.getDistance(nodes[i]) < point.getDistance(nodes[closest])) {
+        closest = i;
+      }
+    }
+    return closest;
+  }
+
+  /**
+   * Fills in the shortest distance from one waypoint to every other, and the waypoint before each on the way.
+   */
+  private void dijkstra(double[][] edges, int source) {
+    double[] distance = new double[nodes.length];
+    int[] before = new int[nodes.length];
+    boolean[] done = new boolean[nodes.length];
+    Arrays.fill(distance, Double.POSITIVE_INFINITY);
+    Arrays.fill(before, -1);
+    distance[source] = 0;
+    for (int visited = 0; visited < nodes.length; visited++) {
+      int next = -1;
+      for (int i = 0; i < nodes.length; i++) {
+        if (!done[i] && (next == -1 || distance[i] < distance[next])) {
+          next = i;
+        }
+      }
+      if (Double.isInfinite(distance[next])) {
+        break;
+      }
+      done[next] = true;
+      for (int i = 0; i < nodes.length; i++) {
+        if (distance[next] + edges[next][i] < distance[i]) {
+          distance[i] = distance[next] + edges[next][i];
+          before[i] = next;
+        }
+      }
+    }
+    distances[source] = distance;
+    previous[source] = before;
+  }
+
+  /**
+   * Returns whether the straight line between two points keeps {@link FieldConstants#OBSTACLE_CLEARANCE_METERS} from
+   * every obstacle.
+   */
+  public static boolean isClear(Translation2d from, Translation2d to) {
+    for (Translation2d[] obstacle : FieldConstants.OBSTACLES) {
+      if (crosses(from, to, obstacle[0], obstacle[1], FieldConstants.OBSTACLE_CLEARANCE_METERS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a segment passes through a rectangle grown by a margin, by clipping the segment to it
+   * (Liang-Barsky).
+   */
+  private static boolean crosses(Translation2d from, Translation2d to, Translation2d corner,
+      Translation2d oppositeCorner, double margin) {
+    double minX = Math.min(corner.getX(), oppositeCorner.getX()) - margin;
+    double maxX = Math.max(corner.getX(), oppositeCorner.getX()) + margin;
+    double minY = Math.min(corner.getY(), oppositeCorner.getY()) - margin;
+    double maxY = Math.max(corner.getY(), oppositeCorner.getY()) + margin;
+    double dx = to.getX() - from.getX();
+    double dy = to.getY() - from.getY();
+    double[] p = {-dx, dx, -dy, dy};
+    double[] q = {from.getX() - minX, maxX - from.getX(), from.getY() - minY, maxY - from.getY()};
+    double enter = 0;
+    double exit = 1;
+    for (int i = 0; i < 4; i++) {
+      if (p[i] == 0) {
+        if (q[i] < 0) {
+          return false;
+        }
+      } else if (p[i] < 0) {
+        enter = Math.max(enter, q[i] / p[i]);
+      } else {
+        exit = Math.min(exit, q[i] / p[i]);
+      }
+    }
+    return enter <= exit;
+  }
+
+  /**
+   * Plans the route from a start pose to a scoring waypoint.
+   *
+   * @param start The pose to start from
+   * @param target The index of the scoring waypoint in {@link FieldConstants#SCORING_WAYPOINTS}
+   * @return The waypoints after the start, ending at the scoring waypoint, each facing the way the robot drives
+   *         through it
+   * @throws IndexOutOfBoundsException If there is no scoring waypoint with that index
+   */
+  public List<Pose2d> plan(Pose2d start, int target) {
+    checkTarget(target);
+    int targetNode = laneCount + target;
+    Translation2d startPoint = start.getTranslation();
+
+    // Join the graph where the distance to it plus the distance along the graph from it is shortest.
+    int entry = -1;
+    double entryCost = Double.POSITIVE_INFINITY;
+    for (boolean requireClear : new boolean[] {true, false}) {
+      for (int i = 0; i < nodes.length; i++) {
+        if (isScoringNode(i)) {
+          continue;
+        }
+        double cost = startPoint.getDistance(nodes[i]) + distances[i][targetNode];
+        if (cost < entryCost && (!requireClear || isClear(startPoint, nodes[i]))) {
+          entry = i;
+          entryCost = cost;
+        }
+      }
+      if (entry != -1) {
+        break;
+      }
+      DriverStation.reportWarning("[FieldPlanner] No clear line from " + startPoint + " to any waypoint", false);
+    }
+    if (entry == -1) {
+      throw new IllegalStateException("Scoring waypoint " + target + " is not connected to the lane");
+    }
+
+    List<Translation2d> route = new ArrayList<>();
+    for (int node = targetNode; node != entry; node = previous[entry][node]) {
+      route.add(0, nodes[node]);
+    }
+    route.add(0, nodes[entry]);
+    while (route.size() > 1 && startPoint.getDistance(route.get(0)) < PathConstants.MIN_WAYPOINT_SPACING_METERS) {
+      route.remove(0);
+    }
+
+    List<Pose2d> waypoints = new ArrayList<>(route.size());
+    for (int i = 0; i + 1 < route.size(); i++) {
+      Translation2d before = i == 0 ? startPoint : route.get(i - 1);
+      Translation2d direction = route.get(i + 1).minus(before);
+      waypoints.add(new Pose2d(route.get(i), new Rotation2d(direction.getX(), direction.getY())));
+    }
+    waypoints.add(FieldConstants.SCORING_WAYPOINTS[target]);
+    return waypoints;
+  }
+
+  /**
+   * Returns the length of the shortest route between two waypoints along the graph. Waypoints are numbered with the
+   * traveling waypoints first, then the scoring waypoints, then the obstacle corners.
+   */
+  public double getRouteDistance(int from, int to) {
+    return distances[from][to];
+  }
+
+  private static void checkTarget(int target) {
+    if (target < 0 || target >= FieldConstants.SCORING_WAYPOINTS.length) {
+      throw new IndexOutOfBoundsException("No scoring waypoint " + target + " of "
+          + FieldConstants.SCORING_WAYPOINTS.length);
+    }
+  }
+
+  private static long cacheKey(Pose2d start, int target) {
+    checkTarget(target);
+    long x = Math.round(start.getX() / PathConstants.ROUTE_CACHE_POSITION_RESOLUTION_METERS) & 0xFFFF;
+    long y = Math.round(start.getY() / PathConstants.ROUTE_CACHE_POSITION_RESOLUTION_METERS) & 0xFFFF;
+    double headingResolution = PathConstants.ROUTE_CACHE_HEADING_RESOLUTION_DEGREES;
+    long heading = Math.floorMod(Math.round(start.getRotation().getDegrees() / headingResolution),
+        Math.round(360 / headingResolution));
+    return x << 48 | y << 32 | heading << 16 | (target & 0xFFFF);
+  }
+
+  /**
+   * Returns the trajectory cached for a start pose close to this one and the given scoring waypoint, or null.
+   */
+  public synchronized PathPlannerTrajectory getCachedPath(Pose2d start, int target) {
+    PathPlannerTrajectory trajectory = cache.get(cacheKey(start, target));
+    if (trajectory == null) {
+      cacheMisses++;
+    } else {
+      cacheHits++;
+    }
+    return trajectory;
+  }
+
+  /**
+   * Caches a trajectory generated from rest at the given start pose to the given scoring waypoint, evicting the least
+   * recently used one if the cache is full.
+   */
+  public synchronized void cachePath(Pose2d start, int target, PathPlannerTrajectory trajectory) {
+    cache.put(cacheKey(start, target), trajectory);
+  }
+
+  public synchronized int getCacheHits() {
+    return cacheHits;
+  }
+
+  public synchronized int getCacheMisses() {
+    return cacheMisses;
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.auton;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.pathplanner.lib.PathConstraints;
+import com.pathplanner.lib.PathPlanner;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Generated PathPlanner trajectories, keyed by path name and {@link PathConstraints}, so that starting a path is a map
+ * lookup instead of parsing JSON and generating splines.
+ *
+ * <p>
+ * {@link #preloadAll} generates every path in the deploy directory in parallel on low priority background threads,
+ * and is meant to be called from robotInit so the work is done while the robot is disabled. {@link #get} waits for a
+ * path that is still loading, and loads one that was never preloaded on the calling thread.
+ */
+public class TrajectoryCache {
+  private static final String PATH_EXTENSION = ".path";
+
+  /** A path name and the constraints it was generated with. */
+  private static final class Key {
+    final String name;
+    final double maxVelocity;
+    final double maxAcceleration;
+
+    Key(String name, PathConstraints constraints) {
+      this.name = name;
+      this.maxVelocity = constraints.maxVelocity;
+      this.maxAcceleration = constraints.maxAcceleration;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return name.equals(key.name) && Double.compare(maxVelocity, key.maxVelocity) == 0
+          && Double.compare(maxAcceleration, key.maxAcceleration) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return (name.hashCode() * 31 + Double.hashCode(maxVelocity)) * 31 + Double.hashCode(maxAcceleration);
+    }
+  }
+
+  private final Map<Key, CompletableFuture<PathPlannerTrajectory>> trajectories = new ConcurrentHashMap<>();
+
+  /**
+   * Starts generating every path in the deploy directory's pathplanner folder with the given constraints, and returns
+   * without waiting. Each path's load time is put on the dashboard under "Paths/", along with the total.
+   *
+   * @param constraints The constraints to generate the paths with
+   * @return A future that completes when every path has been generated
+   */
+  public CompletableFuture<Void> preloadAll(PathConstraints constraints) {
+    return preloadAll(new File(Filesystem.getDeployDirectory(), "pathplanner"), constraints);
+  }
+
+  /**
+   * Starts generating every path in the given directory with the given constraints, and returns without waiting.
+   *
+   * @param directory The directory of .path files; PathPlanner still loads them from the deploy directory by name
+   * @param constraints The constraints to generate the paths with
+   * @return A future that completes when every path has been generated
+   */
+  public CompletableFuture<Void> preloadAll(File directory, PathConstraints constraints) {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(PATH_EXTENSION));
+    if (files == null || files.length == 0) {
+      DriverStation.reportWarning("[TrajectoryCache] No paths found in " + directory, false);
+      return CompletableFuture.completedFuture(null);
+    }
+    Arrays.sort(files);
+
+    int threads = Math.min(files.length, Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "TrajectoryCache");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    long startNanos = System.nanoTime();
+    CompletableFuture<?>[] loads = new CompletableFuture<?>[files.length];
+    for (int i = 0; i < files.length; i++) {
+      String fileName = files[i].getName();
+      String name = fileName.substring(0, fileName.length() - PATH_EXTENSION.length());
+      loads[i] = trajectories.computeIfAbsent(new Key(name, constraints),
+          key -> CompletableFuture.supplyAsync(() -> load(name, constraints), executor));
+    }
+    executor.shutdown();
+    return CompletableFuture.allOf(loads).whenComplete((ignored, error) -> SmartDashboard
+        .putNumber("Paths/Preload Total (ms)", (System.nanoTime() - startNanos) / 1e6));
+  }
+
+  /**
+   * Returns the trajectory for a path, waiting for it if it is still being preloaded, or loading it now if it wasn't.
+   *
+   * @param name The path's name, without the .path extension
+   * @param constraints The constraints to generate the path with
+   * @return The trajectory, or null if the path couldn't be loaded
+   */
+  public PathPlannerTrajectory get(String name, PathConstraints constraints) {
+    return trajectories
+        .computeIfAbsent(new Key(name, constraints), key -> CompletableFuture.completedFuture(load(name, constraints)))
+        .join();
+  }
+
+  /**
+   * Returns whether a path has finished loading.
+   */
+  public boolean isLoaded(String name, PathConstraints constraints) {
+    CompletableFuture<PathPlannerTrajectory> trajectory = trajectories.get(new Key(name, constraints));
+    return trajectory != null && trajectory.isDone();
+  }
+
+  private static PathPlannerTrajectory load(String name, PathConstraints constraints) {
+    long startNanos = System.nanoTime();
+    PathPlannerTrajectory trajectory = PathPlanner.loadPath(name, constraints);
+    SmartDashboard.putNumber("Paths/" + name + " (ms)", (System.nanoTime() - startNanos) / 1e6);
+    if (trajectory == null) {
+      DriverStation.reportError("[TrajectoryCache] Failed to load path " + name, false);
+    }
+    return trajectory;
+  }
+}
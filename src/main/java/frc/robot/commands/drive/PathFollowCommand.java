@@ -6,18 +6,25 @@ package frc.robot.commands.drive;
 
 import com.pathplanner.lib.PathPlannerTrajectory;
 import com.pathplanner.lib.commands.PPRamseteCommand;
-import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.controller.RamseteController;
-import edu.wpi.first.math.controller.SimpleMotorFeedforward;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.DifferentialDriveWheelSpeeds;
+import edu.wpi.first.math.trajectory.Trajectory;
 import frc.robot.Constants.DriveConstants;
 import frc.robot.Constants.PathConstants;
 import frc.robot.subsystems.DriveBase;
 
 /**
- * Makes an {@link DriveBase} follow a given PathPlannerTrajectory using a Ramsete Controller.
+ * Makes an {@link DriveBase} follow a given PathPlannerTrajectory using a Ramsete Controller. The wheel velocities it
+ * asks for are tracked by {@link DriveBase#tankDriveVelocity(double, double)}.
  */
 public class PathFollowCommand extends PPRamseteCommand {
+  /* PPRamseteCommand leaves the last output running at the end of a path that ends faster than this. */
+  private static final double STOPPED_VELOCITY_METERS_PER_SECOND = 0.1;
 
+  private final DriveBase driveBase;
+  private final PathPlannerTrajectory trajectory;
+  private final boolean endsStopped;
 
   /**
    * Drives an {@link DriveBase} through the provided PathPlannerTrajectory using a Ramsete Controller.
@@ -26,14 +33,32 @@ public class PathFollowCommand extends PPRamseteCommand {
     super(
         traj,
         driveBase::getPose,
-        new RamseteController(),
-        new SimpleMotorFeedforward(PathConstants.kS, PathConstants.kV, PathConstants.kA),
+        new RamseteController(PathConstants.RAMSETE_B, PathConstants.RAMSETE_ZETA),
         DriveConstants.KINEMATICS,
-        driveBase::getWheelSpeeds,
-        new PIDController(PathConstants.kP, PathConstants.kI, PathConstants.KD),
-        new PIDController(PathConstants.kP, PathConstants.kI, PathConstants.KD),
-        driveBase::tankDriveVoltage,
+        driveBase::tankDriveVelocity,
         true,
         driveBase);
+    this.driveBase = driveBase;
+    this.trajectory = traj;
+    this.endsStopped = Math.abs(traj.getEndState().velocityMetersPerSecond) < STOPPED_VELOCITY_METERS_PER_SECOND;
+  }
+
+  @Override
+  public void initialize() {
+    super.initialize();
+    // The first setpoint's acceleration is from the path's start, not from whatever drove the robot before it.
+    Trajectory.State start = trajectory.getInitialState();
+    DifferentialDriveWheelSpeeds startSpeeds = DriveConstants.KINEMATICS.toWheelSpeeds(new ChassisSpeeds(
+        start.velocityMetersPerSecond, 0, start.velocityMetersPerSecond * start.curvatureRadPerMeter));
+    driveBase.resetVelocitySetpoints(startSpeeds.leftMetersPerSecond, startSpeeds.rightMetersPerSecond);
+  }
+
+  @Override
+  public void end(boolean interrupted) {
+    super.end(interrupted);
+    // A zero velocity setpoint would brake actively; stop the motors like the voltage output used to.
+    if (interrupted || endsStopped) {
+      driveBase.stopDrive();
+    }
   }
 }
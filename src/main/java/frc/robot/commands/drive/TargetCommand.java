@@ -4,79 +4,206 @@
 
 package frc.robot.commands.drive;
 
-import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntSupplier;
 import java.util.function.Supplier;
 
+import com.pathplanner.lib.PathPlannerTrajectory;
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.math.kinematics.DifferentialDriveWheelSpeeds;
+import edu.wpi.first.math.trajectory.Trajectory;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import frc.robot.Constants.FieldConstants;
+import frc.robot.Constants.PathConstants;
+import frc.robot.auton.FieldPlanner;
 import frc.robot.subsystems.DriveBase;
+import lobstah.stl.io.InputLog;
 
 /**
- * Drives a {@link DriveBase} through predetermined waypoints to a target to score.
+ * Drives a {@link DriveBase} along the route a {@link FieldPlanner} plans to one of
+ * {@link FieldConstants#SCORING_WAYPOINTS}.
+ *
+ * <p>
+ * The path is generated on a background thread so that requesting a target never stalls the main loop. Until the
+ * first path is ready the drivetrain holds still; once it is, this command follows it with a {@link PathFollowCommand}.
+ * If the target changes, the pending path is cancelled and a new one is generated while the current path keeps being
+ * followed until the new one replaces it. The new path starts where the current one will be once it is ready, by the
+ * last generation's latency, so the switch doesn't jump back to where the robot was when it asked. Paths from rest
+ * that the planner has cached are followed right away.
+ *
+ * <p>
+ * While an {@link InputLog} is recording or replaying, paths are generated in the main loop instead, so a path is
+ * ready in the same cycle on every run.
  */
 public class TargetCommand extends DriveCommand {
-  private Pose2d targetPose;
-  private final Supplier<Pose2d> targetSupplier;
+  /* One thread is enough: only the newest request matters, and cancelled requests that haven't started never run. */
+  private static final ExecutorService GENERATOR = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "PathGeneration");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final FieldPlanner planner;
+  private final IntSupplier targetSupplier;
+  private int target;
+  private CompletableFuture<PathPlannerTrajectory> pendingPath;
+  private boolean pendingAsync;
+  private long requestNanos;
+  private double requestSeconds;
+  private double latencyEstimateSeconds = PathConstants.REPLAN_LATENCY_SECONDS;
+  private PathPlannerTrajectory followed;
+  private double followStartSeconds;
+  private PathFollowCommand follower;
+  private boolean failed;
+  private int cancelledRequests;
 
   /**
    * Drives a {@link DriveBase} through a trajectory of waypoints to reach a scoring target.
+   *
+   * @param driveBase The {@link DriveBase} to drive
+   * @param planner The planner to route with, shared between commands so they share its cache
+   * @param targetSupplier Supplies the index of the target in {@link FieldConstants#SCORING_WAYPOINTS}
    */
-  public TargetCommand(DriveBase driveBase, Supplier<Pose2d> targetSupplier) {
+  public TargetCommand(DriveBase driveBase, FieldPlanner planner, IntSupplier targetSupplier) {
     super(driveBase);
+    this.planner = planner;
     this.targetSupplier = targetSupplier;
   }
 
   @Override
   public void initialize() {
-    this.targetPose = targetSupplier.get();
-    /* Finding the waypoint closest to the target. */
-    int finalWaypointIndex = 0;
-    for (int i = 0; i < FieldConstants.TRAVELING_WAYPOINTS.length; i++) {
-      if (Math.abs(targetPose.getY() - FieldConstants.TRAVELING_WAYPOINTS[i].getY()) < Math
-          .abs(targetPose.getY() - FieldConstants.TRAVELING_WAYPOINTS[finalWaypointIndex].getY())) {
-        finalWaypointIndex = i;
-      }
+    follower = null;
+    failed = false;
+    requestPath(targetSupplier.getAsInt());
+  }
+
+  @Override
+  public void execute() {
+    int requestedTarget = targetSupplier.getAsInt();
+    if (requestedTarget != target) {
+      requestPath(requestedTarget);
+    }
+
+    if (pendingPath != null && pendingPath.isDone()) {
+      switchToPendingPath();
     }
-    /*
-     * Finding the starting waypoint (closest to robot) and generating a path to the final waypoint. Logic is slightly
-     * different depending on direction the robot is traveling.
-     */
-    if (driveBase.getDistanceToPose(targetPose).getY() < 0) {
-      int index = 0;
-      while (driveBase.getDistanceToPose(FieldConstants.TRAVELING_WAYPOINTS[index]).getY() > 0) {
-        index++;
-      }
-      index++;
-      ArrayList<Pose2d> waypoints = new ArrayList<>();
-      for (int i = index; i < finalWaypointIndex; i++) {
-        waypoints.add(new Pose2d(FieldConstants.TRAVELING_WAYPOINTS[i].getX(),
-            FieldConstants.TRAVELING_WAYPOINTS[i].getY(), Rotation2d.fromDegrees(90)));
-      }
-      waypoints.add(targetPose);
-      CommandScheduler.getInstance()
-          .schedule(new PathFollowCommand(driveBase, driveBase.generatePath(waypoints)));
 
+    if (follower != null) {
+      follower.execute();
+    } else if (!failed) {
+      driveBase.stopDrive();
+    }
+  }
+
+  @Override
+  public void end(boolean interrupted) {
+    cancelPendingPath();
+    if (follower != null) {
+      follower.end(interrupted);
+      follower = null;
     } else {
-      int index = FieldConstants.TRAVELING_WAYPOINTS.length - 1;
-      while (driveBase.getDistanceToPose(FieldConstants.TRAVELING_WAYPOINTS[index]).getY() < 0) {
-        index--;
-      }
-      index--;
-      ArrayList<Pose2d> waypoints = new ArrayList<>();
-      for (int i = index; i >= finalWaypointIndex; i--) {
-        waypoints.add(new Pose2d(FieldConstants.TRAVELING_WAYPOINTS[i].getX(),
-            FieldConstants.TRAVELING_WAYPOINTS[i].getY(), Rotation2d.fromDegrees(-90)));
-      }
-      waypoints.add(targetPose);
-      CommandScheduler.getInstance()
-          .schedule(new PathFollowCommand(driveBase, driveBase.generatePath(waypoints)));
+      driveBase.stopDrive();
     }
   }
 
   @Override
   public boolean isFinished() {
-    return true;
+    return failed || (pendingPath == null && follower != null && follower.isFinished());
+  }
+
+  /**
+   * Starts generating a path to the target on the background thread, cancelling any path that was still being
+   * generated for an older target. While a path is being followed, the new one starts from that path's state when it
+   * is expected to be ready; otherwise it starts from the pose and speed the robot has now. A path from rest that is
+   * already cached is ready immediately.
+   */
+  private void requestPath(int newTarget) {
+    cancelPendingPath();
+    target = newTarget;
+    requestNanos = System.nanoTime();
+    requestSeconds = Timer.getFPGATimestamp();
+    Pose2d start;
+    double startSpeed;
+    if (follower != null) {
+      double pathSeconds = Math.min(requestSeconds - followStartSeconds + latencyEstimateSeconds,
+          followed.getTotalTimeSeconds());
+      Trajectory.State state = followed.sample(pathSeconds);
+      start = state.poseMeters;
+      startSpeed = state.velocityMetersPerSecond;
+    } else {
+      DifferentialDriveWheelSpeeds wheelSpeeds = driveBase.getWheelSpeeds();
+      start = driveBase.getPose();
+      startSpeed = (wheelSpeeds.leftMetersPerSecond + wheelSpeeds.rightMetersPerSecond) / 2;
+    }
+    // Driving backward can't be continued by a forward path, so it starts from rest, but isn't cached as one.
+    boolean fromRest = Math.abs(startSpeed) < PathConstants.STOPPED_SPEED_METERS_PER_SECOND;
+    PathPlannerTrajectory cached = fromRest ? planner.getCachedPath(start, newTarget) : null;
+    SmartDashboard.putNumber("Target/Cache Hits", planner.getCacheHits());
+    SmartDashboard.putNumber("Target/Cache Misses", planner.getCacheMisses());
+    pendingAsync = false;
+    if (cached != null) {
+      pendingPath = CompletableFuture.completedFuture(cached);
+      return;
+    }
+    Supplier<PathPlannerTrajectory> generation = () -> {
+      long startNanos = System.nanoTime();
+      PathPlannerTrajectory trajectory = driveBase.generatePath(start, startSpeed, planner.plan(start, newTarget));
+      SmartDashboard.putNumber("Target/Generation (ms)", (System.nanoTime() - startNanos) / 1e6);
+      if (fromRest && trajectory != null) {
+        planner.cachePath(start, newTarget, trajectory);
+      }
+      return trajectory;
+    };
+    // Recording and replaying need the path ready in the same cycle every run, so it is generated here.
+    if (InputLog.isActive()) {
+      pendingPath = CompletableFuture.completedFuture(generation.get());
+      return;
+    }
+    pendingAsync = true;
+    pendingPath = CompletableFuture.supplyAsync(generation, GENERATOR);
+  }
+
+  /**
+   * Cancels the path being generated, if any. A request that hasn't started never runs; one that has runs to the end
+   * and its result is dropped.
+   */
+  private void cancelPendingPath() {
+    if (pendingPath != null && pendingPath.cancel(false)) {
+      cancelledRequests++;
+      SmartDashboard.putNumber("Target/Cancelled Requests", cancelledRequests);
+    }
+    pendingPath = null;
+  }
+
+  /**
+   * Replaces the path being followed with the one that just finished generating, without stopping in between.
+   */
+  private void switchToPendingPath() {
+    PathPlannerTrajectory trajectory = null;
+    try {
+      trajectory = pendingPath.join();
+    } catch (RuntimeException e) {
+      DriverStation.reportError("[TargetCommand] Path generation failed: " + e.getMessage(), e.getStackTrace());
+    }
+    pendingPath = null;
+    SmartDashboard.putNumber("Target/Latency (ms)", (System.nanoTime() - requestNanos) / 1e6);
+    if (pendingAsync) {
+      latencyEstimateSeconds = Timer.getFPGATimestamp() - requestSeconds;
+    }
+    if (trajectory == null) {
+      // Keep following the old path if there is one; without one there is nothing to drive.
+      failed = follower == null;
+      return;
+    }
+    // The old follower is dropped rather than ended: ending it would stop the motors for a cycle. The new path starts
+    // from the old one's state, and its follower takes the setpoints over from there.
+    followed = trajectory;
+    followStartSeconds = Timer.getFPGATimestamp();
+    follower = new PathFollowCommand(driveBase, trajectory);
+    follower.initialize();
   }
 }
@@ -0,0 +1,143 @@
+package frc.robot.photonvision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose3d;
+import lobstah.stl.math.LobstahMath;
+
+/**
+ * The AprilTags of an {@link AprilTagFieldLayout}, precomputed into flat arrays indexed by tag id, for code that does
+ * its own projection math and can't afford a {@link Pose3d} per tag per frame.
+ *
+ * <p>
+ * Each tag has a center, a rotation matrix, an outward normal (the tag's +X axis, out of its printed face) and four
+ * corners in field coordinates. The corners are in the order PhotonVision reports detected corners: bottom left,
+ * bottom right, top right, top left, as seen looking at the tag.
+ */
+public class AprilTagFieldModel {
+  public static final int CORNERS = 4;
+
+  private final int[] ids;
+  private final Pose3d[] poses;
+  private final double[] centers;
+  private final double[] rotations;
+  private final double[] normals;
+  private final double[] corners;
+
+  /**
+   * Precomputes the tags of a layout.
+   *
+   * @param fieldTags The layout, or null for an empty field
+   * @param tagSizeMeters The side length of the black square of each tag
+   */
+  public AprilTagFieldModel(AprilTagFieldLayout fieldTags, double tagSizeMeters) {
+    List<AprilTag> tags = fieldTags == null ? new ArrayList<>() : fieldTags.getTags();
+    int maxId = -1;
+    for (AprilTag tag : tags) {
+      maxId = Math.max(maxId, tag.ID);
+    }
+    this.ids = new int[tags.size()];
+    this.poses = new Pose3d[maxId + 1];
+    this.centers = new double[3 * (maxId + 1)];
+    this.rotations = new double[9 * (maxId + 1)];
+    this.normals = new double[3 * (maxId + 1)];
+    this.corners = new double[3 * CORNERS * (maxId + 1)];
+
+    double halfSize = tagSizeMeters / 2;
+    double[] cornerY = {-halfSize, halfSize, halfSize, -halfSize};
+    double[] cornerZ = {-halfSize, -halfSize, halfSize, halfSize};
+    double[] rotation = new double[9];
+    for (int i = 0; i < tags.size(); i++) {
+      AprilTag tag = tags.get(i);
+      int id = tag.ID;
+      ids[i] = id;
+      poses[id] = tag.pose;
+      LobstahMath.quaternionToRotationMatrix(tag.pose.getRotation().getQuaternion(), rotation);
+      System.arraycopy(rotation, 0, rotations, 9 * id, 9);
+      centers[3 * id] = tag.pose.getX();
+      centers[3 * id + 1] = tag.pose.getY();
+      centers[3 * id + 2] = tag.pose.getZ();
+      for (int axis = 0; axis < 3; axis++) {
+        normals[3 * id + axis] = rotation[3 * axis];
+        for (int corner = 0; corner < CORNERS; corner++) {
+          corners[3 * (CORNERS * id + corner) + axis] = centers[3 * id + axis]
+              + rotation[3 * axis + 1] * cornerY[corner]
+              + rotation[3 * axis + 2] * cornerZ[corner];
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tags on the field.
+   */
+  public int getTagCount() {
+    return ids.length;
+  }
+
+  /**
+   * Returns the id of the tag at the given index, from 0 to {@link #getTagCount()} - 1.
+   */
+  public int getTagId(int index) {
+    return ids[index];
+  }
+
+  /**
+   * Returns whether a tag with the given id is on the field.
+   */
+  public boolean hasTag(int id) {
+    return id >= 0 && id < poses.length && poses[id] != null;
+  }
+
+  /**
+   * Returns the pose of a tag, or null if it isn't on the field.
+   */
+  public Pose3d getPose(int id) {
+    return hasTag(id) ? poses[id] : null;
+  }
+
+  /**
+   * Returns one coordinate of a tag's center.
+   *
+   * @param id The tag id, which must be on the field
+   * @param axis 0, 1 or 2 for x, y or z
+   */
+  public double getCenter(int id, int axis) {
+    return centers[3 * id + axis];
+  }
+
+  /**
+   * Returns one element of the matrix that rotates tag coordinates into field coordinates.
+   *
+   * @param id The tag id, which must be on the field
+   * @param row The row, from 0 to 2
+   * @param column The column, from 0 to 2
+   */
+  public double getRotation(int id, int row, int column) {
+    return rotations[9 * id + 3 * row + column];
+  }
+
+  /**
+   * Returns one coordinate of a tag's unit outward normal.
+   *
+   * @param id The tag id, which must be on the field
+   * @param axis 0, 1 or 2 for x, y or z
+   */
+  public double getNormal(int id, int axis) {
+    return normals[3 * id + axis];
+  }
+
+  /**
+   * Returns one coordinate of one of a tag's corners.
+   *
+   * @param id The tag id, which must be on the field
+   * @param corner The corner, from 0 to 3
+   * @param axis 0, 1 or 2 for x, y or z
+   */
+  public double getCorner(int id, int corner, int axis) {
+    return corners[3 * (CORNERS * id + corner) + axis];
+  }
+}
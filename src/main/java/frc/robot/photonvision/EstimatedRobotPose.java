@@ -14,15 +14,70 @@ public class EstimatedRobotPose {
   /** The pose confidence */
   public final double confidence;
 
+  /** A bit for the id of each {@link PhotonPoseEstimator} whose camera contributed */
+  public final int cameraMask;
+
+  /** The number of tags the estimate was solved from */
+  public final int tagCount;
+
+  /** The row-major 3x3 covariance of x, y and heading, or null if unknown. Don't modify. */
+  public final double[] covariance;
+
+  /** The mean distance from the camera to each tag used, or NaN if unknown */
+  public final double averageTagDistanceMeters;
+
+  /** The pose ambiguity of the estimate, from 0 to 1, 0 when several tags pin the pose down, or NaN if unknown */
+  public final double ambiguity;
+
   /**
    * Constructs an EstimatedRobotPose
    *
    * @param estimatedPose estimated pose
    * @param timestampSeconds timestamp of the estimate
+   * @param confidence confidence of the estimate, from 0 to 1
+   * @param cameraId id of the estimator that made the estimate from a single tag
    */
-  public EstimatedRobotPose(Pose2d estimatedPose, double timestampSeconds, double confidence) {
+  public EstimatedRobotPose(Pose2d estimatedPose, double timestampSeconds, double confidence, int cameraId) {
+    this(estimatedPose, timestampSeconds, confidence, 1 << cameraId, 1, null, Double.NaN, Double.NaN);
+  }
+
+  /**
+   * Constructs an EstimatedRobotPose from a solve over several tags and cameras.
+   *
+   * @param estimatedPose estimated pose
+   * @param timestampSeconds timestamp of the estimate
+   * @param confidence confidence of the estimate, from 0 to 1
+   * @param cameraMask a bit for the id of each estimator that contributed
+   * @param tagCount number of tags used
+   * @param covariance row-major covariance of x, y and heading, or null if unknown
+   * @param averageTagDistanceMeters mean camera to tag distance, or NaN if unknown
+   * @param ambiguity pose ambiguity, or NaN if unknown
+   */
+  public EstimatedRobotPose(Pose2d estimatedPose, double timestampSeconds, double confidence, int cameraMask,
+      int tagCount, double[] covariance, double averageTagDistanceMeters, double ambiguity) {
     this.estimatedPose = estimatedPose;
     this.timestampSeconds = timestampSeconds;
     this.confidence = confidence;
+    this.cameraMask = cameraMask;
+    this.tagCount = tagCount;
+    this.covariance = covariance;
+    this.averageTagDistanceMeters = averageTagDistanceMeters;
+    this.ambiguity = ambiguity;
+  }
+
+  /**
+   * Returns whether the given estimator's camera contributed to this estimate.
+   */
+  public boolean usesCamera(int cameraId) {
+    return (cameraMask & (1 << cameraId)) != 0;
+  }
+
+  /**
+   * Returns the standard deviation of x, y or heading from the covariance, or NaN if it is unknown.
+   *
+   * @param axis 0, 1 or 2 for x, y or heading
+   */
+  public double getStdDev(int axis) {
+    return covariance == null ? Double.NaN : Math.sqrt(covariance[4 * axis]);
   }
 }
@@ -0,0 +1,376 @@
+package frc.robot.photonvision;
+
+import java.util.List;
+
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import frc.robot.Constants.VisionConstants;
+import lobstah.stl.math.LobstahMath;
+
+/**
+ * Solves for one robot pose from every AprilTag corner seen by every camera at about the same time.
+ *
+ * <p>
+ * The robot is assumed to be flat on the floor, so the unknowns are only x, y and heading. Each detected corner is
+ * projected from its known field position through the robot pose, the camera's robot to camera transform and a
+ * pinhole model, and Gauss-Newton minimizes the squared pixel error over all corners at once. The 3x3 normal equations
+ * are solved in closed form, so an iteration over all corners of three cameras is a few microseconds of primitive
+ * math. The inverse of the final normal matrix, scaled by the corner noise, is the covariance of the pose.
+ *
+ * <p>
+ * A solver is reused for every solve and allocates nothing until {@link #getPose()}. It is not thread-safe.
+ */
+public class MultiTagPoseSolver {
+  public static final int MAX_CORNERS = 256;
+  private static final double MIN_DEPTH_METERS = 0.05;
+  private static final double CONVERGED_STEP = 1e-6;
+  private static final double MIN_DETERMINANT = 1e-12;
+
+  private final AprilTagFieldModel field;
+  /* Per camera: the row-major robot to camera rotation, then the translation. */
+  private final double[][] mounts;
+  private final double focalLengthPixels;
+  private final double centerXPixels;
+  private final double centerYPixels;
+  private final double cornerStdDevPixels;
+  private final int maxIterations;
+
+  private final int[] cornerCamera = new int[MAX_CORNERS];
+  private final double[] cornerU = new double[MAX_CORNERS];
+  private final double[] cornerV = new double[MAX_CORNERS];
+  private final double[] fieldX = new double[MAX_CORNERS];
+  private final double[] fieldY = new double[MAX_CORNERS];
+  private final double[] fieldZ = new double[MAX_CORNERS];
+  private int cornerCount;
+  private int tagCount;
+
+  private final double[] normal = new double[6];
+  private final double[] gradient = new double[3];
+  private final double[] covariance = new double[9];
+  private double x;
+  private double y;
+  private double heading;
+  private double rmsErrorPixels;
+  private int iterations;
+
+  /**
+   * Creates a solver with the camera model in {@link VisionConstants}.
+   *
+   * @param field The tags on the field
+   * @param robotToCameras The transform from the robot to each camera, indexed by camera id
+   */
+  public static MultiTagPoseSolver fromConstants(AprilTagFieldModel field, Transform3d[] robotToCameras) {
+    return new MultiTagPoseSolver(field, robotToCameras,
+        VisionConstants.CAMERA_WIDTH_PIXELS / 2.0
+            / Math.tan(Math.toRadians(VisionConstants.CAMERA_HORIZONTAL_FOV_DEGREES) / 2),
+        VisionConstants.CAMERA_WIDTH_PIXELS / 2.0, VisionConstants.CAMERA_HEIGHT_PIXELS / 2.0,
+        VisionConstants.CORNER_STD_DEV_PIXELS, VisionConstants.MAX_SOLVE_ITERATIONS);
+  }
+
+  /**
+   * Creates a solver.
+   *
+   * @param field The tags on the field
+   * @param robotToCameras The transform from the robot to each camera, indexed by camera id
+   * @param focalLengthPixels The focal length of the cameras
+   * @param centerXPixels The horizontal principal point of the cameras
+   * @param centerYPixels The vertical principal point of the cameras
+   * @param cornerStdDevPixels The least noise assumed on each corner coordinate
+   * @param maxIterations The most Gauss-Newton iterations per solve
+   */
+  public MultiTagPoseSolver(AprilTagFieldModel field, Transform3d[] robotToCameras, double focalLengthPixels,
+      double centerXPixels, double centerYPixels, double cornerStdDevPixels, int maxIterations) {
+    this.field = field;
+    this.mounts = new double[robotToCameras.length][12];
+    for (int camera = 0; camera < robotToCameras.length; camera++) {
+      LobstahMath.quaternionToRotationMatrix(robotToCameras[camera].getRotation().getQuaternion(), mounts[camera]);
+      mounts[camera][9] = robotToCameras[camera].getX();
+      mounts[camera][10] = robotToCameras[camera].getY();
+      mounts[camera][11] = robotToCameras[camera].getZ();
+    }
+    this.focalLengthPixels = focalLengthPixels;
+    this.centerXPixels = centerXPixels;
+    this.centerYPixels = centerYPixels;
+    this.cornerStdDevPixels = cornerStdDevPixels;
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Forgets the corners added since the last solve.
+   */
+  public void reset() {
+    cornerCount = 0;
+    tagCount = 0;
+  }
+
+  /**
+   * Adds the detected corners of every known tag in a camera's result.
+   *
+   * @param camera The camera id
+   * @param result The camera's result
+   * @return The number of tags added
+   */
+  public int addResult(int camera, PhotonPipelineResult result) {
+    List<PhotonTrackedTarget> targets = result.getTargets();
+    int added = 0;
+    for (int i = 0; i < targets.size(); i++) {
+      PhotonTrackedTarget target = targets.get(i);
+      int id = target.getFiducialId();
+      List<TargetCorner> corners = target.getDetectedCorners();
+      if (!field.hasTag(id) || corners == null || corners.size() != AprilTagFieldModel.CORNERS
+          || cornerCount + AprilTagFieldModel.CORNERS > MAX_CORNERS) {
+        continue;
+      }
+      for (int corner = 0; corner < AprilTagFieldModel.CORNERS; corner++) {
+        cornerCamera[cornerCount] = camera;
+        cornerU[cornerCount] = corners.get(corner).x;
+        cornerV[cornerCount] = corners.get(corner).y;
+        fieldX[cornerCount] = field.getCorner(id, corner, 0);
+        fieldY[cornerCount] = field.getCorner(id, corner, 1);
+        fieldZ[cornerCount] = field.getCorner(id, corner, 2);
+        cornerCount++;
+      }
+      added++;
+    }
+    tagCount += added;
+    return added;
+  }
+
+  /**
+   * Solves for the robot pose that best explains the corners added since {@link #reset()}.
+   *
+   * @param initialX The starting x position, e.g. from a single-tag estimate
+   * @param initialY The starting y position
+   * @param initialHeadingRadians The starting heading
+   * @return False if there were no corners or the solve diverged or was degenerate
+   */
+  public boolean solve(double initialX, double initialY, double initialHeadingRadians) {
+    if (cornerCount == 0) {
+      return false;
+    }
+    x = initialX;
+    y = initialY;
+    heading = initialHeadingRadians;
+    double squaredError = 0;
+    for (iterations = 1; iterations <= maxIterations; iterations++) {
+      squaredError = linearize();
+      if (Double.isNaN(squaredError)) {
+        return false;
+      }
+      // Solve the symmetric 3x3 normal equations by the adjugate.
+      double a = normal[0];
+      double b = normal[1];
+      double c = normal[2];
+      double d = normal[3];
+      double e = normal[4];
+      double f = normal[5];
+      double cofactor00 = d * f - e * e;
+      double cofactor01 = c * e - b * f;
+      double cofactor02 = b * e - c * d;
+      double determinant = a * cofactor00 + b * cofactor01 + c * cofactor02;
+      if (Math.abs(determinant) < MIN_DETERMINANT) {
+        return false;
+      }
+      double cofactor11 = a * f - c * c;
+      double cofactor12 = b * c - a * e;
+      double cofactor22 = a * d - b * b;
+      covariance[0] = cofactor00 / determinant;
+      covariance[1] = cofactor01 / determinant;
+      covariance[2] = cofactor02 / determinant;
+      covariance[4] = cofactor11 / determinant;
+      covariance[5] = cofactor12 / determinant;
+      covariance[8] = cofactor22 / determinant;
+      double stepX = covariance[0] * gradient[0] + covariance[1] * gradient[1] + covariance[2] * gradient[2];
+      double stepY = covariance[1] * gradient[0] + covariance[4] * gradient[1] + covariance[5] * gradient[2];
+      double stepHeading = covariance[2] * gradient[0] + covariance[5] * gradient[1] + covariance[8] * gradient[2];
+      x += stepX;
+      y += stepY;
+      heading += stepHeading;
+      if (Math.abs(stepX) + Math.abs(stepY) + Math.abs(stepHeading) < CONVERGED_STEP) {
+        break;
+      }
+    }
+    squaredError = linearize();
+    if (Double.isNaN(squaredError)) {
+      return false;
+    }
+    iterations = Math.min(iterations, maxIterations);
+    heading = MathUtil.angleModulus(heading);
+    rmsErrorPixels = Math.sqrt(squaredError / (2 * cornerCount));
+
+    // The corner noise is at least the configured noise, and more if the fit says so.
+    int degreesOfFreedom = 2 * cornerCount - 3;
+    double variance = cornerStdDevPixels * cornerStdDevPixels;
+    if (degreesOfFreedom > 0) {
+      variance = Math.max(variance, squaredError / degreesOfFreedom);
+    }
+    double a = normal[0];
+    double b = normal[1];
+    double c = normal[2];
+    double d = normal[3];
+    double e = normal[4];
+    double f = normal[5];
+    double determinant = a * (d * f - e * e) + b * (c * e - b * f) + c * (b * e - c * d);
+    if (Math.abs(determinant) < MIN_DETERMINANT) {
+      return false;
+    }
+    double scale = variance / determinant;
+    covariance[0] = (d * f - e * e) * scale;
+    covariance[1] = (c * e - b * f) * scale;
+    covariance[2] = (b * e - c * d) * scale;
+    covariance[4] = (a * f - c * c) * scale;
+    covariance[5] = (b * c - a * e) * scale;
+    covariance[8] = (a * d - b * b) * scale;
+    covariance[3] = covariance[1];
+    covariance[6] = covariance[2];
+    covariance[7] = covariance[5];
+    return true;
+  }
+
+  /**
+   * Accumulates the normal matrix and gradient of the reprojection error at the current pose.
+   *
+   * @return The sum of squared pixel errors, or NaN if a corner is behind its camera
+   */
+  private double linearize() {
+    for (int i = 0; i < 6; i++) {
+      normal[i] = 0;
+    }
+    gradient[0] = 0;
+    gradient[1] = 0;
+    gradient[2] = 0;
+    double squaredError = 0;
+    double cos = Math.cos(heading);
+    double sin = Math.sin(heading);
+    double focal = focalLengthPixels;
+    for (int i = 0; i < cornerCount; i++) {
+      double[] m = mounts[cornerCamera[i]];
+      // The corner in robot coordinates, and its derivatives by x, y and heading.
+      double dx = fieldX[i] - x;
+      double dy = fieldY[i] - y;
+      double robotX = cos * dx + sin * dy;
+      double robotY = -sin * dx + cos * dy;
+      double offsetX = robotX - m[9];
+      double offsetY = robotY - m[10];
+      double offsetZ = fieldZ[i] - m[11];
+      // The corner in camera coordinates: x forward, y left, z up.
+      double qx = m[0] * offsetX + m[3] * offsetY + m[6] * offsetZ;
+      double qy = m[1] * offsetX + m[4] * offsetY + m[7] * offsetZ;
+      double qz = m[2] * offsetX + m[5] * offsetY + m[8] * offsetZ;
+      if (qx < MIN_DEPTH_METERS) {
+        return Double.NaN;
+      }
+      double inverseDepth = 1 / qx;
+      double errorU = cornerU[i] - (centerXPixels - focal * qy * inverseDepth);
+      double errorV = cornerV[i] - (centerYPixels - focal * qz * inverseDepth);
+      squaredError += errorU * errorU + errorV * errorV;
+
+      double ju0 = 0;
+      double ju1 = 0;
+      double ju2 = 0;
+      double jv0 = 0;
+      double jv1 = 0;
+      double jv2 = 0;
+      for (int parameter = 0; parameter < 3; parameter++) {
+        double dRobotX;
+        double dRobotY;
+        if (parameter == 0) {
+          dRobotX = -cos;
+          dRobotY = sin;
+        } else if (parameter == 1) {
+          dRobotX = -sin;
+          dRobotY = -cos;
+        } else {
+          dRobotX = robotY;
+          dRobotY = -robotX;
+        }
+        double dqx = m[0] * dRobotX + m[3] * dRobotY;
+        double dqy = m[1] * dRobotX + m[4] * dRobotY;
+        double dqz = m[2] * dRobotX + m[5] * dRobotY;
+        double ju = -focal * (dqy * qx - qy * dqx) * inverseDepth * inverseDepth;
+        double jv = -focal * (dqz * qx - qz * dqx) * inverseDepth * inverseDepth;
+        if (parameter == 0) {
+          ju0 = ju;
+          jv0 = jv;
+        } else if (parameter == 1) {
+          ju1 = ju;
+          jv1 = jv;
+        } else {
+          ju2 = ju;
+          jv2 = jv;
+        }
+      }
+      normal[0] += ju0 * ju0 + jv0 * jv0;
+      normal[1] += ju0 * ju1 + jv0 * jv1;
+      normal[2] += ju0 * ju2 + jv0 * jv2;
+      normal[3] += ju1 * ju1 + jv1 * jv1;
+      normal[4] += ju1 * ju2 + jv1 * jv2;
+      normal[5] += ju2 * ju2 + jv2 * jv2;
+      gradient[0] += ju0 * errorU + jv0 * errorV;
+      gradient[1] += ju1 * errorU + jv1 * errorV;
+      gradient[2] += ju2 * errorU + jv2 * errorV;
+    }
+    return squaredError;
+  }
+
+  public double getX() {
+    return x;
+  }
+
+  public double getY() {
+    return y;
+  }
+
+  public double getHeadingRadians() {
+    return heading;
+  }
+
+  /**
+   * Returns the solved pose.
+   */
+  public Pose2d getPose() {
+    return new Pose2d(x, y, new Rotation2d(heading));
+  }
+
+  /**
+   * Returns an element of the covariance of the solved x, y and heading.
+   *
+   * @param row 0, 1 or 2 for x, y or heading
+   * @param column 0, 1 or 2 for x, y or heading
+   */
+  public double getCovariance(int row, int column) {
+    return covariance[3 * row + column];
+  }
+
+  /**
+   * Copies the row-major covariance of the solved x, y and heading.
+   */
+  public double[] copyCovariance() {
+    return covariance.clone();
+  }
+
+  public int getTagCount() {
+    return tagCount;
+  }
+
+  public int getCornerCount() {
+    return cornerCount;
+  }
+
+  /**
+   * Returns the root mean square pixel error of the corners at the solved pose.
+   */
+  public double getRmsErrorPixels() {
+    return rmsErrorPixels;
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+}
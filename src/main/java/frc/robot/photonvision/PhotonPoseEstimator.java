@@ -2,15 +2,23 @@
 package frc.robot.photonvision;
 
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.Constants.ReplayConstants;
+import frc.robot.Constants.VisionConstants;
+import lobstah.stl.io.InputLog;
 import lobstah.stl.math.LobstahMath;
-import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import org.photonvision.PhotonCamera;
+import org.photonvision.common.dataflow.structures.Packet;
 import org.photonvision.targeting.PhotonPipelineResult;
 import org.photonvision.targeting.PhotonTrackedTarget;
 
@@ -18,14 +26,33 @@ import org.photonvision.targeting.PhotonTrackedTarget;
  * The PhotonPoseEstimator class filters or combines readings from all the AprilTags visible at a given timestamp on the
  * field to produce a single robot in field pose, using the strategy set below. Example usage can be found in our
  * apriltagExample example project.
+ *
+ * <p>
+ * The field layout is compiled into an {@link AprilTagFieldModel} and the inverse of the camera's extrinsics is
+ * computed once, so turning a target into a robot pose is a few rotation matrix products on primitives instead of a
+ * chain of {@link Pose3d} and {@link Transform3d} allocations.
  */
 public class PhotonPoseEstimator {
 
   private AprilTagFieldLayout fieldTags;
+  private AprilTagFieldModel fieldModel;
   private final PhotonCamera camera;
   private final Transform3d robotToCamera;
+  private Supplier<PhotonPipelineResult> resultSource;
 
-  private final Set<Integer> reportedErrors = new HashSet<>();
+  /* The camera ➔ robot transform, row-major rotation followed by translation. */
+  private final double[] cameraToRobotRotation = new double[9];
+  private final double[] cameraToRobotTranslation = new double[3];
+  /* Scratch for one estimate; an estimator is only updated from one thread at a time. */
+  private final double[] cameraToTargetRotation = new double[9];
+  private final double[] fieldToCameraRotation = new double[6];
+
+  private final Set<Integer> reportedErrors = ConcurrentHashMap.newKeySet();
+
+  /* Written only by the thread that polls the camera. */
+  private volatile double lastFrameTimestampSeconds = Double.NEGATIVE_INFINITY;
+  private volatile long frameSequence;
+  private volatile long duplicateFrames;
 
   public final int id;
 
@@ -42,10 +69,56 @@ public class PhotonPoseEstimator {
       AprilTagFieldLayout fieldTags,
       PhotonCamera camera,
       Transform3d robotToCamera, int id) {
+    this(new AprilTagFieldModel(fieldTags, VisionConstants.APRILTAG_SIZE_METERS), camera, robotToCamera, id);
     this.fieldTags = fieldTags;
+  }
+
+  /**
+   * Create a new PhotonPoseEstimator that shares an already compiled field.
+   *
+   * @param fieldModel The AprilTags on the field
+   * @param camera The camera, or null to supply results with {@link #setResultSource}
+   * @param robotToCamera Transform3d from the center of the robot to the camera mount positions (ie, robot ➔ camera)
+   * @param id The camera's index
+   */
+  public PhotonPoseEstimator(
+      AprilTagFieldModel fieldModel,
+      PhotonCamera camera,
+      Transform3d robotToCamera, int id) {
+    this.fieldModel = fieldModel;
     this.camera = camera;
     this.robotToCamera = robotToCamera;
     this.id = id;
+    this.resultSource = camera == null ? null : camera::getLatestResult;
+
+    // The inverse of a rigid transform: the transposed rotation, and the translation rotated back and negated.
+    double[] robotToCameraRotation = new double[9];
+    LobstahMath.quaternionToRotationMatrix(robotToCamera.getRotation().getQuaternion(), robotToCameraRotation);
+    Translation3d translation = robotToCamera.getTranslation();
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < 3; column++) {
+        cameraToRobotRotation[3 * row + column] = robotToCameraRotation[3 * column + row];
+      }
+      cameraToRobotTranslation[row] = -(robotToCameraRotation[row] * translation.getX()
+          + robotToCameraRotation[3 + row] * translation.getY()
+          + robotToCameraRotation[6 + row] * translation.getZ());
+    }
+  }
+
+  /**
+   * Returns the transform from the center of the robot to this estimator's camera.
+   */
+  public Transform3d getRobotToCamera() {
+    return robotToCamera;
+  }
+
+  /**
+   * Replaces the camera as the source of pipeline results, e.g. with a {@link frc.robot.sim.SimulatedCamera}.
+   *
+   * @param resultSource Supplies the latest pipeline result
+   */
+  public void setResultSource(Supplier<PhotonPipelineResult> resultSource) {
+    this.resultSource = resultSource;
   }
 
   /**
@@ -64,6 +137,14 @@ public class PhotonPoseEstimator {
    */
   public void setFieldTags(AprilTagFieldLayout fieldTags) {
     this.fieldTags = fieldTags;
+    this.fieldModel = new AprilTagFieldModel(fieldTags, VisionConstants.APRILTAG_SIZE_METERS);
+  }
+
+  /**
+   * Returns the compiled AprilTags the estimator looks tags up in.
+   */
+  public AprilTagFieldModel getFieldModel() {
+    return fieldModel;
   }
 
   /**
@@ -74,19 +155,95 @@ public class PhotonPoseEstimator {
    *         to create the estimate
    */
   public Optional<EstimatedRobotPose> update() {
-    if (camera == null) {
+    if (resultSource == null) {
       DriverStation.reportError("[PhotonPoseEstimator] Missing camera!", false);
       return Optional.empty();
     }
+    PhotonPipelineResult result = getLatestResult();
+    if (!consumeFrame(result)) {
+      return Optional.empty();
+    }
+    return update(result);
+  }
+
+  /**
+   * Marks a result as consumed if it is a frame that hasn't been consumed yet. A camera keeps returning its last frame
+   * until the next one arrives, so most polls see a duplicate; those are counted and should be skipped. Frames are
+   * told apart by capture timestamp, since PhotonVision 2023 results have no sequence number; each new frame is given
+   * the next {@link #getFrameSequence() sequence number} here instead. A timestamp more than
+   * {@link VisionConstants#FRAME_TIMESTAMP_RESET_SECONDS} older than the last one means the camera restarted or its
+   * clock was resynchronized, and starts a new sequence of timestamps rather than being dropped.
+   *
+   * @param result a result just read from the camera
+   * @return true if the result is a new frame
+   */
+  public boolean consumeFrame(PhotonPipelineResult result) {
+    double timestampSeconds = result.getTimestampSeconds();
+    if (timestampSeconds <= lastFrameTimestampSeconds
+        && timestampSeconds > lastFrameTimestampSeconds - VisionConstants.FRAME_TIMESTAMP_RESET_SECONDS) {
+      duplicateFrames++;
+      return false;
+    }
+    lastFrameTimestampSeconds = timestampSeconds;
+    frameSequence++;
+    return true;
+  }
 
-    PhotonPipelineResult cameraResult = camera.getLatestResult();
-    if (!cameraResult.hasTargets()) {
+  /**
+   * Returns the number of unique frames consumed, which is also the sequence number of the last one.
+   */
+  public long getFrameSequence() {
+    return frameSequence;
+  }
+
+  /**
+   * Returns the number of times a frame that was already consumed was read again and skipped.
+   */
+  public long getDuplicateFrames() {
+    return duplicateFrames;
+  }
+
+  /**
+   * Returns the capture timestamp of the last frame consumed.
+   */
+  public double getLastFrameTimestampSeconds() {
+    return lastFrameTimestampSeconds;
+  }
+
+  /**
+   * Estimates the position of the robot from a result already read from the camera.
+   *
+   * @param cameraResult the pipeline result
+   * @return an EstimatedRobotPose, or empty if the result has no fiducial targets
+   */
+  public Optional<EstimatedRobotPose> update(PhotonPipelineResult cameraResult) {
+    if (fieldModel.getTagCount() == 0 || !cameraResult.hasTargets()) {
       return Optional.empty();
     }
 
     return lowestAmbiguityStrategy(cameraResult);
   }
 
+  /**
+   * Returns the camera's latest result, passed through the {@link InputLog} so that recorded runs can be replayed.
+   */
+  public PhotonPipelineResult getLatestResult() {
+    if (!InputLog.isActive()) {
+      return resultSource.get();
+    }
+    int channel = ReplayConstants.VISION_RESULT + id;
+    PhotonPipelineResult live = InputLog.isReplaying() ? new PhotonPipelineResult() : resultSource.get();
+    byte[] data = InputLog.logBytes(channel, live.populatePacket(new Packet(live.getPacketSize())).getData());
+    double timestampSeconds = InputLog.logDouble(channel, live.getTimestampSeconds());
+    if (InputLog.isRecording()) {
+      return live;
+    }
+    PhotonPipelineResult result = new PhotonPipelineResult();
+    result.createFromPacket(new Packet(data));
+    result.setTimestampSeconds(timestampSeconds);
+    return result;
+  }
+
   /**
    * Return the estimated position of the robot with the lowest position ambiguity from a List of pipeline results.
    *
@@ -114,31 +271,54 @@ public class PhotonPoseEstimator {
 
     int targetFiducialId = lowestAmbiguityTarget.getFiducialId();
 
-    Optional<Pose3d> targetPosition = fieldTags.getTagPose(targetFiducialId);
-
-    if (targetPosition.isEmpty()) {
+    if (!fieldModel.hasTag(targetFiducialId)) {
       reportFiducialPoseError(targetFiducialId);
       return Optional.empty();
     }
 
-    if (lowestAmbiguityScore > 0.2) {
-      return Optional.of(
-          new EstimatedRobotPose(
-              targetPosition
-                  .get()
-                  .transformBy(lowestAmbiguityTarget.getBestCameraToTarget().inverse())
-                  .transformBy(robotToCamera.inverse()).toPose2d(),
-              result.getTimestampSeconds(), 0));
-    } else {
-      double confidence = LobstahMath.scaleNumberToClampedRange(0.2 - lowestAmbiguityScore, 0, 0.2, 0, 1);
-      return Optional.of(
-          new EstimatedRobotPose(
-              targetPosition
-                  .get()
-                  .transformBy(lowestAmbiguityTarget.getBestCameraToTarget().inverse())
-                  .transformBy(robotToCamera.inverse()).toPose2d(),
-              result.getTimestampSeconds(), confidence));
+    double confidence = lowestAmbiguityScore > 0.2
+        ? 0
+        : LobstahMath.scaleNumberToClampedRange(0.2 - lowestAmbiguityScore, 0, 0.2, 0, 1);
+    Transform3d cameraToTarget = lowestAmbiguityTarget.getBestCameraToTarget();
+    return Optional.of(new EstimatedRobotPose(robotPose(targetFiducialId, cameraToTarget), result.getTimestampSeconds(),
+        confidence, 1 << id, 1, null, cameraToTarget.getTranslation().getNorm(), lowestAmbiguityScore));
+  }
+
+  /**
+   * Returns the robot pose at which the camera would see a tag at the given transform, i.e. field ➔ tag ➔ camera
+   * ➔ robot. Only the rows of the rotations needed for x, y and heading are computed.
+   *
+   * @param tagId The tag, which must be on the field
+   * @param cameraToTarget The tag's pose relative to the camera
+   */
+  Pose2d robotPose(int tagId, Transform3d cameraToTarget) {
+    LobstahMath.quaternionToRotationMatrix(cameraToTarget.getRotation().getQuaternion(), cameraToTargetRotation);
+    Translation3d cameraToTargetTranslation = cameraToTarget.getTranslation();
+    double targetX = cameraToTargetTranslation.getX();
+    double targetY = cameraToTargetTranslation.getY();
+    double targetZ = cameraToTargetTranslation.getZ();
+
+    // field ➔ camera = field ➔ tag * (camera ➔ tag)^-1, whose rotation is R_tag * R_target^T.
+    for (int row = 0; row < 2; row++) {
+      for (int column = 0; column < 3; column++) {
+        fieldToCameraRotation[3 * row + column] =
+            fieldModel.getRotation(tagId, row, 0) * cameraToTargetRotation[3 * column]
+                + fieldModel.getRotation(tagId, row, 1) * cameraToTargetRotation[3 * column + 1]
+                + fieldModel.getRotation(tagId, row, 2) * cameraToTargetRotation[3 * column + 2];
+      }
     }
+    double[] r = fieldToCameraRotation;
+    double cameraX = fieldModel.getCenter(tagId, 0) - (r[0] * targetX + r[1] * targetY + r[2] * targetZ);
+    double cameraY = fieldModel.getCenter(tagId, 1) - (r[3] * targetX + r[4] * targetY + r[5] * targetZ);
+
+    // field ➔ robot = field ➔ camera * camera ➔ robot.
+    double[] m = cameraToRobotRotation;
+    double[] t = cameraToRobotTranslation;
+    double robotX = cameraX + r[0] * t[0] + r[1] * t[1] + r[2] * t[2];
+    double robotY = cameraY + r[3] * t[0] + r[4] * t[1] + r[5] * t[2];
+    double cos = r[0] * m[0] + r[1] * m[3] + r[2] * m[6];
+    double sin = r[3] * m[0] + r[4] * m[3] + r[5] * m[6];
+    return new Pose2d(robotX, robotY, new Rotation2d(Math.atan2(sin, cos)));
   }
 
   /**
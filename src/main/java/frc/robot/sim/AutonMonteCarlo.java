@@ -0,0 +1,236 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.pathplanner.lib.PathConstraints;
+import com.pathplanner.lib.PathPlanner;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import frc.robot.Constants.PathConstants;
+import frc.robot.sim.DrivetrainModel.Integrator;
+
+/**
+ * Runs every path combination that {@link frc.robot.auton.AutonGenerator#getPath(int, int, int)} can select, each
+ * with randomized starting offsets, sensor noise and battery states, as independent {@link SimulatedDrivetrain}s in
+ * parallel across all cores. Reports completion time, final pose error, tracking error and failure rate per
+ * combination.
+ */
+public class AutonMonteCarlo {
+  public static final int INITIAL_POSITIONS = 3;
+  public static final int CROSSING_POSITIONS = 3;
+  public static final int FINAL_POSITIONS = 4;
+
+  private static final double MAX_START_OFFSET_METERS = 0.1;
+  private static final double MAX_START_HEADING_OFFSET_RADIANS = Math.toRadians(3);
+  private static final double ENCODER_NOISE_METERS = 0.002;
+  private static final double GYRO_NOISE_RADIANS = Math.toRadians(0.2);
+  private static final double MIN_BATTERY_VOLTAGE = 11.5;
+  private static final double MAX_BATTERY_VOLTAGE = 12.8;
+
+  /** The aggregated results for one path combination. */
+  public static class CombinationSummary {
+    public final String name;
+    public final int trials;
+    public final int failures;
+    public final double meanCompletionTimeSeconds;
+    public final double meanFinalErrorMeters;
+    public final double maxFinalErrorMeters;
+    public final double meanRmsTrackingErrorMeters;
+
+    CombinationSummary(String name, List<PathFollowResult> results) {
+      this.name = name;
+      this.trials = results.size();
+      int failed = 0;
+      double completionTime = 0;
+      double finalError = 0;
+      double maxFinalError = 0;
+      double trackingError = 0;
+      for (PathFollowResult result : results) {
+        if (result.completed) {
+          completionTime += result.completionTimeSeconds;
+        } else {
+          failed++;
+        }
+        finalError += result.finalTranslationErrorMeters;
+        maxFinalError = Math.max(maxFinalError, result.finalTranslationErrorMeters);
+        trackingError += result.rmsTrackingErrorMeters;
+      }
+      this.failures = failed;
+      this.meanCompletionTimeSeconds = failed == trials ? Double.NaN : completionTime / (trials - failed);
+      this.meanFinalErrorMeters = finalError / trials;
+      this.maxFinalErrorMeters = maxFinalError;
+      this.meanRmsTrackingErrorMeters = trackingError / trials;
+    }
+
+    public double getFailureRate() {
+      return (double) failures / trials;
+    }
+  }
+
+  /**
+   * Loads both legs of the given path combination, in the order {@link frc.robot.auton.AutonGenerator} follows them.
+   */
+  public static List<PathPlannerTrajectory> loadCombination(int initialPosition, int crossingPosition,
+      int finalPosition) {
+    PathConstraints constraints = new PathConstraints(PathConstants.MAX_DRIVE_SPEED, PathConstants.MAX_ACCELERATION);
+    List<PathPlannerTrajectory> legs = new ArrayList<>();
+    legs.add(PathPlanner.loadPath(initialPosition + "-" + crossingPosition, constraints));
+    legs.add(PathPlanner.loadPath("_" + crossingPosition + "-" + finalPosition, constraints));
+    return legs;
+  }
+
+  /**
+   * Runs one randomized trial of a path combination.
+   *
+   * @param legs The trajectories to follow
+   * @param gains The path following gains
+   * @param seed The seed for the starting offset, battery state and sensor noise
+   */
+  public static PathFollowResult runTrial(List<PathPlannerTrajectory> legs, PathFollowGains gains, long seed) {
+    return runTrial(legs, gains, seed, DrivetrainModel.DEFAULT_INTEGRATOR,
+        DrivetrainModel.DEFAULT_SUBSTEPS);
+  }
+
+  /**
+   * Runs one randomized trial of a path combination with the given plant integration settings.
+   *
+   * @param legs The trajectories to follow
+   * @param gains The path following gains
+   * @param seed The seed for the starting offset, battery state and sensor noise
+   * @param integrator The integration method for the plant
+   * @param substeps The number of integration steps per control loop
+   */
+  public static PathFollowResult runTrial(List<PathPlannerTrajectory> legs, PathFollowGains gains, long seed,
+      Integrator integrator, int substeps) {
+    Random random = new Random(seed);
+    Pose2d start = legs.get(0).getInitialPose().transformBy(
+        new Transform2d(
+            new Translation2d(
+                (2 * random.nextDouble() - 1) * MAX_START_OFFSET_METERS,
+                (2 * random.nextDouble() - 1) * MAX_START_OFFSET_METERS),
+            new Rotation2d((2 * random.nextDouble() - 1) * MAX_START_HEADING_OFFSET_RADIANS)));
+    double batteryVoltage = MIN_BATTERY_VOLTAGE + random.nextDouble() * (MAX_BATTERY_VOLTAGE - MIN_BATTERY_VOLTAGE);
+    SimulatedDrivetrain drivetrain = new SimulatedDrivetrain(start, batteryVoltage, ENCODER_NOISE_METERS,
+        GYRO_NOISE_RADIANS, random.nextLong(), integrator, substeps);
+    return new PathFollowSimulation(drivetrain, gains).run(legs);
+  }
+
+  /**
+   * Runs every path combination with the given number of randomized trials on a thread pool.
+   *
+   * @param trials The number of randomized trials per combination
+   * @param gains The path following gains
+   * @param seed The base seed; each trial derives its own seed from it
+   * @param threads The number of worker threads
+   */
+  public static List<CombinationSummary> run(int trials, PathFollowGains gains, long seed, int threads)
+      throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<String> names = new ArrayList<>();
+      List<Future<List<PathPlannerTrajectory>>> loads = new ArrayList<>();
+      for (int initial = 0; initial < INITIAL_POSITIONS; initial++) {
+        for (int crossing = 0; crossing < CROSSING_POSITIONS; crossing++) {
+          for (int ending = 0; ending < FINAL_POSITIONS; ending++) {
+            final int i = initial;
+            final int c = crossing;
+            final int f = ending;
+            names.add(i + "-" + c + "-" + f);
+            loads.add(executor.submit(() -> loadCombination(i, c, f)));
+          }
+        }
+      }
+
+      List<List<Future<PathFollowResult>>> runs = new ArrayList<>();
+      for (int combination = 0; combination < loads.size(); combination++) {
+        List<PathPlannerTrajectory> legs = loads.get(combination).get();
+        List<Future<PathFollowResult>> trialRuns = new ArrayList<>();
+        for (int trial = 0; trial < trials; trial++) {
+          long trialSeed = seed + (long) combination * trials + trial;
+          trialRuns.add(executor.submit(() -> runTrial(legs, gains, trialSeed)));
+        }
+        runs.add(trialRuns);
+      }
+
+      List<CombinationSummary> summaries = new ArrayList<>();
+      for (int combination = 0; combination < runs.size(); combination++) {
+        List<PathFollowResult> results = new ArrayList<>();
+        for (Future<PathFollowResult> trialRun : runs.get(combination)) {
+          results.add(trialRun.get());
+        }
+        summaries.add(new CombinationSummary(names.get(combination), results));
+      }
+      return summaries;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs the Monte Carlo evaluation and prints a table of results.
+   *
+   * <p>
+   * Arguments: {@code [--trials N] [--seed SEED] [--threads N] [--velocity-loop onboard|roborio]
+   * [--velocity-estimate kalman|talon]}, where the velocity loop defaults to
+   * {@link frc.robot.Constants.DriveConstants#ONBOARD_VELOCITY_CONTROL} and the estimate, which only the roboRIO loop
+   * reads, to {@link frc.robot.Constants.DriveConstants#ESTIMATE_WHEEL_VELOCITY}. Compare the rms tracking error of
+   * {@code --velocity-loop roborio} with each estimate to see what the estimator is worth.
+   */
+  public static void main(String... args) throws InterruptedException, ExecutionException {
+    int trials = 20;
+    long seed = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    PathFollowGains gains = PathFollowGains.fromConstants();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--trials":
+          trials = Integer.parseInt(args[i + 1]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+        case "--velocity-loop":
+          gains = gains.withOnboardVelocityControl("onboard".equals(args[i + 1]));
+          break;
+        case "--velocity-estimate":
+          gains = gains.withEstimatedWheelVelocity("kalman".equals(args[i + 1]));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+
+    long startNanos = System.nanoTime();
+    List<CombinationSummary> summaries = run(trials, gains, seed, threads);
+    double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+    System.out.printf("%-8s %12s %14s %14s %14s %10s%n", "path", "time (s)", "mean err (m)", "max err (m)",
+        "rms track (m)", "failures");
+    for (CombinationSummary summary : summaries) {
+      System.out.printf("%-8s %12.2f %14.3f %14.3f %14.3f %9.0f%%%n", summary.name, summary.meanCompletionTimeSeconds,
+          summary.meanFinalErrorMeters, summary.maxFinalErrorMeters, summary.meanRmsTrackingErrorMeters,
+          100 * summary.getFailureRate());
+    }
+    System.out.printf("Ran %d trials on %d threads in %.2f s, velocity loop %s%n", summaries.size() * trials, threads,
+        wallSeconds, gains.onboardVelocityControl ? "onboard"
+            : gains.estimateWheelVelocity ? "on the roboRIO with estimated velocity"
+                : "on the roboRIO with Talon velocity");
+    System.exit(0);
+  }
+}
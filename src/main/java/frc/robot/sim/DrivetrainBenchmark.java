@@ -0,0 +1,273 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim;
+import frc.robot.Constants.DriveConstants;
+import frc.robot.Constants.RobotConstants;
+import frc.robot.sim.DrivetrainModel.Integrator;
+
+/**
+ * Compares the pose drift and speed of each {@link DrivetrainModel} integrator setting against the
+ * {@link DifferentialDrivetrainSim} the robot simulation used to step directly.
+ *
+ * <p>
+ * Every setting drives the same seeded sequence of voltage steps, held for {@link #LOOP_PERIOD_SECONDS} at a time
+ * like the robot loop. Drift is measured against a reference integrated with a very tight tolerance.
+ */
+public class DrivetrainBenchmark {
+  public static final double LOOP_PERIOD_SECONDS = 0.020;
+
+  private static final double SEGMENT_SECONDS = 1.5;
+  private static final double MAX_VOLTS = 12;
+  private static final double REFERENCE_MAX_ERROR = 1e-12;
+  private static final int REFERENCE_SUBSTEPS = 20;
+
+  /** One plant under test. */
+  private interface Plant {
+    void step(double leftVolts, double rightVolts);
+
+    double getX();
+
+    double getY();
+
+    double getHeadingRadians();
+
+    /** Returns the dynamics evaluations so far, or -1 if the plant doesn't count them. */
+    long getEvaluations();
+  }
+
+  /** The results for one plant. */
+  private static class Result {
+    final String name;
+    final double finalDriftMeters;
+    final double maxDriftMeters;
+    final double finalHeadingDriftRadians;
+    final double stepsPerSecond;
+    final double evaluationsPerStep;
+
+    Result(String name, double finalDriftMeters, double maxDriftMeters, double finalHeadingDriftRadians,
+        double stepsPerSecond, double evaluationsPerStep) {
+      this.name = name;
+      this.finalDriftMeters = finalDriftMeters;
+      this.maxDriftMeters = maxDriftMeters;
+      this.finalHeadingDriftRadians = finalHeadingDriftRadians;
+      this.stepsPerSecond = stepsPerSecond;
+      this.evaluationsPerStep = evaluationsPerStep;
+    }
+  }
+
+  private static DrivetrainModel model(Integrator integrator, int substeps, double maxError) {
+    return new DrivetrainModel(
+        DriveConstants.kDrivetrainPlant,
+        DriveConstants.kDriveGearbox,
+        DriveConstants.kDriveGearing,
+        Units.inchesToMeters(RobotConstants.TRACK_WIDTH),
+        Units.inchesToMeters(RobotConstants.WHEEL_DIAMETER_INCHES / 2.0),
+        integrator,
+        substeps,
+        maxError);
+  }
+
+  private static Plant wrap(DrivetrainModel model) {
+    return new Plant() {
+      @Override
+      public void step(double leftVolts, double rightVolts) {
+        model.setInputs(leftVolts, rightVolts, MAX_VOLTS);
+        model.update(LOOP_PERIOD_SECONDS);
+      }
+
+      @Override
+      public double getX() {
+        return model.getState(DrivetrainModel.X);
+      }
+
+      @Override
+      public double getY() {
+        return model.getState(DrivetrainModel.Y);
+      }
+
+      @Override
+      public double getHeadingRadians() {
+        return model.getState(DrivetrainModel.HEADING);
+      }
+
+      @Override
+      public long getEvaluations() {
+        return model.getEvaluations();
+      }
+    };
+  }
+
+  private static Plant wrap(DifferentialDrivetrainSim sim) {
+    return new Plant() {
+      @Override
+      public void step(double leftVolts, double rightVolts) {
+        sim.setInputs(leftVolts, rightVolts);
+        sim.update(LOOP_PERIOD_SECONDS);
+      }
+
+      @Override
+      public double getX() {
+        return sim.getPose().getX();
+      }
+
+      @Override
+      public double getY() {
+        return sim.getPose().getY();
+      }
+
+      @Override
+      public double getHeadingRadians() {
+        return sim.getHeading().getRadians();
+      }
+
+      @Override
+      public long getEvaluations() {
+        return -1;
+      }
+    };
+  }
+
+  private static DifferentialDrivetrainSim differentialDrivetrainSim() {
+    return new DifferentialDrivetrainSim(
+        DriveConstants.kDrivetrainPlant,
+        DriveConstants.kDriveGearbox,
+        DriveConstants.kDriveGearing,
+        Units.inchesToMeters(RobotConstants.TRACK_WIDTH),
+        Units.inchesToMeters(RobotConstants.WHEEL_DIAMETER_INCHES / 2.0),
+        null);
+  }
+
+  /**
+   * Builds the voltage sequence: a new random pair of voltages every {@link #SEGMENT_SECONDS}, so the plant sees hard
+   * steps as well as long coasts.
+   */
+  private static double[][] buildInputs(double durationSeconds, long seed) {
+    Random random = new Random(seed);
+    int steps = (int) Math.round(durationSeconds / LOOP_PERIOD_SECONDS);
+    int stepsPerSegment = (int) Math.round(SEGMENT_SECONDS / LOOP_PERIOD_SECONDS);
+    double[][] inputs = new double[steps][2];
+    for (int i = 0; i < steps; i++) {
+      if (i % stepsPerSegment == 0) {
+        inputs[i][0] = (2 * random.nextDouble() - 1) * MAX_VOLTS;
+        inputs[i][1] = (2 * random.nextDouble() - 1) * MAX_VOLTS;
+      } else {
+        inputs[i][0] = inputs[i - 1][0];
+        inputs[i][1] = inputs[i - 1][1];
+      }
+    }
+    return inputs;
+  }
+
+  /** Runs the inputs through the plant, recording its trajectory as x, y, heading per step. */
+  private static double[][] trace(Plant plant, double[][] inputs) {
+    double[][] poses = new double[inputs.length][3];
+    for (int i = 0; i < inputs.length; i++) {
+      plant.step(inputs[i][0], inputs[i][1]);
+      poses[i][0] = plant.getX();
+      poses[i][1] = plant.getY();
+      poses[i][2] = plant.getHeadingRadians();
+    }
+    return poses;
+  }
+
+  private static Result measure(String name, Supplier<Plant> factory, double[][] inputs, double[][] reference,
+      int repeats) {
+    double[][] poses = trace(factory.get(), inputs);
+    double maxDrift = 0;
+    for (int i = 0; i < poses.length; i++) {
+      maxDrift = Math.max(maxDrift, Math.hypot(poses[i][0] - reference[i][0], poses[i][1] - reference[i][1]));
+    }
+    int last = poses.length - 1;
+    double finalDrift = Math.hypot(poses[last][0] - reference[last][0], poses[last][1] - reference[last][1]);
+    double finalHeadingDrift = Math.abs(MathUtil.angleModulus(poses[last][2] - reference[last][2]));
+
+    long evaluations = 0;
+    long startNanos = System.nanoTime();
+    for (int repeat = 0; repeat < repeats; repeat++) {
+      Plant plant = factory.get();
+      for (double[] input : inputs) {
+        plant.step(input[0], input[1]);
+      }
+      evaluations += plant.getEvaluations();
+    }
+    double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+    long steps = (long) repeats * inputs.length;
+    return new Result(name, finalDrift, maxDrift, finalHeadingDrift, steps / wallSeconds,
+        evaluations < 0 ? Double.NaN : (double) evaluations / steps);
+  }
+
+  /**
+   * Runs the benchmark and prints a table of drift and throughput.
+   *
+   * <p>
+   * Arguments: {@code [--duration SECONDS] [--repeats N] [--seed SEED]}.
+   */
+  public static void main(String... args) {
+    double durationSeconds = 15;
+    int repeats = 200;
+    long seed = 0;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--duration":
+          durationSeconds = Double.parseDouble(args[i + 1]);
+          break;
+        case "--repeats":
+          repeats = Integer.parseInt(args[i + 1]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+
+    // DifferentialDrivetrainSim clamps its inputs to the simulated battery voltage, which lives in the HAL.
+    HAL.initialize(500, 0);
+
+    double[][] inputs = buildInputs(durationSeconds, seed);
+    double[][] reference = trace(wrap(model(Integrator.RKDP, REFERENCE_SUBSTEPS, REFERENCE_MAX_ERROR)), inputs);
+
+    List<Result> results = new ArrayList<>();
+    results.add(measure("DifferentialDrivetrainSim", () -> wrap(differentialDrivetrainSim()), inputs, reference,
+        repeats));
+    Object[][] settings = {
+        {Integrator.EULER, 1, 0.0},
+        {Integrator.EULER, 4, 0.0},
+        {Integrator.EULER, 16, 0.0},
+        {Integrator.RK4, 1, 0.0},
+        {Integrator.RK4, 2, 0.0},
+        {Integrator.RK4, 4, 0.0},
+        {Integrator.RKDP, 1, 1e-3},
+        {Integrator.RKDP, 1, 1e-6},
+        {Integrator.RKDP, 1, 1e-9},
+    };
+    for (Object[] setting : settings) {
+      Integrator integrator = (Integrator) setting[0];
+      int substeps = (Integer) setting[1];
+      double maxError = (Double) setting[2];
+      String name = integrator + " x" + substeps + (integrator == Integrator.RKDP ? " tol " + maxError : "");
+      results.add(measure(name, () -> wrap(model(integrator, substeps, maxError)), inputs, reference, repeats));
+    }
+
+    System.out.printf("%-27s %14s %14s %14s %14s %10s%n", "integrator", "final (m)", "max (m)", "heading (rad)",
+        "steps/s", "evals");
+    for (Result result : results) {
+      System.out.printf("%-27s %14.3e %14.3e %14.3e %14.0f %10.1f%n", result.name, result.finalDriftMeters,
+          result.maxDriftMeters, result.finalHeadingDriftRadians, result.stepsPerSecond, result.evaluationsPerStep);
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,446 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.numbers.N2;
+import edu.wpi.first.math.system.LinearSystem;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.util.Units;
+import frc.robot.Constants.DriveConstants;
+import frc.robot.Constants.RobotConstants;
+
+/**
+ * A differential drivetrain plant with the same seven-state dynamics as
+ * {@link edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim}, stored in primitive arrays so that updates
+ * allocate nothing, and with a configurable integrator.
+ *
+ * <p>
+ * The state is {x, y, heading, left velocity, right velocity, left position, right position}. The wheel velocities
+ * follow the linear plant (e.g. {@link DriveConstants#kDrivetrainPlant}) and the pose follows from the wheel
+ * velocities.
+ *
+ * <p>
+ * The integrator and the number of sub-steps per {@link #update(double)} trade accuracy for speed. {@link
+ * Integrator#RKDP} with a 1e-6 error tolerance and one sub-step matches DifferentialDrivetrainSim.
+ */
+public class DrivetrainModel {
+  public static final int X = 0;
+  public static final int Y = 1;
+  public static final int HEADING = 2;
+  public static final int LEFT_VELOCITY = 3;
+  public static final int RIGHT_VELOCITY = 4;
+  public static final int LEFT_POSITION = 5;
+  public static final int RIGHT_POSITION = 6;
+  public static final int STATES = 7;
+
+  /* RKDP with one sub-step and a 1e-6 tolerance matches DifferentialDrivetrainSim. See DrivetrainBenchmark. */
+  public static final Integrator DEFAULT_INTEGRATOR = Integrator.RKDP;
+  public static final int DEFAULT_SUBSTEPS = 1;
+  public static final double DEFAULT_MAX_ERROR = 1e-6;
+
+  /** The numerical integration method used to advance the state. */
+  public enum Integrator {
+    /** Forward Euler, first order, one dynamics evaluation per sub-step. */
+    EULER,
+    /** Classic Runge-Kutta, fourth order, four dynamics evaluations per sub-step. */
+    RK4,
+    /** Adaptive Dormand-Prince, fifth order with a fourth order error estimate, as used by WPILib. */
+    RKDP
+  }
+
+  // Dormand-Prince coefficients.
+  private static final double A21 = 1.0 / 5.0;
+  private static final double A31 = 3.0 / 40.0;
+  private static final double A32 = 9.0 / 40.0;
+  private static final double A41 = 44.0 / 45.0;
+  private static final double A42 = -56.0 / 15.0;
+  private static final double A43 = 32.0 / 9.0;
+  private static final double A51 = 19372.0 / 6561.0;
+  private static final double A52 = -25360.0 / 2187.0;
+  private static final double A53 = 64448.0 / 6561.0;
+  private static final double A54 = -212.0 / 729.0;
+  private static final double A61 = 9017.0 / 3168.0;
+  private static final double A62 = -355.0 / 33.0;
+  private static final double A63 = 46732.0 / 5247.0;
+  private static final double A64 = 49.0 / 176.0;
+  private static final double A65 = -5103.0 / 18656.0;
+  private static final double B1 = 35.0 / 384.0;
+  private static final double B3 = 500.0 / 1113.0;
+  private static final double B4 = 125.0 / 192.0;
+  private static final double B5 = -2187.0 / 6784.0;
+  private static final double B6 = 11.0 / 84.0;
+  private static final double E1 = B1 - 5179.0 / 57600.0;
+  private static final double E3 = B3 - 7571.0 / 16695.0;
+  private static final double E4 = B4 - 393.0 / 640.0;
+  private static final double E5 = B5 - -92097.0 / 339200.0;
+  private static final double E6 = B6 - 187.0 / 2100.0;
+  private static final double E7 = -1.0 / 40.0;
+
+  private final double a11;
+  private final double a12;
+  private final double a21;
+  private final double a22;
+  private final double b11;
+  private final double b12;
+  private final double b21;
+  private final double b22;
+  private final double trackWidthMeters;
+  private final double gearing;
+  private final double wheelRadiusMeters;
+  private final double motorResistanceOhms;
+  private final double motorKv;
+
+  private final Integrator integrator;
+  private final int substeps;
+  private final double maxError;
+
+  private final double[] x = new double[STATES];
+  private final double[] y = new double[STATES];
+  private final double[] stdDevs = new double[STATES];
+  private final double[] k1 = new double[STATES];
+  private final double[] k2 = new double[STATES];
+  private final double[] k3 = new double[STATES];
+  private final double[] k4 = new double[STATES];
+  private final double[] k5 = new double[STATES];
+  private final double[] k6 = new double[STATES];
+  private final double[] k7 = new double[STATES];
+  private final double[] stage = new double[STATES];
+  private final double[] next = new double[STATES];
+
+  private Random noise;
+  private double leftVolts;
+  private double rightVolts;
+  private long evaluations;
+
+  /**
+   * Creates a drivetrain model at the origin, at rest.
+   *
+   * @param plant The linear plant from wheel voltages to wheel velocities
+   * @param motor The gearbox motors on one side, used for current draw
+   * @param gearing The gear reduction between the motors and the wheels
+   * @param trackWidthMeters The distance between the left and right wheels
+   * @param wheelRadiusMeters The wheel radius
+   * @param integrator The integration method
+   * @param substeps The number of integration steps per update, at least 1
+   * @param maxError The error tolerance for {@link Integrator#RKDP}; ignored by the other integrators
+   */
+  public DrivetrainModel(LinearSystem<N2, N2, N2> plant, DCMotor motor, double gearing, double trackWidthMeters,
+      double wheelRadiusMeters, Integrator integrator, int substeps, double maxError) {
+    if (substeps < 1) {
+      throw new IllegalArgumentException("Sub-steps must be at least 1");
+    }
+    this.a11 = plant.getA(0, 0);
+    this.a12 = plant.getA(0, 1);
+    this.a21 = plant.getA(1, 0);
+    this.a22 = plant.getA(1, 1);
+    this.b11 = plant.getB(0, 0);
+    this.b12 = plant.getB(0, 1);
+    this.b21 = plant.getB(1, 0);
+    this.b22 = plant.getB(1, 1);
+    this.trackWidthMeters = trackWidthMeters;
+    this.gearing = gearing;
+    this.wheelRadiusMeters = wheelRadiusMeters;
+    // A DCMotor gearbox already models its motors in parallel, so this is the resistance of one whole side.
+    this.motorResistanceOhms = motor.rOhms;
+    this.motorKv = motor.KvRadPerSecPerVolt;
+    this.integrator = integrator;
+    this.substeps = substeps;
+    this.maxError = maxError;
+  }
+
+  /**
+   * Creates a model of this robot's drivetrain from {@link DriveConstants} and {@link RobotConstants}.
+   *
+   * @param integrator The integration method
+   * @param substeps The number of integration steps per update, at least 1
+   */
+  public static DrivetrainModel fromConstants(Integrator integrator, int substeps) {
+    return new DrivetrainModel(
+        DriveConstants.kDrivetrainPlant,
+        DriveConstants.kDriveGearbox,
+        DriveConstants.kDriveGearing,
+        Units.inchesToMeters(RobotConstants.TRACK_WIDTH),
+        Units.inchesToMeters(RobotConstants.WHEEL_DIAMETER_INCHES / 2.0),
+        integrator,
+        substeps,
+        DEFAULT_MAX_ERROR);
+  }
+
+  /**
+   * Adds Gaussian noise to the measured outputs, like the measurement standard deviations of
+   * DifferentialDrivetrainSim.
+   *
+   * @param stdDevs The standard deviation of each state's measurement, in state order
+   * @param seed The seed for the noise
+   */
+  public void setMeasurementNoise(double[] stdDevs, long seed) {
+    System.arraycopy(stdDevs, 0, this.stdDevs, 0, STATES);
+    this.noise = new Random(seed);
+    updateOutputs();
+  }
+
+  /**
+   * Sets the applied voltages, clamped to the given supply voltage.
+   *
+   * @param leftVolts The left side voltage
+   * @param rightVolts The right side voltage
+   * @param supplyVolts The largest magnitude either side can apply
+   */
+  public void setInputs(double leftVolts, double rightVolts, double supplyVolts) {
+    double largest = Math.max(Math.abs(leftVolts), Math.abs(rightVolts));
+    double scale = largest > supplyVolts ? supplyVolts / largest : 1;
+    this.leftVolts = leftVolts * scale;
+    this.rightVolts = rightVolts * scale;
+  }
+
+  /**
+   * Advances the model, holding the inputs constant.
+   *
+   * @param dtSeconds The time to advance by
+   */
+  public void update(double dtSeconds) {
+    double h = dtSeconds / substeps;
+    for (int i = 0; i < substeps; i++) {
+      switch (integrator) {
+        case EULER:
+          stepEuler(h);
+          break;
+        case RK4:
+          stepRk4(h);
+          break;
+        case RKDP:
+        default:
+          stepRkdp(h);
+          break;
+      }
+    }
+    updateOutputs();
+  }
+
+  /**
+   * Places the drivetrain at the given pose, at rest, with both wheel positions at zero.
+   */
+  public void setPose(double xMeters, double yMeters, double headingRadians) {
+    Arrays.fill(x, 0);
+    x[X] = xMeters;
+    x[Y] = yMeters;
+    x[HEADING] = headingRadians;
+    leftVolts = 0;
+    rightVolts = 0;
+    updateOutputs();
+  }
+
+  /**
+   * Places the drivetrain at the given pose, at rest, with both wheel positions at zero.
+   */
+  public void setPose(Pose2d pose) {
+    setPose(pose.getX(), pose.getY(), pose.getRotation().getRadians());
+  }
+
+  /**
+   * Returns a measured output, including any measurement noise.
+   *
+   * @param state The index of the state, e.g. {@link #LEFT_POSITION}
+   */
+  public double getOutput(int state) {
+    return y[state];
+  }
+
+  /**
+   * Returns a true state, without measurement noise.
+   *
+   * @param state The index of the state, e.g. {@link #LEFT_POSITION}
+   */
+  public double getState(int state) {
+    return x[state];
+  }
+
+  public double getLeftPositionMeters() {
+    return y[LEFT_POSITION];
+  }
+
+  public double getRightPositionMeters() {
+    return y[RIGHT_POSITION];
+  }
+
+  public double getLeftVelocityMetersPerSecond() {
+    return y[LEFT_VELOCITY];
+  }
+
+  public double getRightVelocityMetersPerSecond() {
+    return y[RIGHT_VELOCITY];
+  }
+
+  public double getHeadingRadians() {
+    return y[HEADING];
+  }
+
+  /**
+   * Returns the measured pose. This allocates; prefer {@link #getOutput(int)} in loops.
+   */
+  public Pose2d getPose() {
+    return new Pose2d(y[X], y[Y], new Rotation2d(y[HEADING]));
+  }
+
+  /**
+   * Returns the total current drawn by both sides, computed like DifferentialDrivetrainSim.
+   */
+  public double getCurrentDrawAmps() {
+    return sideCurrent(x[LEFT_VELOCITY], leftVolts) + sideCurrent(x[RIGHT_VELOCITY], rightVolts);
+  }
+
+  public double getLeftCurrentDrawAmps() {
+    return sideCurrent(x[LEFT_VELOCITY], leftVolts);
+  }
+
+  public double getRightCurrentDrawAmps() {
+    return sideCurrent(x[RIGHT_VELOCITY], rightVolts);
+  }
+
+  /**
+   * Returns the voltage applied to the left side, after scaling to the supply.
+   */
+  public double getLeftVolts() {
+    return leftVolts;
+  }
+
+  /**
+   * Returns the voltage applied to the right side, after scaling to the supply.
+   */
+  public double getRightVolts() {
+    return rightVolts;
+  }
+
+  /**
+   * Returns the true rate the heading is changing at, counterclockwise positive.
+   */
+  public double getAngularVelocityRadiansPerSecond() {
+    return (x[RIGHT_VELOCITY] - x[LEFT_VELOCITY]) / trackWidthMeters;
+  }
+
+  /**
+   * Returns the number of dynamics evaluations performed so far, a machine-independent measure of cost.
+   */
+  public long getEvaluations() {
+    return evaluations;
+  }
+
+  private double sideCurrent(double velocityMetersPerSecond, double volts) {
+    double motorSpeed = velocityMetersPerSecond * gearing / wheelRadiusMeters;
+    return (volts - motorSpeed / motorKv) / motorResistanceOhms * Math.signum(volts);
+  }
+
+  private void updateOutputs() {
+    for (int i = 0; i < STATES; i++) {
+      y[i] = noise == null ? x[i] : x[i] + stdDevs[i] * noise.nextGaussian();
+    }
+  }
+
+  /** Writes the time derivative of state s to out. */
+  private void dynamics(double[] s, double[] out) {
+    evaluations++;
+    double vl = s[LEFT_VELOCITY];
+    double vr = s[RIGHT_VELOCITY];
+    double v = (vl + vr) / 2.0;
+    out[X] = v * Math.cos(s[HEADING]);
+    out[Y] = v * Math.sin(s[HEADING]);
+    out[HEADING] = (vr - vl) / trackWidthMeters;
+    out[LEFT_VELOCITY] = a11 * vl + a12 * vr + b11 * leftVolts + b12 * rightVolts;
+    out[RIGHT_VELOCITY] = a21 * vl + a22 * vr + b21 * leftVolts + b22 * rightVolts;
+    out[LEFT_POSITION] = vl;
+    out[RIGHT_POSITION] = vr;
+  }
+
+  private void stepEuler(double h) {
+    dynamics(x, k1);
+    for (int i = 0; i < STATES; i++) {
+      x[i] += h * k1[i];
+    }
+  }
+
+  private void stepRk4(double h) {
+    dynamics(x, k1);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h / 2 * k1[i];
+    }
+    dynamics(stage, k2);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h / 2 * k2[i];
+    }
+    dynamics(stage, k3);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h * k3[i];
+    }
+    dynamics(stage, k4);
+    for (int i = 0; i < STATES; i++) {
+      x[i] += h / 6 * (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]);
+    }
+  }
+
+  /**
+   * Advances by dtSeconds with adaptive Dormand-Prince steps, shrinking the step until the estimated truncation error
+   * is below the tolerance.
+   */
+  private void stepRkdp(double dtSeconds) {
+    double elapsed = 0;
+    double h = dtSeconds;
+    while (elapsed < dtSeconds) {
+      double stepSize;
+      double truncationError;
+      do {
+        stepSize = Math.min(h, dtSeconds - elapsed);
+        truncationError = attemptRkdp(stepSize);
+        if (truncationError == 0) {
+          h = dtSeconds - elapsed;
+        } else {
+          h = stepSize * MathUtil.clamp(0.9 * Math.pow(maxError / truncationError, 1.0 / 5.0), 0.1, 5);
+        }
+      } while (truncationError > maxError);
+      elapsed += stepSize;
+      System.arraycopy(next, 0, x, 0, STATES);
+    }
+  }
+
+  /** Computes one Dormand-Prince step of size h into next and returns the error estimate. */
+  private double attemptRkdp(double h) {
+    dynamics(x, k1);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h * A21 * k1[i];
+    }
+    dynamics(stage, k2);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h * (A31 * k1[i] + A32 * k2[i]);
+    }
+    dynamics(stage, k3);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+    }
+    dynamics(stage, k4);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+    }
+    dynamics(stage, k5);
+    for (int i = 0; i < STATES; i++) {
+      stage[i] = x[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+    }
+    dynamics(stage, k6);
+    for (int i = 0; i < STATES; i++) {
+      next[i] = x[i] + h * (B1 * k1[i] + B3 * k3[i] + B4 * k4[i] + B5 * k5[i] + B6 * k6[i]);
+    }
+    dynamics(next, k7);
+    double errorSquared = 0;
+    for (int i = 0; i < STATES; i++) {
+      double error = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]);
+      errorSquared += error * error;
+    }
+    return Math.sqrt(errorSquared);
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.function.Function;
+
+import com.pathplanner.lib.PathConstraints;
+import com.pathplanner.lib.PathPlanner;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.Constants.PathConstants;
+import frc.robot.Robot;
+import frc.robot.RobotContainer;
+
+/**
+ * Runs the full robot program in simulation without the simulation GUI or a Driver Station. Instead of waiting on
+ * {@link edu.wpi.first.wpilibj.TimedRobot}'s wall-clock loop, the HAL clock is paused and advanced by one loop period
+ * after every iteration, so autonomous routines run as fast as the CPU allows.
+ *
+ * <p>
+ * Each loop runs the same sequence as {@link edu.wpi.first.wpilibj.IterativeRobotBase}: the mode periodic method,
+ * {@link Robot#robotPeriodic()} (which runs the {@link CommandScheduler} and every subsystem's
+ * {@code simulationPeriodic()}), and then {@link Robot#simulationPeriodic()}.
+ *
+ * <p>
+ * The HAL, the {@link CommandScheduler} and the simulated CAN devices are process-wide, so only one
+ * HeadlessSimulation can exist per JVM. Runs are executed back to back, resetting the drivetrain between them.
+ */
+public class HeadlessSimulation {
+  public static final double LOOP_PERIOD_SECONDS = 0.020;
+
+  private final Robot robot;
+  private double simulatedSeconds;
+  private long wallNanos;
+
+  /**
+   * Initializes the HAL, pauses the simulation clock and constructs the robot.
+   */
+  public HeadlessSimulation() {
+    if (!HAL.initialize(500, 0)) {
+      throw new IllegalStateException("Failed to initialize the HAL");
+    }
+    SimHooks.pauseTiming();
+    robot = new Robot();
+    robot.robotInit();
+    robot.simulationInit();
+  }
+
+  /**
+   * Returns the {@link RobotContainer} of the simulated robot.
+   */
+  public RobotContainer getRobotContainer() {
+    return robot.getRobotContainer();
+  }
+
+  /**
+   * Runs autonomous mode for a fixed amount of simulated time.
+   *
+   * @param startingPose The pose to place the simulated drivetrain at before enabling
+   * @param durationSeconds How long to run autonomous for, in simulated seconds
+   * @param autonFactory Creates the command to run, or returns null to run only the default commands
+   */
+  public void runAutonomous(Pose2d startingPose, double durationSeconds,
+      Function<RobotContainer, Command> autonFactory) {
+    RobotContainer container = robot.getRobotContainer();
+    container.resetSimulation(startingPose);
+
+    setMode(true, true);
+    robot.autonomousInit();
+    Command auton = autonFactory.apply(container);
+    if (auton != null) {
+      auton.schedule();
+    }
+
+    long startNanos = System.nanoTime();
+    int loops = (int) Math.ceil(durationSeconds / LOOP_PERIOD_SECONDS);
+    for (int i = 0; i < loops; i++) {
+      DriverStation.refreshData();
+      robot.autonomousPeriodic();
+      robot.robotPeriodic();
+      robot.simulationPeriodic();
+      SimHooks.stepTiming(LOOP_PERIOD_SECONDS);
+    }
+    wallNanos += System.nanoTime() - startNanos;
+    simulatedSeconds += loops * LOOP_PERIOD_SECONDS;
+
+    CommandScheduler.getInstance().cancelAll();
+    setMode(false, true);
+    robot.disabledInit();
+  }
+
+  /**
+   * Returns the total simulated time across all runs, in seconds.
+   */
+  public double getSimulatedSeconds() {
+    return simulatedSeconds;
+  }
+
+  /**
+   * Returns the total wall-clock time spent stepping the simulation, in seconds.
+   */
+  public double getWallSeconds() {
+    return wallNanos / 1e9;
+  }
+
+  /**
+   * Returns the achieved speedup factor, in simulated seconds per wall-clock second.
+   */
+  public double getSpeedup() {
+    return wallNanos == 0 ? 0 : simulatedSeconds / getWallSeconds();
+  }
+
+  private static void setMode(boolean enabled, boolean autonomous) {
+    DriverStationSim.setDsAttached(true);
+    DriverStationSim.setEnabled(enabled);
+    DriverStationSim.setAutonomous(autonomous);
+    DriverStationSim.notifyNewData();
+    DriverStation.refreshData();
+  }
+
+  /**
+   * Runs autonomous headlessly and reports the achieved speedup.
+   *
+   * <p>
+   * Arguments: {@code [--runs N] [--duration SECONDS] [--path INITIAL-CROSSING-FINAL]}. Without {@code --path}, the
+   * simple auton from {@link frc.robot.auton.AutonGenerator#getSimpleAutonCommand()} is run.
+   */
+  public static void main(String... args) {
+    int runs = 1;
+    double duration = 15;
+    String path = null;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--runs":
+          runs = Integer.parseInt(args[i + 1]);
+          break;
+        case "--duration":
+          duration = Double.parseDouble(args[i + 1]);
+          break;
+        case "--path":
+          path = args[i + 1];
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+
+    HeadlessSimulation simulation = new HeadlessSimulation();
+    Pose2d startingPose = new Pose2d();
+    Function<RobotContainer, Command> autonFactory =
+        container -> container.getAutonGenerator().getSimpleAutonCommand();
+    if (path != null) {
+      String[] positions = path.split("-");
+      int initial = Integer.parseInt(positions[0]);
+      int crossing = Integer.parseInt(positions[1]);
+      int ending = Integer.parseInt(positions[2]);
+      PathPlannerTrajectory firstPath = PathPlanner.loadPath(initial + "-" + crossing,
+          new PathConstraints(PathConstants.MAX_DRIVE_SPEED, PathConstants.MAX_ACCELERATION));
+      startingPose = firstPath.getInitialPose();
+      autonFactory = container -> container.getAutonGenerator().getPathFollowCommand(initial, crossing, ending);
+    }
+
+    for (int run = 0; run < runs; run++) {
+      simulation.runAutonomous(startingPose, duration, autonFactory);
+    }
+    System.out.printf("Simulated %d run(s), %.1f s in %.2f s wall time (%.1fx real time)%n",
+        runs, simulation.getSimulatedSeconds(), simulation.getWallSeconds(), simulation.getSpeedup());
+    System.exit(0);
+  }
+}
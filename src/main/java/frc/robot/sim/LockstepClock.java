@@ -0,0 +1,57 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+
+/**
+ * Drives the simulation clock in whole loop periods while still keeping pace with the wall clock, so an interactive
+ * simulation can be recorded and replayed exactly.
+ *
+ * <p>
+ * Normally the simulated FPGA clock follows the wall clock, so every run sees slightly different loop periods and
+ * anything that reads the time (slew rate limiters, the pose estimator, path following) behaves differently. Here the
+ * clock is paused and restarted from zero, and a background thread advances it by exactly one period every period of
+ * wall time. {@link SimHooks#stepTiming(double)} waits for the robot loop to finish first, so the robot sees the same
+ * times as {@link ReplaySimulation} does.
+ */
+public final class LockstepClock {
+  private static Thread thread;
+
+  private LockstepClock() {}
+
+  /**
+   * Pauses the simulation clock, resets it to zero and starts stepping it in real time.
+   *
+   * @param periodSeconds The step length, normally the robot loop period
+   */
+  public static synchronized void start(double periodSeconds) {
+    if (thread != null) {
+      return;
+    }
+    SimHooks.pauseTiming();
+    SimHooks.restartTiming();
+    long periodNanos = (long) (periodSeconds * 1e9);
+    thread = new Thread(() -> {
+      long nextNanos = System.nanoTime();
+      while (!Thread.currentThread().isInterrupted()) {
+        nextNanos += periodNanos;
+        long sleepNanos = nextNanos - System.nanoTime();
+        if (sleepNanos > 0) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        SimHooks.stepTiming(periodSeconds);
+      }
+    }, "Lockstep clock");
+    thread.setDaemon(true);
+    thread.start();
+  }
+}
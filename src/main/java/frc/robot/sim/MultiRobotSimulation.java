@@ -0,0 +1,370 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+import com.pathplanner.lib.PathConstraints;
+import com.pathplanner.lib.PathPlanner;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import com.pathplanner.lib.PathPoint;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.DifferentialDriveWheelSpeeds;
+import frc.robot.Constants.DriveConstants;
+import frc.robot.Constants.FieldConstants;
+import frc.robot.Constants.PathConstants;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.auton.FieldPlanner;
+import frc.robot.photonvision.AprilTagFieldModel;
+import frc.robot.photonvision.EstimatedRobotPose;
+import frc.robot.photonvision.MultiTagPoseSolver;
+import frc.robot.subsystems.VisionMeasurementFilter;
+
+/**
+ * Simulates up to {@link SimulatedField#MAX_ROBOTS} robots on one field in a single thread, to study traffic along
+ * the {@link FieldConstants#TRAVELING_WAYPOINTS} lane.
+ *
+ * <p>
+ * Each robot owns its own {@link SimulatedDrivetrain} (motors, encoders, gyro and battery, with its own noise seed),
+ * its own {@link PathFollowSimulation} and, given an AprilTag layout, its own three {@link SimulatedCamera}s, so
+ * nothing is shared between robots except the {@link SimulatedField} and the read-only {@link AprilTagFieldModel}.
+ * Every tick steps each robot's controller and plant once, fuses whatever its cameras have published into its pose
+ * estimate, and then updates the field. Each robot's cameras are solved together by its own
+ * {@link MultiTagPoseSolver}, starting from the robot's own estimate, and gated and weighted by its own
+ * {@link VisionMeasurementFilter}, like {@link frc.robot.subsystems.PhotonVision} and
+ * {@link frc.robot.subsystems.DriveBase}. Robots don't block each other's view of the tags.
+ *
+ * <p>
+ * Robots repeatedly pick a random scoring waypoint, drive to it along the route a {@link FieldPlanner} plans, as
+ * {@link frc.robot.commands.drive.TargetCommand} does, score, and back out to the lane.
+ */
+public class MultiRobotSimulation {
+  public static final double LOOP_PERIOD_SECONDS = PathFollowSimulation.LOOP_PERIOD_SECONDS;
+
+  private static final double SCORING_SECONDS = 1.0;
+  /* Robots start in two columns this far apart so that neighbours don't start in contact. */
+  private static final double START_COLUMN_SPACING_METERS = 1.0;
+  private static final double ENCODER_NOISE_METERS = 0.002;
+  private static final double GYRO_NOISE_RADIANS = Math.toRadians(0.2);
+  private static final double BATTERY_VOLTAGE = 12.5;
+  /* Indexed by camera id, as in PhotonVision. */
+  private static final Transform3d[] ROBOT_TO_CAMERAS = {
+      VisionConstants.ROBOT_TO_REAR_CAMERA,
+      VisionConstants.ROBOT_TO_FRONT_LEFT_CAMERA,
+      VisionConstants.ROBOT_TO_FRONT_RIGHT_CAMERA,
+  };
+
+  private enum Phase {
+    TO_TARGET, SCORING, BACKING_OUT
+  }
+
+  /** One robot's drivetrain, controller, cameras and scoring cycle. */
+  private static class SimulatedRobot {
+    final SimulatedDrivetrain drivetrain;
+    final PathFollowSimulation follower;
+    final Random random;
+    /* Empty without a tag layout. */
+    final SimulatedCamera[] cameras;
+    final double[] lastFrameSeconds;
+    final MultiTagPoseSolver solver;
+    final VisionMeasurementFilter visionFilter =
+        new VisionMeasurementFilter(DriveConstants.VISION_STD_DEVS, DriveConstants.STATE_STD_DEVS);
+    Phase phase;
+    double phaseStartSeconds;
+    double cycleStartSeconds;
+    int cycles;
+    double cycleSeconds;
+
+    SimulatedRobot(SimulatedDrivetrain drivetrain, long seed, AprilTagFieldModel tags) {
+      this.drivetrain = drivetrain;
+      this.follower = new PathFollowSimulation(drivetrain, PathFollowGains.fromConstants());
+      this.random = new Random(seed);
+      this.cameras = new SimulatedCamera[tags == null ? 0 : ROBOT_TO_CAMERAS.length];
+      for (int camera = 0; camera < cameras.length; camera++) {
+        cameras[camera] = new SimulatedCamera(tags, ROBOT_TO_CAMERAS[camera], seed * ROBOT_TO_CAMERAS.length + camera);
+      }
+      this.lastFrameSeconds = new double[cameras.length];
+      Arrays.fill(lastFrameSeconds, Double.NEGATIVE_INFINITY);
+      this.solver = tags == null ? null : MultiTagPoseSolver.fromConstants(tags, ROBOT_TO_CAMERAS);
+    }
+  }
+
+  private static final PathConstraints CONSTRAINTS =
+      new PathConstraints(PathConstants.MAX_DRIVE_SPEED, PathConstants.MAX_ACCELERATION);
+
+  private final SimulatedField field = new SimulatedField();
+  private final FieldPlanner planner = new FieldPlanner();
+  private final List<SimulatedRobot> robots = new ArrayList<>();
+  private double timeSeconds;
+
+  /**
+   * Places the robots along the lane, spread across the traveling waypoints and facing the grid.
+   *
+   * @param robotCount The number of robots, at most {@link SimulatedField#MAX_ROBOTS}
+   * @param seed The base seed for sensor noise and target selection
+   * @param tags The AprilTags every robot's cameras see, or null to run on odometry alone
+   */
+  public MultiRobotSimulation(int robotCount, long seed, AprilTagFieldModel tags) {
+    Pose2d[] lane = FieldConstants.TRAVELING_WAYPOINTS;
+    for (int i = 0; i < robotCount; i++) {
+      Pose2d waypoint = lane[i * lane.length / robotCount];
+      Pose2d start = new Pose2d(waypoint.getX() + (i % 2) * START_COLUMN_SPACING_METERS, waypoint.getY(),
+          Rotation2d.fromDegrees(180));
+      SimulatedDrivetrain drivetrain = new SimulatedDrivetrain(start, BATTERY_VOLTAGE, ENCODER_NOISE_METERS,
+          GYRO_NOISE_RADIANS, seed * SimulatedField.MAX_ROBOTS + i);
+      field.addRobot("Robot " + (i + 1), drivetrain);
+      SimulatedRobot robot = new SimulatedRobot(drivetrain, seed * SimulatedField.MAX_ROBOTS + i, tags);
+      robots.add(robot);
+      startToTarget(robot);
+    }
+  }
+
+  public SimulatedField getField() {
+    return field;
+  }
+
+  /**
+   * Returns the number of scoring cycles the robot has completed.
+   */
+  public int getCycles(int robot) {
+    return robots.get(robot).cycles;
+  }
+
+  /**
+   * Returns the mean time the robot took from leaving the lane to being back in it, or NaN if it hasn't finished a
+   * cycle.
+   */
+  public double getMeanCycleSeconds(int robot) {
+    SimulatedRobot simulatedRobot = robots.get(robot);
+    return simulatedRobot.cycles == 0 ? Double.NaN : simulatedRobot.cycleSeconds / simulatedRobot.cycles;
+  }
+
+  /**
+   * Returns the number of vision measurements the robot's pose estimate took.
+   */
+  public long getVisionMeasurements(int robot) {
+    return robots.get(robot).visionFilter.getAcceptedMeasurements();
+  }
+
+  /**
+   * Returns the distance between the robot's true and estimated positions.
+   */
+  public double getEstimateErrorMeters(int robot) {
+    SimulatedDrivetrain drivetrain = robots.get(robot).drivetrain;
+    return drivetrain.getPose().getTranslation().getDistance(drivetrain.getEstimatedPose().getTranslation());
+  }
+
+  /**
+   * Steps every robot by one loop period, then the field.
+   */
+  public void step() {
+    for (SimulatedRobot robot : robots) {
+      switch (robot.phase) {
+        case TO_TARGET:
+          if (robot.follower.step()) {
+            robot.drivetrain.stop();
+            robot.phase = Phase.SCORING;
+            robot.phaseStartSeconds = timeSeconds;
+          }
+          break;
+        case SCORING:
+          robot.drivetrain.update(LOOP_PERIOD_SECONDS);
+          if (timeSeconds - robot.phaseStartSeconds >= SCORING_SECONDS) {
+            robot.phase = Phase.BACKING_OUT;
+            robot.follower.start(backOutPath(robot.drivetrain.getEstimatedPose()));
+          }
+          break;
+        case BACKING_OUT:
+        default:
+          if (robot.follower.step()) {
+            robot.cycles++;
+            robot.cycleSeconds += timeSeconds + LOOP_PERIOD_SECONDS - robot.cycleStartSeconds;
+            startToTarget(robot);
+          }
+          break;
+      }
+      updateVision(robot);
+    }
+    timeSeconds += LOOP_PERIOD_SECONDS;
+    field.update(LOOP_PERIOD_SECONDS);
+  }
+
+  /**
+   * Runs the simulation for the given simulated time.
+   */
+  public void run(double durationSeconds) {
+    int ticks = (int) Math.ceil(durationSeconds / LOOP_PERIOD_SECONDS);
+    for (int tick = 0; tick < ticks; tick++) {
+      step();
+    }
+  }
+
+  /**
+   * Advances the robot's cameras to its present pose and fuses the frames they have newly published into its pose
+   * estimate.
+   */
+  private static void updateVision(SimulatedRobot robot) {
+    if (robot.cameras.length == 0) {
+      return;
+    }
+    SimulatedDrivetrain drivetrain = robot.drivetrain;
+    Pose2d truePose = drivetrain.getPose();
+    double nowSeconds = drivetrain.getTimeSeconds();
+    MultiTagPoseSolver solver = robot.solver;
+    solver.reset();
+    int cameraMask = 0;
+    int frames = 0;
+    double captureSecondsSum = 0;
+    int tags = 0;
+    double tagDistanceSum = 0;
+    double ambiguity = 0;
+    for (int camera = 0; camera < robot.cameras.length; camera++) {
+      robot.cameras[camera].update(truePose.getX(), truePose.getY(), truePose.getRotation().getRadians(), nowSeconds);
+      PhotonPipelineResult result = robot.cameras[camera].getLatestResult();
+      if (result.getTimestampSeconds() <= robot.lastFrameSeconds[camera]) {
+        continue;
+      }
+      robot.lastFrameSeconds[camera] = result.getTimestampSeconds();
+      if (solver.addResult(camera, result) == 0) {
+        continue;
+      }
+      cameraMask |= 1 << camera;
+      frames++;
+      captureSecondsSum += result.getTimestampSeconds();
+      for (PhotonTrackedTarget target : result.getTargets()) {
+        tags++;
+        tagDistanceSum += target.getBestCameraToTarget().getTranslation().getNorm();
+        ambiguity = target.getPoseAmbiguity();
+      }
+    }
+    if (frames == 0) {
+      return;
+    }
+
+    Pose2d estimate = drivetrain.getEstimatedPose();
+    if (!solver.solve(estimate.getX(), estimate.getY(), estimate.getRotation().getRadians())
+        || solver.getRmsErrorPixels() > VisionConstants.MAX_REPROJECTION_ERROR_PIXELS) {
+      return;
+    }
+    boolean multiTag = solver.getTagCount() > 1;
+    EstimatedRobotPose measurement = new EstimatedRobotPose(solver.getPose(), captureSecondsSum / frames, 1,
+        cameraMask, solver.getTagCount(), solver.copyCovariance(), tagDistanceSum / tags, multiTag ? 0 : ambiguity);
+    DifferentialDriveWheelSpeeds speeds = drivetrain.getWheelSpeeds();
+    robot.visionFilter.apply(drivetrain.getPoseEstimator(), measurement,
+        (speeds.leftMetersPerSecond + speeds.rightMetersPerSecond) / 2,
+        (speeds.rightMetersPerSecond - speeds.leftMetersPerSecond) / DriveConstants.KINEMATICS.trackWidthMeters);
+  }
+
+  private void startToTarget(SimulatedRobot robot) {
+    int target = robot.random.nextInt(FieldConstants.SCORING_WAYPOINTS.length);
+    robot.phase = Phase.TO_TARGET;
+    robot.phaseStartSeconds = timeSeconds;
+    robot.cycleStartSeconds = timeSeconds;
+    robot.follower.start(targetPath(robot.drivetrain.getEstimatedPose(), target));
+  }
+
+  /**
+   * Generates a path from rest at the start along the route the planner plans to a scoring waypoint, like
+   * {@link frc.robot.commands.drive.TargetCommand}.
+   *
+   * @param start The pose to start from
+   * @param target The index of the scoring waypoint in {@link FieldConstants#SCORING_WAYPOINTS}
+   */
+  public PathPlannerTrajectory targetPath(Pose2d start, int target) {
+    List<PathPoint> points = new ArrayList<>();
+    points.add(new PathPoint(start.getTranslation(), start.getRotation()));
+    for (Pose2d waypoint : planner.plan(start, target)) {
+      points.add(new PathPoint(waypoint.getTranslation(), waypoint.getRotation()));
+    }
+    return PathPlanner.generatePath(CONSTRAINTS, points);
+  }
+
+  /**
+   * Generates a path that backs straight out from a scoring position to the lane.
+   */
+  public static PathPlannerTrajectory backOutPath(Pose2d start) {
+    Rotation2d awayFromGrid = new Rotation2d();
+    return PathPlanner.generatePath(CONSTRAINTS, true,
+        new PathPoint(start.getTranslation(), awayFromGrid),
+        new PathPoint(new Translation2d(FieldConstants.TRAVELING_WAYPOINTS[0].getX(), start.getY()), awayFromGrid));
+  }
+
+  /**
+   * Runs the traffic study and prints cycle times, contact time, contested waypoints and closest approaches.
+   *
+   * <p>
+   * Arguments: {@code [--robots N] [--duration SECONDS] [--seed SEED] [--layout PATH|none]}, where the layout is the
+   * AprilTag layout the robots' cameras see, or none to run on odometry alone.
+   */
+  public static void main(String... args) throws IOException {
+    int robotCount = SimulatedField.MAX_ROBOTS;
+    double duration = 150;
+    long seed = 0;
+    String layoutPath = "src/main/deploy/AprilTagLayout/2023-chargedup.json";
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--robots":
+          robotCount = Integer.parseInt(args[i + 1]);
+          break;
+        case "--duration":
+          duration = Double.parseDouble(args[i + 1]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+        case "--layout":
+          layoutPath = args[i + 1];
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+    AprilTagFieldModel tags = "none".equals(layoutPath) ? null
+        : new AprilTagFieldModel(new AprilTagFieldLayout(layoutPath), VisionConstants.APRILTAG_SIZE_METERS);
+
+    long startNanos = System.nanoTime();
+    MultiRobotSimulation simulation = new MultiRobotSimulation(robotCount, seed, tags);
+    simulation.run(duration);
+    double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+    SimulatedField field = simulation.getField();
+    System.out.printf("%-10s %8s %14s %8s %16s%n", "robot", "cycles", "mean cycle (s)", "vision",
+        "estimate err (m)");
+    for (int robot = 0; robot < field.getRobotCount(); robot++) {
+      System.out.printf("%-10s %8d %14.2f %8d %16.3f%n", field.getName(robot), simulation.getCycles(robot),
+          simulation.getMeanCycleSeconds(robot), simulation.getVisionMeasurements(robot),
+          simulation.getEstimateErrorMeters(robot));
+    }
+    System.out.printf("Contact %.1f s, near misses %.1f s of %.1f s%n", field.getContactSeconds(),
+        field.getNearMissSeconds(), field.getElapsedSeconds());
+    System.out.println("Contested time per traveling waypoint:");
+    for (int waypoint = 0; waypoint < FieldConstants.TRAVELING_WAYPOINTS.length; waypoint++) {
+      System.out.printf("  %d (y = %.2f): %.1f s%n", waypoint, FieldConstants.TRAVELING_WAYPOINTS[waypoint].getY(),
+          field.getWaypointContestedSeconds(waypoint));
+    }
+    System.out.println("Closest approach (m):");
+    for (int a = 0; a < field.getRobotCount(); a++) {
+      StringBuilder row = new StringBuilder(String.format("  %-10s", field.getName(a)));
+      for (int b = 0; b < field.getRobotCount(); b++) {
+        row.append(a == b ? "      -" : String.format(" %6.2f", field.getMinSeparationMeters(a, b)));
+      }
+      System.out.println(row);
+    }
+    System.out.printf("Simulated %d robots for %.1f s in %.2f s wall time%n", field.getRobotCount(), duration,
+        wallSeconds);
+    System.exit(0);
+  }
+}
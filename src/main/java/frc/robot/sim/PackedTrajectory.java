@@ -0,0 +1,211 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import com.pathplanner.lib.PathConstraints;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.trajectory.Trajectory;
+
+/**
+ * A generated trajectory stored as packed doubles in a file and read through a memory-mapped buffer, so loading it is
+ * an mmap instead of parsing JSON and generating splines, and its states live in the page cache instead of as one
+ * object per state on the heap.
+ *
+ * <p>
+ * The file is a header of {@link #HEADER_BYTES} bytes (magic, version, fields per state, state count, then the max
+ * velocity and acceleration it was generated with) followed by every state's {@link #FIELDS} doubles in order: time,
+ * x, y, heading, velocity, acceleration and curvature. {@link TrajectoryPacker} writes one per path.
+ *
+ * <p>
+ * This is benchmark tooling for {@link TrajectoryLoadBenchmark}; the robot doesn't load these. PathFollowCommand
+ * follows a PathPlannerTrajectory, whose event markers and state objects the packed format leaves out, so the robot
+ * keeps generating its paths from JSON through {@link frc.robot.auton.TrajectoryCache}.
+ */
+public final class PackedTrajectory {
+  public static final int TIME = 0;
+  public static final int X = 1;
+  public static final int Y = 2;
+  public static final int HEADING = 3;
+  public static final int VELOCITY = 4;
+  public static final int ACCELERATION = 5;
+  public static final int CURVATURE = 6;
+  public static final int FIELDS = 7;
+
+  public static final String EXTENSION = ".traj";
+  public static final String DEFAULT_DIRECTORY = "build/trajectories";
+
+  private static final int MAGIC = 0x4C54524A; // "LTRJ"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 * Integer.BYTES + 2 * Double.BYTES;
+  private static final int STATE_BYTES = FIELDS * Double.BYTES;
+
+  private final ByteBuffer buffer;
+  private final int stateCount;
+  private final double maxVelocity;
+  private final double maxAcceleration;
+
+  private PackedTrajectory(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a packed trajectory");
+    }
+    if (buffer.getInt(4) != VERSION || buffer.getInt(8) != FIELDS) {
+      throw new IOException("Unsupported packed trajectory version " + buffer.getInt(4));
+    }
+    this.stateCount = buffer.getInt(12);
+    this.maxVelocity = buffer.getDouble(16);
+    this.maxAcceleration = buffer.getDouble(24);
+    if (stateCount < 1 || buffer.capacity() != HEADER_BYTES + (long) stateCount * STATE_BYTES) {
+      throw new IOException("Truncated packed trajectory");
+    }
+  }
+
+  /**
+   * Maps a packed trajectory file. The mapping stays valid after the channel is closed.
+   *
+   * @throws IOException If the file can't be read or isn't a packed trajectory
+   */
+  public static PackedTrajectory open(File file) throws IOException {
+    try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+      return new PackedTrajectory(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Writes a trajectory to a file in the packed format.
+   *
+   * @param trajectory The generated trajectory
+   * @param constraints The constraints it was generated with
+   * @param file The file to write, replaced if it exists
+   */
+  public static void write(PathPlannerTrajectory trajectory, PathConstraints constraints, File file)
+      throws IOException {
+    int count = trajectory.getStates().size();
+    ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + count * STATE_BYTES);
+    out.putInt(MAGIC).putInt(VERSION).putInt(FIELDS).putInt(count);
+    out.putDouble(constraints.maxVelocity).putDouble(constraints.maxAcceleration);
+    for (Trajectory.State state : trajectory.getStates()) {
+      out.putDouble(state.timeSeconds);
+      out.putDouble(state.poseMeters.getX());
+      out.putDouble(state.poseMeters.getY());
+      out.putDouble(state.poseMeters.getRotation().getRadians());
+      out.putDouble(state.velocityMetersPerSecond);
+      out.putDouble(state.accelerationMetersPerSecondSq);
+      out.putDouble(state.curvatureRadPerMeter);
+    }
+    out.flip();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+    }
+  }
+
+  /**
+   * Returns whether the trajectory was generated with the given constraints.
+   */
+  public boolean matches(PathConstraints constraints) {
+    return maxVelocity == constraints.maxVelocity && maxAcceleration == constraints.maxAcceleration;
+  }
+
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  /**
+   * Returns the size of the mapped file, which is all the memory the trajectory takes.
+   */
+  public int getSizeBytes() {
+    return buffer.capacity();
+  }
+
+  public double getMaxVelocity() {
+    return maxVelocity;
+  }
+
+  public double getMaxAcceleration() {
+    return maxAcceleration;
+  }
+
+  /**
+   * Returns one field of a state.
+   *
+   * @param state The state, from 0 to {@link #getStateCount()} - 1
+   * @param field One of {@link #TIME}, {@link #X}, {@link #Y}, {@link #HEADING}, {@link #VELOCITY},
+   *          {@link #ACCELERATION} or {@link #CURVATURE}
+   */
+  public double get(int state, int field) {
+    return buffer.getDouble(HEADER_BYTES + state * STATE_BYTES + field * Double.BYTES);
+  }
+
+  public double getTotalTimeSeconds() {
+    return get(stateCount - 1, TIME);
+  }
+
+  /**
+   * Linearly interpolates every field at the given time, taking the heading the short way around. Times outside the
+   * trajectory get its first or last state.
+   *
+   * @param timeSeconds The time since the start of the trajectory
+   * @param out The array to write the {@link #FIELDS} fields to
+   */
+  public void sample(double timeSeconds, double[] out) {
+    int low = 0;
+    int high = stateCount - 1;
+    if (timeSeconds <= get(0, TIME)) {
+      high = 0;
+    } else if (timeSeconds >= get(high, TIME)) {
+      low = high;
+    } else {
+      // Find the first state after the time.
+      while (high - low > 1) {
+        int middle = (low + high) >>> 1;
+        if (get(middle, TIME) <= timeSeconds) {
+          low = middle;
+        } else {
+          high = middle;
+        }
+      }
+    }
+    if (low == high) {
+      for (int field = 0; field < FIELDS; field++) {
+        out[field] = get(low, field);
+      }
+      return;
+    }
+    double t0 = get(low, TIME);
+    double fraction = (timeSeconds - t0) / (get(high, TIME) - t0);
+    for (int field = 0; field < FIELDS; field++) {
+      double from = get(low, field);
+      double delta = get(high, field) - from;
+      if (field == HEADING) {
+        delta = MathUtil.angleModulus(delta);
+      }
+      out[field] = from + delta * fraction;
+    }
+  }
+
+  /**
+   * Deletes every packed trajectory in a directory, e.g. before regenerating them.
+   */
+  static void deleteAll(File directory) throws IOException {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+    if (files != null) {
+      for (File file : files) {
+        Files.delete(file.toPath());
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import frc.robot.Constants.DriveConstants;
+import frc.robot.Constants.PathConstants;
+
+/** The controller gains used to follow a path with a Ramsete controller. */
+public class PathFollowGains {
+  /** The Ramsete convergence gain */
+  public final double ramseteB;
+
+  /** The Ramsete damping gain */
+  public final double ramseteZeta;
+
+  /** The wheel velocity PID gains */
+  public final double kP;
+  public final double kI;
+  public final double kD;
+
+  /** The wheel feedforward gains */
+  public final double kS;
+  public final double kV;
+  public final double kA;
+
+  /** Whether the wheel velocity loop runs on the Talons at 1 kHz or on the roboRIO at 50 Hz */
+  public final boolean onboardVelocityControl;
+
+  /** Whether the roboRIO loop reads wheel velocities from a {@link frc.robot.subsystems.WheelVelocityEstimator} */
+  public final boolean estimateWheelVelocity;
+
+  /**
+   * Constructs a set of path following gains.
+   *
+   * @param ramseteB The Ramsete convergence gain
+   * @param ramseteZeta The Ramsete damping gain
+   * @param kP The wheel velocity proportional gain
+   * @param kI The wheel velocity integral gain
+   * @param kD The wheel velocity derivative gain
+   * @param kS The static feedforward gain in volts
+   * @param kV The velocity feedforward gain in volts per meter per second
+   * @param kA The acceleration feedforward gain in volts per meter per second squared
+   * @param onboardVelocityControl Whether the wheel velocity loop runs on the Talons
+   * @param estimateWheelVelocity Whether the roboRIO loop estimates wheel velocities rather than reading the Talons'
+   */
+  public PathFollowGains(double ramseteB, double ramseteZeta, double kP, double kI, double kD, double kS, double kV,
+      double kA, boolean onboardVelocityControl, boolean estimateWheelVelocity) {
+    this.ramseteB = ramseteB;
+    this.ramseteZeta = ramseteZeta;
+    this.kP = kP;
+    this.kI = kI;
+    this.kD = kD;
+    this.kS = kS;
+    this.kV = kV;
+    this.kA = kA;
+    this.onboardVelocityControl = onboardVelocityControl;
+    this.estimateWheelVelocity = estimateWheelVelocity;
+  }
+
+  /**
+   * Constructs a set of path following gains that read wheel velocities as
+   * {@link DriveConstants#ESTIMATE_WHEEL_VELOCITY} says.
+   */
+  public PathFollowGains(double ramseteB, double ramseteZeta, double kP, double kI, double kD, double kS, double kV,
+      double kA, boolean onboardVelocityControl) {
+    this(ramseteB, ramseteZeta, kP, kI, kD, kS, kV, kA, onboardVelocityControl, DriveConstants.ESTIMATE_WHEEL_VELOCITY);
+  }
+
+  /**
+   * Constructs a set of path following gains with the wheel velocity loop where
+   * {@link DriveConstants#ONBOARD_VELOCITY_CONTROL} puts it.
+   */
+  public PathFollowGains(double ramseteB, double ramseteZeta, double kP, double kI, double kD, double kS, double kV,
+      double kA) {
+    this(ramseteB, ramseteZeta, kP, kI, kD, kS, kV, kA, DriveConstants.ONBOARD_VELOCITY_CONTROL);
+  }
+
+  /**
+   * Returns these gains with the wheel velocity loop on the Talons or on the roboRIO.
+   */
+  public PathFollowGains withOnboardVelocityControl(boolean onboard) {
+    return new PathFollowGains(ramseteB, ramseteZeta, kP, kI, kD, kS, kV, kA, onboard, estimateWheelVelocity);
+  }
+
+  /**
+   * Returns these gains with the roboRIO loop reading estimated or Talon wheel velocities.
+   */
+  public PathFollowGains withEstimatedWheelVelocity(boolean estimate) {
+    return new PathFollowGains(ramseteB, ramseteZeta, kP, kI, kD, kS, kV, kA, onboardVelocityControl, estimate);
+  }
+
+  /**
+   * Returns the gains currently used by {@link frc.robot.commands.drive.PathFollowCommand}.
+   */
+  public static PathFollowGains fromConstants() {
+    return new PathFollowGains(
+        PathConstants.RAMSETE_B,
+        PathConstants.RAMSETE_ZETA,
+        PathConstants.kP,
+        PathConstants.kI,
+        PathConstants.KD,
+        PathConstants.kS,
+        PathConstants.kV,
+        PathConstants.kA);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("b=%.3f zeta=%.3f kP=%.4f kI=%.4f kD=%.4f kS=%.4f kV=%.4f kA=%.4f %s %s",
+        ramseteB, ramseteZeta, kP, kI, kD, kS, kV, kA, onboardVelocityControl ? "onboard" : "roboRIO",
+        estimateWheelVelocity ? "kalman" : "talon");
+  }
+}
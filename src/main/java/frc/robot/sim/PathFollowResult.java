@@ -0,0 +1,46 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+/** The outcome of following one or more paths in simulation. */
+public class PathFollowResult {
+  /** Whether the robot ended within tolerance of the final pose */
+  public final boolean completed;
+
+  /** The time after which the robot stayed within tolerance of the final pose */
+  public final double completionTimeSeconds;
+
+  /** The distance between the true final pose and the end of the path */
+  public final double finalTranslationErrorMeters;
+
+  /** The absolute heading difference between the true final pose and the end of the path */
+  public final double finalHeadingErrorRadians;
+
+  /** The root-mean-square distance between the true pose and the reference while following */
+  public final double rmsTrackingErrorMeters;
+
+  /** The largest distance between the true pose and the reference while following */
+  public final double maxTrackingErrorMeters;
+
+  /**
+   * Constructs a PathFollowResult.
+   *
+   * @param completed Whether the robot ended within tolerance of the final pose
+   * @param completionTimeSeconds The time after which the robot stayed within tolerance of the final pose
+   * @param finalTranslationErrorMeters The final translation error
+   * @param finalHeadingErrorRadians The final heading error
+   * @param rmsTrackingErrorMeters The RMS tracking error
+   * @param maxTrackingErrorMeters The maximum tracking error
+   */
+  public PathFollowResult(boolean completed, double completionTimeSeconds, double finalTranslationErrorMeters,
+      double finalHeadingErrorRadians, double rmsTrackingErrorMeters, double maxTrackingErrorMeters) {
+    this.completed = completed;
+    this.completionTimeSeconds = completionTimeSeconds;
+    this.finalTranslationErrorMeters = finalTranslationErrorMeters;
+    this.finalHeadingErrorRadians = finalHeadingErrorRadians;
+    this.rmsTrackingErrorMeters = rmsTrackingErrorMeters;
+    this.maxTrackingErrorMeters = maxTrackingErrorMeters;
+  }
+}
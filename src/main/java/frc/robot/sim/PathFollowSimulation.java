@@ -0,0 +1,229 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.List;
+
+import com.pathplanner.lib.PathPlannerTrajectory;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.controller.RamseteController;
+import edu.wpi.first.math.controller.SimpleMotorFeedforward;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.DifferentialDriveWheelSpeeds;
+import edu.wpi.first.math.trajectory.Trajectory;
+import frc.robot.Constants.DriveConstants;
+import frc.robot.subsystems.WheelVelocityEstimator;
+
+/**
+ * Follows PathPlanner trajectories with a {@link SimulatedDrivetrain}, using the same control law as
+ * {@link frc.robot.commands.drive.PathFollowCommand}: a Ramsete controller on the odometry pose, then a feedforward
+ * plus a PID controller per side on the measured wheel speeds. With {@link PathFollowGains#onboardVelocityControl}
+ * the wheel speed loop is the same PID controller run every {@link DriveConstants#ONBOARD_LOOP_PERIOD_SECONDS} within
+ * each loop period, as on the Talons, with the feedforward held for the period. Otherwise, with
+ * {@link PathFollowGains#estimateWheelVelocity} the loop reads the wheel speeds from a {@link WheelVelocityEstimator}
+ * on the encoder positions and applied voltages, as {@link frc.robot.subsystems.DriveBase} does, rather than the
+ * Talons' averaged velocity.
+ *
+ * <p>
+ * Nothing here touches the HAL or the command scheduler, so simulations can run concurrently, one per thread. Paths
+ * are followed as on the blue alliance.
+ */
+public class PathFollowSimulation {
+  public static final double LOOP_PERIOD_SECONDS = 0.020;
+  public static final double POSITION_TOLERANCE_METERS = 0.1;
+  public static final double HEADING_TOLERANCE_RADIANS = Math.toRadians(5);
+  public static final double SETTLE_TIME_SECONDS = 1.0;
+
+  private final SimulatedDrivetrain drivetrain;
+  private final RamseteController ramseteController;
+  private final SimpleMotorFeedforward feedforward;
+  private final PIDController leftController;
+  private final PIDController rightController;
+  private final boolean onboardVelocityControl;
+  private final PIDController onboardLeftController;
+  private final PIDController onboardRightController;
+  private final int onboardSteps;
+  private final WheelVelocityEstimator velocityEstimator;
+
+  private PathPlannerTrajectory trajectory;
+  private double pathTimeSeconds;
+  private double prevLeftSetpoint;
+  private double prevRightSetpoint;
+  private double lastTrackingErrorMeters;
+
+  /**
+   * Creates a path following simulation.
+   *
+   * @param drivetrain The simulated drivetrain to control
+   * @param gains The controller gains
+   */
+  public PathFollowSimulation(SimulatedDrivetrain drivetrain, PathFollowGains gains) {
+    this.drivetrain = drivetrain;
+    this.ramseteController = new RamseteController(gains.ramseteB, gains.ramseteZeta);
+    this.feedforward = new SimpleMotorFeedforward(gains.kS, gains.kV, gains.kA);
+    this.leftController = new PIDController(gains.kP, gains.kI, gains.kD, LOOP_PERIOD_SECONDS);
+    this.rightController = new PIDController(gains.kP, gains.kI, gains.kD, LOOP_PERIOD_SECONDS);
+    this.onboardVelocityControl = gains.onboardVelocityControl;
+    this.onboardLeftController =
+        new PIDController(gains.kP, gains.kI, gains.kD, DriveConstants.ONBOARD_LOOP_PERIOD_SECONDS);
+    this.onboardRightController =
+        new PIDController(gains.kP, gains.kI, gains.kD, DriveConstants.ONBOARD_LOOP_PERIOD_SECONDS);
+    this.onboardSteps = (int) Math.round(LOOP_PERIOD_SECONDS / DriveConstants.ONBOARD_LOOP_PERIOD_SECONDS);
+    // Starts at rest with the drivetrain, and keeps estimating across the trajectories of a run.
+    this.velocityEstimator = gains.estimateWheelVelocity
+        ? new WheelVelocityEstimator(DriveConstants.kDrivetrainPlant, gains.kS,
+            DriveConstants.VELOCITY_ESTIMATOR_ACCELERATION_STD_DEV, DriveConstants.VELOCITY_ESTIMATOR_POSITION_STD_DEV)
+        : null;
+  }
+
+  /**
+   * Returns the simulated drivetrain being controlled.
+   */
+  public SimulatedDrivetrain getDrivetrain() {
+    return drivetrain;
+  }
+
+  /**
+   * Starts following a trajectory from its beginning.
+   *
+   * @param trajectory The trajectory to follow
+   */
+  public void start(PathPlannerTrajectory trajectory) {
+    this.trajectory = trajectory;
+    this.pathTimeSeconds = 0;
+    Trajectory.State initialState = trajectory.sample(0);
+    DifferentialDriveWheelSpeeds initialSpeeds = DriveConstants.KINEMATICS.toWheelSpeeds(
+        new ChassisSpeeds(initialState.velocityMetersPerSecond, 0,
+            initialState.curvatureRadPerMeter * initialState.velocityMetersPerSecond));
+    prevLeftSetpoint = initialSpeeds.leftMetersPerSecond;
+    prevRightSetpoint = initialSpeeds.rightMetersPerSecond;
+    leftController.reset();
+    rightController.reset();
+    onboardLeftController.reset();
+    onboardRightController.reset();
+  }
+
+  /**
+   * Runs one control loop and advances the drivetrain by one loop period.
+   *
+   * @return Whether the trajectory has finished
+   */
+  public boolean step() {
+    Trajectory.State desiredState = trajectory.sample(pathTimeSeconds);
+    DifferentialDriveWheelSpeeds targetSpeeds = DriveConstants.KINEMATICS.toWheelSpeeds(
+        ramseteController.calculate(drivetrain.getEstimatedPose(), desiredState));
+    double leftSetpoint = targetSpeeds.leftMetersPerSecond;
+    double rightSetpoint = targetSpeeds.rightMetersPerSecond;
+
+    double leftFeedforward =
+        feedforward.calculate(leftSetpoint, (leftSetpoint - prevLeftSetpoint) / LOOP_PERIOD_SECONDS);
+    double rightFeedforward =
+        feedforward.calculate(rightSetpoint, (rightSetpoint - prevRightSetpoint) / LOOP_PERIOD_SECONDS);
+    prevLeftSetpoint = leftSetpoint;
+    prevRightSetpoint = rightSetpoint;
+
+    if (onboardVelocityControl) {
+      double dtSeconds = LOOP_PERIOD_SECONDS / onboardSteps;
+      for (int i = 0; i < onboardSteps; i++) {
+        DifferentialDriveWheelSpeeds measuredSpeeds = drivetrain.getWheelSpeeds();
+        drivetrain.setVoltages(
+            leftFeedforward + onboardLeftController.calculate(measuredSpeeds.leftMetersPerSecond, leftSetpoint),
+            rightFeedforward + onboardRightController.calculate(measuredSpeeds.rightMetersPerSecond, rightSetpoint),
+            dtSeconds);
+        drivetrain.update(dtSeconds);
+      }
+    } else {
+      double leftMeasured;
+      double rightMeasured;
+      if (velocityEstimator != null) {
+        velocityEstimator.update(drivetrain.getTimeSeconds(), drivetrain.getLeftPositionMeters(),
+            drivetrain.getRightPositionMeters(), drivetrain.getLeftVolts(), drivetrain.getRightVolts());
+        leftMeasured = velocityEstimator.getLeftVelocityMetersPerSecond();
+        rightMeasured = velocityEstimator.getRightVelocityMetersPerSecond();
+      } else {
+        DifferentialDriveWheelSpeeds measuredSpeeds = drivetrain.getWheelSpeeds();
+        leftMeasured = measuredSpeeds.leftMetersPerSecond;
+        rightMeasured = measuredSpeeds.rightMetersPerSecond;
+      }
+      drivetrain.setVoltages(
+          leftFeedforward + leftController.calculate(leftMeasured, leftSetpoint),
+          rightFeedforward + rightController.calculate(rightMeasured, rightSetpoint),
+          LOOP_PERIOD_SECONDS);
+      drivetrain.update(LOOP_PERIOD_SECONDS);
+    }
+    pathTimeSeconds += LOOP_PERIOD_SECONDS;
+
+    lastTrackingErrorMeters =
+        drivetrain.getPose().getTranslation().getDistance(desiredState.poseMeters.getTranslation());
+    return pathTimeSeconds >= trajectory.getTotalTimeSeconds();
+  }
+
+  /**
+   * Returns the distance between the true pose and the reference after the last {@link #step()}.
+   */
+  public double getLastTrackingErrorMeters() {
+    return lastTrackingErrorMeters;
+  }
+
+  /**
+   * Follows each trajectory in order, like a sequence of {@link frc.robot.commands.drive.PathFollowCommand}s, and then
+   * stops the drivetrain for {@link #SETTLE_TIME_SECONDS}.
+   *
+   * @param trajectories The trajectories to follow
+   * @return The tracking and final pose errors of the run
+   */
+  public PathFollowResult run(List<PathPlannerTrajectory> trajectories) {
+    Pose2d finalPose = trajectories.get(trajectories.size() - 1).getEndState().poseMeters;
+    double timeSeconds = 0;
+    double lastOutsideToleranceSeconds = 0;
+    double sumSquaredError = 0;
+    double maxError = 0;
+    int steps = 0;
+
+    for (PathPlannerTrajectory path : trajectories) {
+      start(path);
+      boolean finished = false;
+      while (!finished) {
+        finished = step();
+        timeSeconds += LOOP_PERIOD_SECONDS;
+        sumSquaredError += lastTrackingErrorMeters * lastTrackingErrorMeters;
+        maxError = Math.max(maxError, lastTrackingErrorMeters);
+        steps++;
+        if (!isWithinTolerance(drivetrain.getPose(), finalPose)) {
+          lastOutsideToleranceSeconds = timeSeconds;
+        }
+      }
+    }
+
+    drivetrain.stop();
+    for (double settle = 0; settle < SETTLE_TIME_SECONDS; settle += LOOP_PERIOD_SECONDS) {
+      drivetrain.update(LOOP_PERIOD_SECONDS);
+      timeSeconds += LOOP_PERIOD_SECONDS;
+      if (!isWithinTolerance(drivetrain.getPose(), finalPose)) {
+        lastOutsideToleranceSeconds = timeSeconds;
+      }
+    }
+
+    Pose2d endPose = drivetrain.getPose();
+    return new PathFollowResult(
+        isWithinTolerance(endPose, finalPose),
+        lastOutsideToleranceSeconds,
+        endPose.getTranslation().getDistance(finalPose.getTranslation()),
+        Math.abs(headingError(endPose, finalPose)),
+        Math.sqrt(sumSquaredError / Math.max(steps, 1)),
+        maxError);
+  }
+
+  private static boolean isWithinTolerance(Pose2d pose, Pose2d target) {
+    return pose.getTranslation().getDistance(target.getTranslation()) <= POSITION_TOLERANCE_METERS
+        && Math.abs(headingError(pose, target)) <= HEADING_TOLERANCE_RADIANS;
+  }
+
+  private static double headingError(Pose2d pose, Pose2d target) {
+    return MathUtil.angleModulus(pose.getRotation().getRadians() - target.getRotation().getRadians());
+  }
+}
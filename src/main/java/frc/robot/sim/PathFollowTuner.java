@@ -0,0 +1,235 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.pathplanner.lib.PathPlannerTrajectory;
+import frc.robot.Constants.PathConstants;
+import frc.robot.sim.DrivetrainModel.Integrator;
+
+/**
+ * Sweeps a grid of {@link frc.robot.commands.drive.PathFollowCommand} gains against the simulated plant
+ * ({@link frc.robot.Constants.DriveConstants#kDrivetrainPlant}) and reports the Pareto front of tracking error against
+ * completion time.
+ *
+ * <p>
+ * Every candidate is evaluated on the same auton paths with the same randomized conditions, each run in its own
+ * {@link SimulatedDrivetrain}. Candidates share nothing but the read-only trajectories, so the sweep scales with the
+ * number of cores.
+ */
+public class PathFollowTuner {
+  private static final double[] RAMSETE_B_VALUES = {1.0, 2.0, 3.0, 4.0};
+  private static final double[] RAMSETE_ZETA_VALUES = {0.5, 0.7, 0.9};
+  private static final double[] KP_SCALES = {0, 0.5, 1, 2, 4};
+  private static final double[] KD_SCALES = {0, 1};
+  /* Scales kS, kV and kA together, to see how sensitive tracking is to a mis-characterized drivetrain. */
+  private static final double[] FEEDFORWARD_SCALES = {0.9, 1.0, 1.1};
+
+  /** The averaged score of one set of gains. */
+  public static class Candidate {
+    public final PathFollowGains gains;
+    public final double meanRmsTrackingErrorMeters;
+    public final double meanCompletionTimeSeconds;
+    public final int failures;
+
+    Candidate(PathFollowGains gains, List<PathFollowResult> results) {
+      this.gains = gains;
+      double trackingError = 0;
+      double completionTime = 0;
+      int failed = 0;
+      for (PathFollowResult result : results) {
+        trackingError += result.rmsTrackingErrorMeters;
+        if (result.completed) {
+          completionTime += result.completionTimeSeconds;
+        } else {
+          failed++;
+        }
+      }
+      this.meanRmsTrackingErrorMeters = trackingError / results.size();
+      // A candidate that fails any run never completes the auton, so it can't be on the front.
+      this.meanCompletionTimeSeconds = failed > 0 ? Double.POSITIVE_INFINITY : completionTime / results.size();
+      this.failures = failed;
+    }
+
+    /**
+     * Returns whether this candidate is at least as good as the other in both objectives and better in one.
+     */
+    public boolean dominates(Candidate other) {
+      return meanRmsTrackingErrorMeters <= other.meanRmsTrackingErrorMeters
+          && meanCompletionTimeSeconds <= other.meanCompletionTimeSeconds
+          && (meanRmsTrackingErrorMeters < other.meanRmsTrackingErrorMeters
+              || meanCompletionTimeSeconds < other.meanCompletionTimeSeconds);
+    }
+  }
+
+  /**
+   * Builds the grid of candidate gains around the current constants.
+   */
+  public static List<PathFollowGains> buildGrid() {
+    List<PathFollowGains> grid = new ArrayList<>();
+    for (double b : RAMSETE_B_VALUES) {
+      for (double zeta : RAMSETE_ZETA_VALUES) {
+        for (double kPScale : KP_SCALES) {
+          for (double kDScale : KD_SCALES) {
+            for (double feedforwardScale : FEEDFORWARD_SCALES) {
+              grid.add(new PathFollowGains(
+                  b,
+                  zeta,
+                  PathConstants.kP * kPScale,
+                  PathConstants.kI,
+                  PathConstants.KD * kDScale,
+                  PathConstants.kS * feedforwardScale,
+                  PathConstants.kV * feedforwardScale,
+                  PathConstants.kA * feedforwardScale));
+            }
+          }
+        }
+      }
+    }
+    return grid;
+  }
+
+  /**
+   * Evaluates every candidate on every path with the given number of trials, in parallel.
+   *
+   * @param candidates The gains to evaluate
+   * @param paths The path combinations to follow
+   * @param trials The number of randomized trials per path
+   * @param seed The base seed, shared by all candidates so they face identical conditions
+   * @param threads The number of worker threads
+   * @param integrator The integration method for the plant
+   * @param substeps The number of integration steps per control loop
+   */
+  public static List<Candidate> evaluate(List<PathFollowGains> candidates, List<List<PathPlannerTrajectory>> paths,
+      int trials, long seed, int threads, Integrator integrator, int substeps)
+      throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Callable<Candidate>> tasks = new ArrayList<>();
+      for (PathFollowGains gains : candidates) {
+        tasks.add(() -> {
+          List<PathFollowResult> results = new ArrayList<>();
+          for (int path = 0; path < paths.size(); path++) {
+            for (int trial = 0; trial < trials; trial++) {
+              results.add(AutonMonteCarlo.runTrial(paths.get(path), gains, seed + (long) path * trials + trial,
+                  integrator, substeps));
+            }
+          }
+          return new Candidate(gains, results);
+        });
+      }
+      List<Candidate> evaluated = new ArrayList<>();
+      for (Future<Candidate> result : executor.invokeAll(tasks)) {
+        evaluated.add(result.get());
+      }
+      return evaluated;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the candidates not dominated by any other, sorted by completion time.
+   */
+  public static List<Candidate> paretoFront(List<Candidate> candidates) {
+    List<Candidate> front = new ArrayList<>();
+    for (Candidate candidate : candidates) {
+      if (Double.isInfinite(candidate.meanCompletionTimeSeconds)) {
+        continue;
+      }
+      boolean dominated = false;
+      for (Candidate other : candidates) {
+        if (other.dominates(candidate)) {
+          dominated = true;
+          break;
+        }
+      }
+      if (!dominated) {
+        front.add(candidate);
+      }
+    }
+    front.sort(Comparator.comparingDouble(candidate -> candidate.meanCompletionTimeSeconds));
+    return front;
+  }
+
+  /**
+   * Runs the gain sweep and prints the Pareto front.
+   *
+   * <p>
+   * Arguments: {@code [--trials N] [--paths N] [--seed SEED] [--threads N] [--integrator EULER|RK4|RKDP]
+   * [--substeps N]}. {@code --paths} limits the sweep to the first N path combinations. A cheaper integrator speeds up
+   * large sweeps; see {@link DrivetrainBenchmark} for the accuracy it costs.
+   */
+  public static void main(String... args) throws InterruptedException, ExecutionException {
+    int trials = 2;
+    int pathLimit = Integer.MAX_VALUE;
+    long seed = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    Integrator integrator = DrivetrainModel.DEFAULT_INTEGRATOR;
+    int substeps = DrivetrainModel.DEFAULT_SUBSTEPS;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--trials":
+          trials = Integer.parseInt(args[i + 1]);
+          break;
+        case "--paths":
+          pathLimit = Integer.parseInt(args[i + 1]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+        case "--integrator":
+          integrator = Integrator.valueOf(args[i + 1]);
+          break;
+        case "--substeps":
+          substeps = Integer.parseInt(args[i + 1]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+
+    List<List<PathPlannerTrajectory>> paths = new ArrayList<>();
+    for (int initial = 0; initial < AutonMonteCarlo.INITIAL_POSITIONS; initial++) {
+      for (int crossing = 0; crossing < AutonMonteCarlo.CROSSING_POSITIONS; crossing++) {
+        for (int ending = 0; ending < AutonMonteCarlo.FINAL_POSITIONS; ending++) {
+          if (paths.size() < pathLimit) {
+            paths.add(AutonMonteCarlo.loadCombination(initial, crossing, ending));
+          }
+        }
+      }
+    }
+
+    List<PathFollowGains> grid = buildGrid();
+    grid.add(PathFollowGains.fromConstants());
+    long startNanos = System.nanoTime();
+    List<Candidate> candidates = evaluate(grid, paths, trials, seed, threads, integrator, substeps);
+    double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+    Candidate current = candidates.get(candidates.size() - 1);
+    System.out.printf("Current gains: %.4f m RMS, %.2f s, %d failures%n", current.meanRmsTrackingErrorMeters,
+        current.meanCompletionTimeSeconds, current.failures);
+    System.out.println("Pareto front (RMS tracking error vs completion time):");
+    for (Candidate candidate : paretoFront(candidates)) {
+      System.out.printf("  %.4f m RMS  %.2f s  %s%n", candidate.meanRmsTrackingErrorMeters,
+          candidate.meanCompletionTimeSeconds, candidate.gains);
+    }
+    int runs = candidates.size() * paths.size() * trials;
+    System.out.printf("Evaluated %d candidates (%d runs) on %d threads in %.2f s%n", candidates.size(), runs, threads,
+        wallSeconds);
+    System.exit(0);
+  }
+}
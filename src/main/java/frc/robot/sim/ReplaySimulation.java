@@ -0,0 +1,120 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.io.IOException;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import frc.robot.Constants.ReplayConstants;
+import frc.robot.Robot;
+import lobstah.stl.io.InputLog;
+
+/**
+ * Replays a simulation run recorded with {@link InputLog} as fast as possible and checks that the robot ends up in
+ * bit-identical poses every cycle.
+ *
+ * <p>
+ * To record, run the simulation with the {@value ReplayConstants#RECORD_ENVIRONMENT_VARIABLE} environment variable
+ * set to the log file path. The robot then runs on a {@link LockstepClock} and logs the Driver Station mode, gamepad
+ * axes and buttons, chooser selections, battery voltage and camera results. Replaying feeds those back at the
+ * recorded times, without a GUI or Driver Station. A run that replays identically on one commit and differently on
+ * another can be bisected.
+ */
+public class ReplaySimulation {
+  private final Robot robot;
+  private long cycles;
+  private long wallNanos;
+
+  /**
+   * Initializes the HAL, resets the simulation clock to zero like {@link LockstepClock}, opens the log and constructs
+   * the robot.
+   *
+   * @param logPath The log to replay
+   */
+  public ReplaySimulation(String logPath) throws IOException {
+    if (!HAL.initialize(500, 0)) {
+      throw new IllegalStateException("Failed to initialize the HAL");
+    }
+    SimHooks.pauseTiming();
+    SimHooks.restartTiming();
+    InputLog.startReplay(logPath);
+    robot = new Robot();
+    robot.robotInit();
+    robot.simulationInit();
+  }
+
+  /**
+   * Replays every recorded cycle, stepping the clock to each cycle's recorded time first.
+   *
+   * @throws IllegalStateException If the program reads different inputs than were recorded
+   */
+  public void run() {
+    long startNanos = System.nanoTime();
+    while (InputLog.hasRemainingCycles()) {
+      long deltaMicros = InputLog.peekCycleTimestamp() - RobotController.getFPGATime();
+      if (deltaMicros < 0) {
+        throw new IllegalStateException("[ReplaySimulation] Cycle " + (cycles + 1) + " was recorded in the past");
+      }
+      if (deltaMicros > 0) {
+        // Rounds so the conversion back to microseconds lands exactly on the recorded time.
+        SimHooks.stepTiming((deltaMicros + 0.5) / 1e6);
+      }
+      robot.runCycle();
+      cycles++;
+    }
+    wallNanos = System.nanoTime() - startNanos;
+  }
+
+  public long getCycles() {
+    return cycles;
+  }
+
+  public double getWallSeconds() {
+    return wallNanos / 1e9;
+  }
+
+  /**
+   * Replays a log and reports whether the poses matched.
+   *
+   * <p>
+   * Arguments: {@code --log FILE}. Exits with status 1 if the replay diverged or any pose differed.
+   */
+  public static void main(String... args) throws IOException {
+    String logPath = null;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--log":
+          logPath = args[i + 1];
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+    if (logPath == null) {
+      throw new IllegalArgumentException("Missing --log FILE");
+    }
+
+    ReplaySimulation replay = new ReplaySimulation(logPath);
+    try {
+      replay.run();
+    } catch (IllegalStateException e) {
+      System.out.println(e.getMessage());
+      System.exit(1);
+    }
+
+    double simulatedSeconds = RobotController.getFPGATime() / 1e6;
+    System.out.printf("Replayed %d cycles (%.1f s) in %.2f s wall time (%.1fx real time)%n", replay.getCycles(),
+        simulatedSeconds, replay.getWallSeconds(), simulatedSeconds / replay.getWallSeconds());
+    if (InputLog.getOutputMismatches() == 0) {
+      System.out.println("All poses matched the recording bit for bit");
+      System.exit(0);
+    }
+    System.out.printf("%d pose values differed, first in cycle %d%n", InputLog.getOutputMismatches(),
+        InputLog.getFirstMismatchCycle());
+    System.exit(1);
+  }
+}
@@ -0,0 +1,269 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.photonvision.AprilTagFieldModel;
+import lobstah.stl.math.LobstahMath;
+
+/**
+ * A synthetic PhotonVision camera that sees the AprilTags of a field layout from a known robot pose.
+ *
+ * <p>
+ * Each frame, the camera pose is found from the robot pose and the robot to camera transform, and every tag's corners
+ * are projected through a pinhole model. A tag is detected when it is within range, faces the camera and all four
+ * corners land inside the image. Detected corners get Gaussian pixel noise, and the camera to tag transform gets the
+ * depth and lateral error a single-tag solve would have at that distance. Frames are captured at the camera's frame
+ * rate, quantized to the calls to {@link #update}, and become visible after its latency.
+ *
+ * <p>
+ * The projection and culling use primitive math on the tag corners precomputed by an {@link AprilTagFieldModel}, so
+ * tags out of view cost a few multiplications and nothing is allocated except for the targets that are actually seen.
+ * Nothing here touches the HAL, so batch simulations can run one camera per robot per thread.
+ */
+public class SimulatedCamera {
+  private static final double MIN_DEPTH_METERS = 0.05;
+  /* The ambiguity of a tag whose side spans this many pixels per pixel of noise is about 1. */
+  private static final double AMBIGUITY_PIXELS = 4;
+
+  private final AprilTagFieldModel field;
+  private final Transform3d robotToCamera;
+  private final double[] cameraRotation = new double[9];
+  private final double focalLengthPixels;
+  private final int widthPixels;
+  private final int heightPixels;
+  private final double maxRangeMeters;
+  private final double pixelNoise;
+  private final double framePeriodSeconds;
+  private final double latencySeconds;
+  private final Random random;
+
+  private final double[] cameraPoint = new double[3];
+  private final double[] u = new double[4];
+  private final double[] v = new double[4];
+
+  /* Read by the vision thread. */
+  private volatile PhotonPipelineResult latestResult = new PhotonPipelineResult();
+  private PhotonPipelineResult pendingResult;
+  private double pendingPublishSeconds;
+  private double nextFrameSeconds = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Creates a simulated camera with the model in {@link VisionConstants}.
+   *
+   * @param field The tags on the field
+   * @param robotToCamera The transform from the robot to the camera
+   * @param seed The seed for the pixel and pose noise
+   */
+  public SimulatedCamera(AprilTagFieldModel field, Transform3d robotToCamera, long seed) {
+    this(field, robotToCamera, VisionConstants.CAMERA_WIDTH_PIXELS, VisionConstants.CAMERA_HEIGHT_PIXELS,
+        Math.toRadians(VisionConstants.CAMERA_HORIZONTAL_FOV_DEGREES), VisionConstants.SIM_CAMERA_MAX_RANGE_METERS,
+        VisionConstants.SIM_CAMERA_PIXEL_NOISE, VisionConstants.SIM_CAMERA_FRAME_RATE,
+        VisionConstants.SIM_CAMERA_LATENCY_SECONDS, seed);
+  }
+
+  /**
+   * Creates a simulated camera.
+   *
+   * @param field The tags on the field
+   * @param robotToCamera The transform from the robot to the camera
+   * @param widthPixels The image width
+   * @param heightPixels The image height
+   * @param horizontalFovRadians The horizontal field of view
+   * @param maxRangeMeters The farthest a tag can be detected from
+   * @param pixelNoise The standard deviation of the noise on each corner coordinate, in pixels
+   * @param frameRate The frames captured per second
+   * @param latencySeconds The time between capturing a frame and its result being available
+   * @param seed The seed for the pixel and pose noise
+   */
+  public SimulatedCamera(AprilTagFieldModel field, Transform3d robotToCamera, int widthPixels, int heightPixels,
+      double horizontalFovRadians, double maxRangeMeters, double pixelNoise, double frameRate, double latencySeconds,
+      long seed) {
+    this.field = field;
+    this.robotToCamera = robotToCamera;
+    LobstahMath.quaternionToRotationMatrix(robotToCamera.getRotation().getQuaternion(), cameraRotation);
+    this.widthPixels = widthPixels;
+    this.heightPixels = heightPixels;
+    this.focalLengthPixels = widthPixels / 2.0 / Math.tan(horizontalFovRadians / 2);
+    this.maxRangeMeters = maxRangeMeters;
+    this.pixelNoise = pixelNoise;
+    this.framePeriodSeconds = 1 / frameRate;
+    this.latencySeconds = latencySeconds;
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Advances the camera to the given time, capturing a frame from the given robot pose if one is due.
+   *
+   * @param robotX The true robot x position on the field
+   * @param robotY The true robot y position on the field
+   * @param robotHeadingRadians The true robot heading
+   * @param nowSeconds The present time, in the same time base the results should be stamped with
+   */
+  public void update(double robotX, double robotY, double robotHeadingRadians, double nowSeconds) {
+    publishIfDue(nowSeconds);
+    if (nowSeconds >= nextFrameSeconds) {
+      pendingResult = capture(robotX, robotY, robotHeadingRadians, nowSeconds);
+      pendingPublishSeconds = nowSeconds + latencySeconds;
+      nextFrameSeconds = Math.max(nextFrameSeconds + framePeriodSeconds, nowSeconds);
+      publishIfDue(nowSeconds);
+    }
+  }
+
+  /**
+   * Returns the most recent result whose latency has elapsed, like {@link org.photonvision.PhotonCamera}.
+   */
+  public PhotonPipelineResult getLatestResult() {
+    return latestResult;
+  }
+
+  private void publishIfDue(double nowSeconds) {
+    if (pendingResult != null && nowSeconds >= pendingPublishSeconds) {
+      latestResult = pendingResult;
+      pendingResult = null;
+    }
+  }
+
+  /**
+   * Renders one frame from the given robot pose.
+   */
+  public PhotonPipelineResult capture(double robotX, double robotY, double robotHeadingRadians,
+      double timestampSeconds) {
+    double cos = Math.cos(robotHeadingRadians);
+    double sin = Math.sin(robotHeadingRadians);
+    // World from camera rotation: the robot's yaw applied to the camera's mounting rotation.
+    double[] r = cameraRotation;
+    double r00 = cos * r[0] - sin * r[3];
+    double r01 = cos * r[1] - sin * r[4];
+    double r02 = cos * r[2] - sin * r[5];
+    double r10 = sin * r[0] + cos * r[3];
+    double r11 = sin * r[1] + cos * r[4];
+    double r12 = sin * r[2] + cos * r[5];
+    double r20 = r[6];
+    double r21 = r[7];
+    double r22 = r[8];
+    double tx = robotToCamera.getX();
+    double ty = robotToCamera.getY();
+    double cameraX = robotX + cos * tx - sin * ty;
+    double cameraY = robotY + sin * tx + cos * ty;
+    double cameraZ = robotToCamera.getZ();
+
+    List<PhotonTrackedTarget> targets = new ArrayList<>();
+    Pose3d cameraPose = null;
+    for (int index = 0; index < field.getTagCount(); index++) {
+      int tag = field.getTagId(index);
+      double dx = field.getCenter(tag, 0) - cameraX;
+      double dy = field.getCenter(tag, 1) - cameraY;
+      double dz = field.getCenter(tag, 2) - cameraZ;
+      double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+      // Out of range, or seen from behind.
+      if (distance > maxRangeMeters
+          || dx * field.getNormal(tag, 0) + dy * field.getNormal(tag, 1) + dz * field.getNormal(tag, 2) >= 0) {
+        continue;
+      }
+      boolean inView = true;
+      for (int corner = 0; corner < AprilTagFieldModel.CORNERS && inView; corner++) {
+        double px = field.getCorner(tag, corner, 0) - cameraX;
+        double py = field.getCorner(tag, corner, 1) - cameraY;
+        double pz = field.getCorner(tag, corner, 2) - cameraZ;
+        // Camera frame: x forward, y left, z up.
+        cameraPoint[0] = r00 * px + r10 * py + r20 * pz;
+        cameraPoint[1] = r01 * px + r11 * py + r21 * pz;
+        cameraPoint[2] = r02 * px + r12 * py + r22 * pz;
+        if (cameraPoint[0] < MIN_DEPTH_METERS) {
+          inView = false;
+          break;
+        }
+        u[corner] = widthPixels / 2.0 - focalLengthPixels * cameraPoint[1] / cameraPoint[0];
+        v[corner] = heightPixels / 2.0 - focalLengthPixels * cameraPoint[2] / cameraPoint[0];
+        inView = u[corner] >= 0 && u[corner] <= widthPixels && v[corner] >= 0 && v[corner] <= heightPixels;
+      }
+      if (!inView) {
+        continue;
+      }
+
+      if (cameraPose == null) {
+        cameraPose = new Pose3d(new Pose2d(robotX, robotY, new Rotation2d(robotHeadingRadians)))
+            .transformBy(robotToCamera);
+      }
+      targets.add(detect(tag, distance, cameraPose, r00, r01, r02, r10, r11, r12, r20, r21, r22, cameraX, cameraY,
+          cameraZ));
+    }
+    PhotonPipelineResult result = new PhotonPipelineResult(latencySeconds * 1000, targets);
+    result.setTimestampSeconds(timestampSeconds);
+    return result;
+  }
+
+  private PhotonTrackedTarget detect(int tag, double distance, Pose3d cameraPose, double r00, double r01,
+      double r02, double r10, double r11, double r12, double r20, double r21, double r22, double cameraX,
+      double cameraY, double cameraZ) {
+    List<TargetCorner> detectedCorners = new ArrayList<>(4);
+    double minU = Double.POSITIVE_INFINITY;
+    double maxU = Double.NEGATIVE_INFINITY;
+    double minV = Double.POSITIVE_INFINITY;
+    double maxV = Double.NEGATIVE_INFINITY;
+    for (int corner = 0; corner < 4; corner++) {
+      u[corner] += pixelNoise * random.nextGaussian();
+      v[corner] += pixelNoise * random.nextGaussian();
+      detectedCorners.add(new TargetCorner(u[corner], v[corner]));
+      minU = Math.min(minU, u[corner]);
+      maxU = Math.max(maxU, u[corner]);
+      minV = Math.min(minV, v[corner]);
+      maxV = Math.max(maxV, v[corner]);
+    }
+    List<TargetCorner> rectCorners = new ArrayList<>(4);
+    rectCorners.add(new TargetCorner(minU, maxV));
+    rectCorners.add(new TargetCorner(maxU, maxV));
+    rectCorners.add(new TargetCorner(maxU, minV));
+    rectCorners.add(new TargetCorner(minU, minV));
+
+    double areaPixels = 0;
+    for (int corner = 0; corner < 4; corner++) {
+      int next = (corner + 1) % 4;
+      areaPixels += u[corner] * v[next] - u[next] * v[corner];
+    }
+    areaPixels = Math.abs(areaPixels) / 2;
+
+    double px = field.getCenter(tag, 0) - cameraX;
+    double py = field.getCenter(tag, 1) - cameraY;
+    double pz = field.getCenter(tag, 2) - cameraZ;
+    double centerX = r00 * px + r10 * py + r20 * pz;
+    double centerY = r01 * px + r11 * py + r21 * pz;
+    double centerZ = r02 * px + r12 * py + r22 * pz;
+    double yawDegrees = -Math.toDegrees(Math.atan2(centerY, centerX));
+    double pitchDegrees = Math.toDegrees(Math.atan2(centerZ, centerX));
+
+    // A single-tag solve is off laterally by about distance * noise / f, and in depth and yaw by that times the ratio
+    // of the distance to the tag size.
+    double lateralSigma = distance * pixelNoise / focalLengthPixels;
+    double depthRatio = distance / VisionConstants.APRILTAG_SIZE_METERS;
+    Transform3d cameraToTag = new Transform3d(cameraPose, field.getPose(tag));
+    Transform3d bestCameraToTag = new Transform3d(
+        new Translation3d(
+            cameraToTag.getX() + lateralSigma * depthRatio * random.nextGaussian(),
+            cameraToTag.getY() + lateralSigma * random.nextGaussian(),
+            cameraToTag.getZ() + lateralSigma * random.nextGaussian()),
+        cameraToTag.getRotation().plus(new Rotation3d(0, 0, lateralSigma * depthRatio * random.nextGaussian())));
+    double sidePixels = Math.sqrt(areaPixels);
+    double ambiguity = Math.min(1, AMBIGUITY_PIXELS * Math.max(pixelNoise, 0.1) / sidePixels);
+
+    return new PhotonTrackedTarget(yawDegrees, pitchDegrees, 100 * areaPixels / (widthPixels * heightPixels), 0,
+        tag, bestCameraToTag, bestCameraToTag, ambiguity, rectCorners, detectedCorners);
+  }
+}
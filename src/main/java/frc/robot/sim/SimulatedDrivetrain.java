@@ -0,0 +1,275 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.Random;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.DifferentialDriveWheelSpeeds;
+import edu.wpi.first.wpilibj.simulation.BatterySim;
+import frc.robot.Constants.DriveConstants;
+import frc.robot.sim.DrivetrainModel.Integrator;
+import frc.robot.subsystems.DrivePoseEstimator;
+
+/**
+ * A self-contained simulated drivetrain that does not touch the HAL, CAN devices or any other process-wide state, so
+ * any number of them can be stepped independently on different threads.
+ *
+ * <p>
+ * Commanded voltages pass through the same chain as on the robot: they are converted to percent output against the
+ * battery voltage and slew rate limited like {@link lobstah.stl.motorcontrol.LobstahDifferentialDrive}. The battery
+ * sags with the drawn current. The drivetrain reports a true pose from the plant and a separate estimated pose built
+ * from encoder and gyro readings with seeded Gaussian noise by a {@link DrivePoseEstimator}, which vision measurements
+ * can correct as on the robot. Wheel speeds are measured like the TalonFX's, as the
+ * change in position over the last 100 ms, so they lag the wheels by about 50 ms.
+ */
+public class SimulatedDrivetrain {
+  private static final double BATTERY_RESISTANCE_OHMS = 0.02;
+  /* The TalonFX averages velocity over 100 ms, so position noise shows up in velocity scaled by that window. */
+  private static final double VELOCITY_MEASUREMENT_WINDOW_SECONDS = 0.1;
+  /* Enough positions to span the window at 1 ms steps. */
+  private static final int POSITION_HISTORY_CAPACITY = 256;
+
+  private final DrivetrainModel plant;
+  private final DrivePoseEstimator poseEstimator;
+  private final Random random;
+  private final double nominalBatteryVoltage;
+  private final double encoderNoiseMeters;
+  private final double encoderVelocityNoiseMetersPerSecond;
+  private final double gyroNoiseRadians;
+  private final double rateLimit;
+
+  private double leftPercent;
+  private double rightPercent;
+  private double batteryVoltage;
+  private double timeSeconds;
+
+  /* A ring buffer of true wheel positions, for measuring velocity over the window without allocating. */
+  private final double[] historyTimes = new double[POSITION_HISTORY_CAPACITY];
+  private final double[] historyLeft = new double[POSITION_HISTORY_CAPACITY];
+  private final double[] historyRight = new double[POSITION_HISTORY_CAPACITY];
+  private int historyNewest;
+  private int historySize;
+  private double windowLeftMeters;
+  private double windowRightMeters;
+  private double windowSeconds;
+
+  /**
+   * Creates a simulated drivetrain at rest.
+   *
+   * @param startingPose The true starting pose of the drivetrain, which odometry is also reset to
+   * @param nominalBatteryVoltage The unloaded battery voltage
+   * @param encoderNoiseMeters The standard deviation of the noise added to each encoder distance reading
+   * @param gyroNoiseRadians The standard deviation of the noise added to each gyro reading
+   * @param seed The seed for the sensor noise
+   * @param integrator The integration method for the plant
+   * @param substeps The number of integration steps per {@link #update(double)}
+   */
+  public SimulatedDrivetrain(Pose2d startingPose, double nominalBatteryVoltage, double encoderNoiseMeters,
+      double gyroNoiseRadians, long seed, Integrator integrator, int substeps) {
+    this.plant = DrivetrainModel.fromConstants(integrator, substeps);
+    this.plant.setPose(startingPose);
+    this.random = new Random(seed);
+    this.nominalBatteryVoltage = nominalBatteryVoltage;
+    this.batteryVoltage = nominalBatteryVoltage;
+    this.encoderNoiseMeters = encoderNoiseMeters;
+    this.encoderVelocityNoiseMetersPerSecond = encoderNoiseMeters / VELOCITY_MEASUREMENT_WINDOW_SECONDS;
+    this.gyroNoiseRadians = gyroNoiseRadians;
+    this.rateLimit = DriveConstants.ACCELERATION_RATE_LIMIT;
+    this.poseEstimator = new DrivePoseEstimator(DriveConstants.STATE_STD_DEVS, DriveConstants.VISION_STD_DEVS,
+        DriveConstants.POSE_HISTORY_CAPACITY, DriveConstants.POSE_HISTORY_SECONDS);
+    this.poseEstimator.resetPosition(startingPose.getRotation().getRadians(), 0, 0, startingPose.getX(),
+        startingPose.getY(), startingPose.getRotation().getRadians());
+    recordPositions();
+  }
+
+  /**
+   * Creates a simulated drivetrain at rest, integrated with {@link DrivetrainModel#DEFAULT_INTEGRATOR}.
+   *
+   * @param startingPose The true starting pose of the drivetrain, which odometry is also reset to
+   * @param nominalBatteryVoltage The unloaded battery voltage
+   * @param encoderNoiseMeters The standard deviation of the noise added to each encoder distance reading
+   * @param gyroNoiseRadians The standard deviation of the noise added to each gyro reading
+   * @param seed The seed for the sensor noise
+   */
+  public SimulatedDrivetrain(Pose2d startingPose, double nominalBatteryVoltage, double encoderNoiseMeters,
+      double gyroNoiseRadians, long seed) {
+    this(startingPose, nominalBatteryVoltage, encoderNoiseMeters, gyroNoiseRadians, seed,
+        DrivetrainModel.DEFAULT_INTEGRATOR, DrivetrainModel.DEFAULT_SUBSTEPS);
+  }
+
+  /**
+   * Creates a noiseless simulated drivetrain with a nominal 12 V battery.
+   *
+   * @param startingPose The true starting pose of the drivetrain
+   */
+  public SimulatedDrivetrain(Pose2d startingPose) {
+    this(startingPose, 12, 0, 0, 0);
+  }
+
+  /**
+   * Commands the left and right sides with voltages. The output is rate limited and saturates at the present battery
+   * voltage.
+   *
+   * @param leftVolts The commanded left voltage
+   * @param rightVolts The commanded right voltage
+   * @param dtSeconds The time since the last command, used for rate limiting
+   */
+  public void setVoltages(double leftVolts, double rightVolts, double dtSeconds) {
+    double maxChange = rateLimit * dtSeconds;
+    leftPercent += MathUtil.clamp(MathUtil.clamp(leftVolts / batteryVoltage, -1, 1) - leftPercent, -maxChange,
+        maxChange);
+    rightPercent += MathUtil.clamp(MathUtil.clamp(rightVolts / batteryVoltage, -1, 1) - rightPercent, -maxChange,
+        maxChange);
+  }
+
+  /**
+   * Stops both sides immediately, bypassing the rate limit like {@code DampenedMotorController.stopMotor()}.
+   */
+  public void stop() {
+    leftPercent = 0;
+    rightPercent = 0;
+  }
+
+  /**
+   * Advances the plant, the battery and odometry by one step.
+   *
+   * @param dtSeconds The step length in seconds
+   */
+  public void update(double dtSeconds) {
+    plant.setInputs(leftPercent * batteryVoltage, rightPercent * batteryVoltage, batteryVoltage);
+    plant.update(dtSeconds);
+    batteryVoltage = BatterySim.calculateLoadedBatteryVoltage(nominalBatteryVoltage, BATTERY_RESISTANCE_OHMS,
+        plant.getCurrentDrawAmps());
+    timeSeconds += dtSeconds;
+    poseEstimator.update(timeSeconds,
+        plant.getHeadingRadians() + gyroNoiseRadians * random.nextGaussian(),
+        plant.getLeftPositionMeters() + encoderNoiseMeters * random.nextGaussian(),
+        plant.getRightPositionMeters() + encoderNoiseMeters * random.nextGaussian());
+    recordPositions();
+  }
+
+  private void recordPositions() {
+    historyNewest = (historyNewest + 1) % POSITION_HISTORY_CAPACITY;
+    historySize = Math.min(historySize + 1, POSITION_HISTORY_CAPACITY);
+    historyTimes[historyNewest] = timeSeconds;
+    historyLeft[historyNewest] = plant.getLeftPositionMeters();
+    historyRight[historyNewest] = plant.getRightPositionMeters();
+  }
+
+  /**
+   * Finds the wheel positions one velocity window ago, interpolating between recorded steps, and how long ago they
+   * were. Before the first step the drivetrain was at rest; once the history has wrapped, the oldest positions are
+   * used and the window is shorter.
+   */
+  private void findWindowStart() {
+    double startSeconds = timeSeconds - VELOCITY_MEASUREMENT_WINDOW_SECONDS;
+    int index = historyNewest;
+    for (int i = 1; i < historySize; i++) {
+      int older = (index - 1 + POSITION_HISTORY_CAPACITY) % POSITION_HISTORY_CAPACITY;
+      if (historyTimes[older] <= startSeconds) {
+        double fraction = (startSeconds - historyTimes[older]) / (historyTimes[index] - historyTimes[older]);
+        windowLeftMeters = historyLeft[older] + fraction * (historyLeft[index] - historyLeft[older]);
+        windowRightMeters = historyRight[older] + fraction * (historyRight[index] - historyRight[older]);
+        windowSeconds = VELOCITY_MEASUREMENT_WINDOW_SECONDS;
+        return;
+      }
+      index = older;
+    }
+    windowLeftMeters = historyLeft[index];
+    windowRightMeters = historyRight[index];
+    windowSeconds = historySize < POSITION_HISTORY_CAPACITY ? VELOCITY_MEASUREMENT_WINDOW_SECONDS
+        : timeSeconds - historyTimes[index];
+  }
+
+  /**
+   * Returns the true pose of the drivetrain.
+   */
+  public Pose2d getPose() {
+    return plant.getPose();
+  }
+
+  /**
+   * Returns the pose estimated from the noisy sensors.
+   */
+  public Pose2d getEstimatedPose() {
+    return poseEstimator.getEstimatedPosition();
+  }
+
+  /**
+   * Returns the estimator behind {@link #getEstimatedPose()}, stamped with {@link #getTimeSeconds()}, for adding vision
+   * measurements.
+   */
+  public DrivePoseEstimator getPoseEstimator() {
+    return poseEstimator;
+  }
+
+  /**
+   * Returns the wheel speeds as the Talons measure them, averaged over the last 100 ms, including encoder noise.
+   */
+  public DifferentialDriveWheelSpeeds getWheelSpeeds() {
+    findWindowStart();
+    if (windowSeconds <= 0) {
+      return new DifferentialDriveWheelSpeeds(
+          plant.getLeftVelocityMetersPerSecond() + encoderVelocityNoiseMetersPerSecond * random.nextGaussian(),
+          plant.getRightVelocityMetersPerSecond() + encoderVelocityNoiseMetersPerSecond * random.nextGaussian());
+    }
+    return new DifferentialDriveWheelSpeeds(
+        (plant.getLeftPositionMeters() - windowLeftMeters) / windowSeconds
+            + encoderVelocityNoiseMetersPerSecond * random.nextGaussian(),
+        (plant.getRightPositionMeters() - windowRightMeters) / windowSeconds
+            + encoderVelocityNoiseMetersPerSecond * random.nextGaussian());
+  }
+
+  /**
+   * Returns the left wheel position as the encoder reads it, including noise.
+   */
+  public double getLeftPositionMeters() {
+    return plant.getLeftPositionMeters() + encoderNoiseMeters * random.nextGaussian();
+  }
+
+  /**
+   * Returns the right wheel position as the encoder reads it, including noise.
+   */
+  public double getRightPositionMeters() {
+    return plant.getRightPositionMeters() + encoderNoiseMeters * random.nextGaussian();
+  }
+
+  /**
+   * Returns the voltage applied to the left side during the last step.
+   */
+  public double getLeftVolts() {
+    return plant.getLeftVolts();
+  }
+
+  /**
+   * Returns the voltage applied to the right side during the last step.
+   */
+  public double getRightVolts() {
+    return plant.getRightVolts();
+  }
+
+  /**
+   * Returns the time simulated so far.
+   */
+  public double getTimeSeconds() {
+    return timeSeconds;
+  }
+
+  /**
+   * Returns the present loaded battery voltage.
+   */
+  public double getBatteryVoltage() {
+    return batteryVoltage;
+  }
+
+  /**
+   * Returns the current drawn by the drivetrain in amps.
+   */
+  public double getCurrentDrawAmps() {
+    return plant.getCurrentDrawAmps();
+  }
+}
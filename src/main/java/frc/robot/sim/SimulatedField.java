@@ -0,0 +1,168 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.smartdashboard.Field2d;
+import frc.robot.Constants.FieldConstants;
+
+/**
+ * The field shared by several {@link SimulatedDrivetrain}s. It knows where every robot is and measures the traffic
+ * between them: how close robots come to each other and how long the {@link FieldConstants#TRAVELING_WAYPOINTS} are
+ * contested.
+ *
+ * <p>
+ * Robots are treated as circles and pass through each other; contact is counted, not simulated.
+ */
+public class SimulatedField {
+  public static final int MAX_ROBOTS = 6;
+  /* Two bumpered robots touch when their centers are about this close, side to side. */
+  public static final double CONTACT_DISTANCE_METERS = 0.9;
+  public static final double NEAR_MISS_DISTANCE_METERS = 1.5;
+  /* Half the spacing between traveling waypoints. */
+  public static final double WAYPOINT_RADIUS_METERS = 0.3;
+
+  private final List<String> names = new ArrayList<>();
+  private final List<SimulatedDrivetrain> drivetrains = new ArrayList<>();
+  private final double[] x = new double[MAX_ROBOTS];
+  private final double[] y = new double[MAX_ROBOTS];
+  private final double[][] minSeparationMeters = new double[MAX_ROBOTS][MAX_ROBOTS];
+  private final double[] waypointContestedSeconds = new double[FieldConstants.TRAVELING_WAYPOINTS.length];
+  private double contactSeconds;
+  private double nearMissSeconds;
+  private double elapsedSeconds;
+
+  /**
+   * Adds a robot to the field.
+   *
+   * @param name The name shown in reports and on the dashboard
+   * @param drivetrain The robot's drivetrain
+   * @return The robot's index on this field
+   */
+  public int addRobot(String name, SimulatedDrivetrain drivetrain) {
+    if (drivetrains.size() == MAX_ROBOTS) {
+      throw new IllegalStateException("A field holds at most " + MAX_ROBOTS + " robots");
+    }
+    int index = drivetrains.size();
+    names.add(name);
+    drivetrains.add(drivetrain);
+    for (int other = 0; other <= index; other++) {
+      minSeparationMeters[index][other] = Double.POSITIVE_INFINITY;
+      minSeparationMeters[other][index] = Double.POSITIVE_INFINITY;
+    }
+    return index;
+  }
+
+  public int getRobotCount() {
+    return drivetrains.size();
+  }
+
+  public String getName(int robot) {
+    return names.get(robot);
+  }
+
+  /**
+   * Returns the true pose of a robot.
+   */
+  public Pose2d getPose(int robot) {
+    return drivetrains.get(robot).getPose();
+  }
+
+  /**
+   * Samples every robot's position and accumulates the traffic measurements for a tick of the given length. Call once
+   * per tick, after all robots have been stepped.
+   *
+   * @param dtSeconds The length of the tick
+   */
+  public void update(double dtSeconds) {
+    int count = drivetrains.size();
+    for (int robot = 0; robot < count; robot++) {
+      Pose2d pose = drivetrains.get(robot).getPose();
+      x[robot] = pose.getX();
+      y[robot] = pose.getY();
+    }
+
+    boolean contact = false;
+    boolean nearMiss = false;
+    for (int a = 0; a < count; a++) {
+      for (int b = a + 1; b < count; b++) {
+        double separation = Math.hypot(x[a] - x[b], y[a] - y[b]);
+        if (separation < minSeparationMeters[a][b]) {
+          minSeparationMeters[a][b] = separation;
+          minSeparationMeters[b][a] = separation;
+        }
+        contact |= separation < CONTACT_DISTANCE_METERS;
+        nearMiss |= separation < NEAR_MISS_DISTANCE_METERS;
+      }
+    }
+    if (contact) {
+      contactSeconds += dtSeconds;
+    }
+    if (nearMiss) {
+      nearMissSeconds += dtSeconds;
+    }
+
+    for (int waypoint = 0; waypoint < waypointContestedSeconds.length; waypoint++) {
+      Pose2d waypointPose = FieldConstants.TRAVELING_WAYPOINTS[waypoint];
+      int occupants = 0;
+      for (int robot = 0; robot < count; robot++) {
+        if (Math.hypot(x[robot] - waypointPose.getX(), y[robot] - waypointPose.getY()) < WAYPOINT_RADIUS_METERS
+            + CONTACT_DISTANCE_METERS / 2) {
+          occupants++;
+        }
+      }
+      if (occupants > 1) {
+        waypointContestedSeconds[waypoint] += dtSeconds;
+      }
+    }
+    elapsedSeconds += dtSeconds;
+  }
+
+  /**
+   * Shows every robot's true pose as its own object on a dashboard field.
+   *
+   * @param field The field widget to draw on
+   */
+  public void publish(Field2d field) {
+    for (int robot = 0; robot < drivetrains.size(); robot++) {
+      field.getObject(names.get(robot)).setPose(drivetrains.get(robot).getPose());
+    }
+  }
+
+  /**
+   * Returns the closest two robots have come to each other, center to center.
+   */
+  public double getMinSeparationMeters(int robotA, int robotB) {
+    return minSeparationMeters[robotA][robotB];
+  }
+
+  /**
+   * Returns the time during which at least one pair of robots was in contact.
+   */
+  public double getContactSeconds() {
+    return contactSeconds;
+  }
+
+  /**
+   * Returns the time during which at least one pair of robots was closer than {@link #NEAR_MISS_DISTANCE_METERS}.
+   */
+  public double getNearMissSeconds() {
+    return nearMissSeconds;
+  }
+
+  /**
+   * Returns the time during which more than one robot was at the given traveling waypoint.
+   */
+  public double getWaypointContestedSeconds(int waypoint) {
+    return waypointContestedSeconds[waypoint];
+  }
+
+  public double getElapsedSeconds() {
+    return elapsedSeconds;
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.pathplanner.lib.PathPlanner;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import edu.wpi.first.math.trajectory.Trajectory;
+import frc.robot.Constants.PathConstants;
+
+/**
+ * Compares loading every path from PathPlanner JSON against mapping its {@link PackedTrajectory}: the time to load,
+ * the bytes allocated while loading, the heap the loaded trajectories keep, and how far apart their states are.
+ *
+ * <p>
+ * Run packTrajectories first; the benchmarkTrajectoryLoading task does.
+ */
+public class TrajectoryLoadBenchmark {
+  private static final int WARMUP_REPEATS = 5;
+
+  /** Returns the heap in use after collecting garbage as well as {@link System#gc()} can be made to. */
+  private static long usedHeapBytes() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** Reads every field of every state, as a follower eventually would. */
+  private static double touch(PackedTrajectory trajectory) {
+    double sum = 0;
+    for (int state = 0; state < trajectory.getStateCount(); state++) {
+      for (int field = 0; field < PackedTrajectory.FIELDS; field++) {
+        sum += trajectory.get(state, field);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Runs the benchmark and prints a table per path and the totals.
+   *
+   * <p>
+   * Arguments: {@code [--repeats N] [--paths DIRECTORY] [--trajectories DIRECTORY]}.
+   */
+  public static void main(String... args) throws IOException {
+    int repeats = 20;
+    File pathDirectory = new File("src/main/deploy/pathplanner");
+    File trajectoryDirectory = new File(PackedTrajectory.DEFAULT_DIRECTORY);
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--repeats":
+          repeats = Integer.parseInt(args[i + 1]);
+          break;
+        case "--paths":
+          pathDirectory = new File(args[i + 1]);
+          break;
+        case "--trajectories":
+          trajectoryDirectory = new File(args[i + 1]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+
+    File[] paths = pathDirectory.listFiles((dir, name) -> name.endsWith(".path"));
+    if (paths == null || paths.length == 0) {
+      System.out.println("No paths in " + pathDirectory);
+      System.exit(1);
+    }
+    Arrays.sort(paths);
+    List<String> names = new ArrayList<>();
+    for (File path : paths) {
+      names.add(path.getName().substring(0, path.getName().length() - ".path".length()));
+    }
+
+    System.out.printf("%-24s %7s %12s %12s %14s %14s %12s%n", "path", "states", "json (ms)", "packed (ms)",
+        "json (bytes)", "packed (bytes)", "max diff (m)");
+    double jsonMillisTotal = 0;
+    double packedMillisTotal = 0;
+    long jsonBytesTotal = 0;
+    long packedBytesTotal = 0;
+    long fileBytesTotal = 0;
+    double sink = 0;
+    for (String name : names) {
+      File packedFile = new File(trajectoryDirectory, name + PackedTrajectory.EXTENSION);
+      for (int i = 0; i < WARMUP_REPEATS; i++) {
+        sink += PathPlanner.loadPath(name, PathConstants.CONSTRAINTS).getTotalTimeSeconds();
+        sink += touch(PackedTrajectory.open(packedFile));
+      }
+
+      long startBytes = VisionBenchmark.allocatedBytes();
+      long startNanos = System.nanoTime();
+      PathPlannerTrajectory json = null;
+      for (int i = 0; i < repeats; i++) {
+        json = PathPlanner.loadPath(name, PathConstants.CONSTRAINTS);
+      }
+      double jsonMillis = (System.nanoTime() - startNanos) / 1e6 / repeats;
+      long jsonBytes = (VisionBenchmark.allocatedBytes() - startBytes) / repeats;
+
+      startBytes = VisionBenchmark.allocatedBytes();
+      startNanos = System.nanoTime();
+      PackedTrajectory packed = null;
+      for (int i = 0; i < repeats; i++) {
+        packed = PackedTrajectory.open(packedFile);
+        sink += touch(packed);
+      }
+      double packedMillis = (System.nanoTime() - startNanos) / 1e6 / repeats;
+      long packedBytes = (VisionBenchmark.allocatedBytes() - startBytes) / repeats;
+
+      if (!packed.matches(PathConstants.CONSTRAINTS)) {
+        System.out.println(name + " was packed with different constraints; rerun packTrajectories");
+      }
+      double maxDifference = 0;
+      List<Trajectory.State> states = json.getStates();
+      for (int state = 0; state < Math.min(states.size(), packed.getStateCount()); state++) {
+        Trajectory.State expected = states.get(state);
+        maxDifference = Math.max(maxDifference, Math.hypot(
+            expected.poseMeters.getX() - packed.get(state, PackedTrajectory.X),
+            expected.poseMeters.getY() - packed.get(state, PackedTrajectory.Y)));
+      }
+      if (states.size() != packed.getStateCount()) {
+        maxDifference = Double.POSITIVE_INFINITY;
+      }
+
+      System.out.printf("%-24s %7d %12.3f %12.3f %14d %14d %12.2e%n", name, packed.getStateCount(), jsonMillis,
+          packedMillis, jsonBytes, packedBytes, maxDifference);
+      jsonMillisTotal += jsonMillis;
+      packedMillisTotal += packedMillis;
+      jsonBytesTotal += jsonBytes;
+      packedBytesTotal += packedBytes;
+      fileBytesTotal += packed.getSizeBytes();
+    }
+
+    // What each format keeps on the heap once every path is loaded.
+    long baseline = usedHeapBytes();
+    List<PathPlannerTrajectory> jsonTrajectories = new ArrayList<>();
+    for (String name : names) {
+      jsonTrajectories.add(PathPlanner.loadPath(name, PathConstants.CONSTRAINTS));
+    }
+    long jsonRetained = usedHeapBytes() - baseline;
+    baseline = usedHeapBytes();
+    List<PackedTrajectory> packedTrajectories = new ArrayList<>();
+    for (String name : names) {
+      packedTrajectories.add(PackedTrajectory.open(new File(trajectoryDirectory, name + PackedTrajectory.EXTENSION)));
+    }
+    long packedRetained = usedHeapBytes() - baseline;
+    sink += jsonTrajectories.size() + packedTrajectories.size();
+
+    System.out.printf("%-24s %7s %12.3f %12.3f %14d %14d%n", "total", "", jsonMillisTotal, packedMillisTotal,
+        jsonBytesTotal, packedBytesTotal);
+    System.out.printf("heap kept by all paths: json %d bytes, packed %d bytes plus %d bytes mapped%n", jsonRetained,
+        packedRetained, fileBytesTotal);
+    if (Double.isNaN(sink)) {
+      System.out.println();
+    }
+    System.exit(0);
+  }
+}
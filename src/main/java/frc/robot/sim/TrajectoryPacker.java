@@ -0,0 +1,57 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.pathplanner.lib.PathPlanner;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import frc.robot.Constants.PathConstants;
+
+/**
+ * Generates every PathPlanner path with {@link PathConstants#CONSTRAINTS} and writes it as a {@link PackedTrajectory}.
+ * Run by hand with the packTrajectories Gradle task, from the project directory, since PathPlanner reads paths from
+ * the deploy directory by name.
+ */
+public final class TrajectoryPacker {
+  private TrajectoryPacker() {
+  }
+
+  /**
+   * Packs the paths.
+   *
+   * <p>
+   * Arguments: {@code [PATH_DIRECTORY] [OUTPUT_DIRECTORY]}, by default src/main/deploy/pathplanner and
+   * build/trajectories.
+   */
+  public static void main(String... args) throws IOException {
+    File pathDirectory = new File(args.length > 0 ? args[0] : "src/main/deploy/pathplanner");
+    File outputDirectory = new File(args.length > 1 ? args[1] : PackedTrajectory.DEFAULT_DIRECTORY);
+    File[] paths = pathDirectory.listFiles((dir, name) -> name.endsWith(".path"));
+    if (paths == null) {
+      throw new IOException("No path directory at " + pathDirectory);
+    }
+    Arrays.sort(paths);
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+      throw new IOException("Couldn't create " + outputDirectory);
+    }
+    // Paths that were deleted or renamed shouldn't leave their old trajectories behind.
+    PackedTrajectory.deleteAll(outputDirectory);
+
+    for (File path : paths) {
+      String name = path.getName().substring(0, path.getName().length() - ".path".length());
+      PathPlannerTrajectory trajectory = PathPlanner.loadPath(name, PathConstants.CONSTRAINTS);
+      if (trajectory == null) {
+        throw new IOException("Couldn't load path " + name);
+      }
+      File output = new File(outputDirectory, name + PackedTrajectory.EXTENSION);
+      PackedTrajectory.write(trajectory, PathConstants.CONSTRAINTS, output);
+      System.out.printf("%-24s %5d states %8d bytes%n", name, trajectory.getStates().size(), output.length());
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.photonvision.AprilTagFieldModel;
+import frc.robot.photonvision.EstimatedRobotPose;
+import frc.robot.photonvision.PhotonPoseEstimator;
+
+/**
+ * Compares the single-tag pose estimate of {@link PhotonPoseEstimator}, which works on the compiled
+ * {@link AprilTagFieldModel} with precomputed inverse extrinsics, against the {@link Pose3d} and {@link Transform3d}
+ * chain it used before: a layout lookup, two inverses and two transforms per estimate.
+ *
+ * <p>
+ * Both run on the same frames, rendered by {@link SimulatedCamera}s at random poses on the field, and must agree.
+ */
+public class VisionBenchmark {
+  private static final double FIELD_LENGTH_METERS = 16.54;
+  private static final double FIELD_WIDTH_METERS = 8.02;
+  private static final int WARMUP_PASSES = 20;
+
+  /** One frame and the camera that saw it. */
+  private static class Frame {
+    final PhotonPipelineResult result;
+    final int camera;
+
+    Frame(PhotonPipelineResult result, int camera) {
+      this.result = result;
+      this.camera = camera;
+    }
+  }
+
+  /** The estimator as it was: a {@link Pose3d} chain per estimate. */
+  private static Optional<EstimatedRobotPose> legacyEstimate(AprilTagFieldLayout layout, Transform3d robotToCamera,
+      int camera, PhotonPipelineResult result) {
+    PhotonTrackedTarget lowestAmbiguityTarget = null;
+    double lowestAmbiguityScore = 10;
+    for (PhotonTrackedTarget target : result.targets) {
+      double targetPoseAmbiguity = target.getPoseAmbiguity();
+      if (targetPoseAmbiguity != -1 && targetPoseAmbiguity < lowestAmbiguityScore) {
+        lowestAmbiguityScore = targetPoseAmbiguity;
+        lowestAmbiguityTarget = target;
+      }
+    }
+    if (lowestAmbiguityTarget == null) {
+      return Optional.empty();
+    }
+    Optional<Pose3d> targetPosition = layout.getTagPose(lowestAmbiguityTarget.getFiducialId());
+    if (targetPosition.isEmpty()) {
+      return Optional.empty();
+    }
+    Pose2d pose = targetPosition.get()
+        .transformBy(lowestAmbiguityTarget.getBestCameraToTarget().inverse())
+        .transformBy(robotToCamera.inverse()).toPose2d();
+    return Optional.of(new EstimatedRobotPose(pose, result.getTimestampSeconds(), 0, camera));
+  }
+
+  /** Returns the bytes this thread has allocated, or -1 if the JVM can't tell. */
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  /** Runs every frame through an estimator, returning nanoseconds and bytes per estimate. */
+  private static double[] measure(List<Frame> frames, Function<Frame, Optional<EstimatedRobotPose>> estimator,
+      int passes) {
+    long sink = 0;
+    for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+      for (Frame frame : frames) {
+        sink += estimator.apply(frame).isPresent() ? 1 : 0;
+      }
+    }
+    long startBytes = allocatedBytes();
+    long startNanos = System.nanoTime();
+    for (int pass = 0; pass < passes; pass++) {
+      for (Frame frame : frames) {
+        sink += estimator.apply(frame).isPresent() ? 1 : 0;
+      }
+    }
+    long nanos = System.nanoTime() - startNanos;
+    long bytes = allocatedBytes() - startBytes;
+    long estimates = (long) passes * frames.size();
+    if (sink == 0) {
+      System.out.println("No estimates");
+    }
+    return new double[] {(double) nanos / estimates, startBytes < 0 ? Double.NaN : (double) bytes / estimates};
+  }
+
+  /**
+   * Runs the benchmark and prints the time and allocation per estimate before and after, and how far apart they are.
+   *
+   * <p>
+   * Arguments: {@code [--layout PATH] [--frames N] [--passes N] [--seed SEED]}.
+   */
+  public static void main(String... args) throws IOException {
+    String layoutPath = "src/main/deploy/AprilTagLayout/2023-chargedup.json";
+    int frameCount = 2000;
+    int passes = 200;
+    long seed = 0;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--layout":
+          layoutPath = args[i + 1];
+          break;
+        case "--frames":
+          frameCount = Integer.parseInt(args[i + 1]);
+          break;
+        case "--passes":
+          passes = Integer.parseInt(args[i + 1]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+
+    AprilTagFieldLayout layout = new AprilTagFieldLayout(layoutPath);
+    AprilTagFieldModel field = new AprilTagFieldModel(layout, VisionConstants.APRILTAG_SIZE_METERS);
+    Transform3d[] robotToCameras = {
+        VisionConstants.ROBOT_TO_REAR_CAMERA,
+        VisionConstants.ROBOT_TO_FRONT_LEFT_CAMERA,
+        VisionConstants.ROBOT_TO_FRONT_RIGHT_CAMERA,
+    };
+    PhotonPoseEstimator[] estimators = new PhotonPoseEstimator[robotToCameras.length];
+    SimulatedCamera[] cameras = new SimulatedCamera[robotToCameras.length];
+    for (int camera = 0; camera < robotToCameras.length; camera++) {
+      estimators[camera] = new PhotonPoseEstimator(field, null, robotToCameras[camera], camera);
+      cameras[camera] = new SimulatedCamera(field, robotToCameras[camera], seed + camera);
+    }
+
+    Random random = new Random(seed);
+    List<Frame> frames = new ArrayList<>();
+    for (int attempt = 0; frames.size() < frameCount && attempt < 100 * frameCount; attempt++) {
+      double x = random.nextDouble() * FIELD_LENGTH_METERS;
+      double y = random.nextDouble() * FIELD_WIDTH_METERS;
+      double heading = (2 * random.nextDouble() - 1) * Math.PI;
+      int camera = random.nextInt(cameras.length);
+      PhotonPipelineResult result = cameras[camera].capture(x, y, heading, attempt * 0.02);
+      if (result.hasTargets()) {
+        frames.add(new Frame(result, camera));
+      }
+    }
+    if (frames.isEmpty()) {
+      System.out.println("No frames saw a tag");
+      System.exit(1);
+    }
+
+    double maxPositionError = 0;
+    double maxHeadingError = 0;
+    for (Frame frame : frames) {
+      Pose2d before = legacyEstimate(layout, robotToCameras[frame.camera], frame.camera, frame.result).get()
+          .estimatedPose;
+      Pose2d after = estimators[frame.camera].update(frame.result).get().estimatedPose;
+      maxPositionError = Math.max(maxPositionError, before.getTranslation().getDistance(after.getTranslation()));
+      maxHeadingError = Math.max(maxHeadingError,
+          Math.abs(MathUtil.angleModulus(before.getRotation().getRadians() - after.getRotation().getRadians())));
+    }
+
+    double[] before = measure(frames,
+        frame -> legacyEstimate(layout, robotToCameras[frame.camera], frame.camera, frame.result), passes);
+    double[] after = measure(frames, frame -> estimators[frame.camera].update(frame.result), passes);
+
+    System.out.printf("%d frames, %d passes%n", frames.size(), passes);
+    System.out.printf("%-22s %14s %14s%n", "estimator", "ns/estimate", "bytes/estimate");
+    System.out.printf("%-22s %14.1f %14.1f%n", "Pose3d chain", before[0], before[1]);
+    System.out.printf("%-22s %14.1f %14.1f%n", "field model", after[0], after[1]);
+    System.out.printf("max difference: %.3e m, %.3e rad%n", maxPositionError, maxHeadingError);
+    System.exit(0);
+  }
+}
@@ -3,10 +3,14 @@ package frc.robot.subsystems;
 
 import java.util.ArrayList;
 import java.util.List;
+import com.ctre.phoenix.motorcontrol.ControlFrame;
+import com.ctre.phoenix.motorcontrol.DemandType;
 import com.ctre.phoenix.motorcontrol.FeedbackDevice;
 import com.ctre.phoenix.motorcontrol.NeutralMode;
+import com.ctre.phoenix.motorcontrol.StatusFrameEnhanced;
 import com.ctre.phoenix.motorcontrol.StatorCurrentLimitConfiguration;
 import com.ctre.phoenix.motorcontrol.SupplyCurrentLimitConfiguration;
+import com.ctre.phoenix.motorcontrol.TalonFXControlMode;
 import com.ctre.phoenix.motorcontrol.TalonFXInvertType;
 import com.ctre.phoenix.motorcontrol.TalonFXSimCollection;
 import com.ctre.phoenix.motorcontrol.can.TalonFX;
@@ -16,43 +20,62 @@ import com.pathplanner.lib.PathConstraints;
 import com.pathplanner.lib.PathPlanner;
 import com.pathplanner.lib.PathPlannerTrajectory;
 import com.pathplanner.lib.PathPoint;
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.controller.SimpleMotorFeedforward;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Transform2d;
 import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.math.VecBuilder;
-import edu.wpi.first.math.estimator.DifferentialDrivePoseEstimator;
 import edu.wpi.first.math.kinematics.DifferentialDriveOdometry;
 import edu.wpi.first.math.kinematics.DifferentialDriveWheelSpeeds;
-import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.ADXRS450_Gyro;
 import edu.wpi.first.wpilibj.RobotBase;
 import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.SPI;
-import edu.wpi.first.wpilibj.motorcontrol.MotorControllerGroup;
-import edu.wpi.first.wpilibj.simulation.*;
+import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.Field2d;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.Constants.DriveConstants;
 import frc.robot.Constants.PathConstants;
-import frc.robot.Constants.RobotConstants;
+import frc.robot.Constants.VisionConstants;
+import lobstah.stl.io.InputLog;
+import lobstah.stl.io.RateLimitedTrace;
 import lobstah.stl.math.LobstahMath;
 import lobstah.stl.motorcontrol.LobstahDifferentialDrive;
 import frc.robot.photonvision.EstimatedRobotPose;
+import frc.robot.sim.DrivetrainModel;
 
 /**
  * A subsystem that controls the drive train (aka chassis) on a robot.
  */
 public class DriveBase extends SubsystemBase {
+  /* Talon closed-loop gains are in 1023rds of full output per native unit of error. */
+  private static final double TALON_FULL_OUTPUT = 1023;
+  /* Every status frame a TalonFX sends whose period can be set. */
+  private static final StatusFrameEnhanced[] STATUS_FRAMES = {
+      StatusFrameEnhanced.Status_1_General,
+      StatusFrameEnhanced.Status_2_Feedback0,
+      StatusFrameEnhanced.Status_3_Quadrature,
+      StatusFrameEnhanced.Status_4_AinTempVbat,
+      StatusFrameEnhanced.Status_8_PulseWidth,
+      StatusFrameEnhanced.Status_9_MotProfBuffer,
+      StatusFrameEnhanced.Status_10_MotionMagic,
+      StatusFrameEnhanced.Status_12_Feedback1,
+      StatusFrameEnhanced.Status_13_Base_PIDF0,
+      StatusFrameEnhanced.Status_14_Turn_PIDF1,
+      StatusFrameEnhanced.Status_15_FirmareApiStatus,
+      StatusFrameEnhanced.Status_17_Targets1,
+      StatusFrameEnhanced.Status_21_FeedbackIntegrated,
+      StatusFrameEnhanced.Status_Brushless_Current,
+  };
 
   private final WPI_TalonFX leftFrontMotor;
   private final WPI_TalonFX leftBackMotor;
   private final WPI_TalonFX rightFrontMotor;
   private final WPI_TalonFX rightBackMotor;
 
-  private final MotorControllerGroup m_leftMotors;
-  private final MotorControllerGroup m_rightMotors;
 
   private final TalonFXSimCollection simLeftFrontMotor;
   private final TalonFXSimCollection simRightFrontMotor;
@@ -61,55 +84,107 @@ public class DriveBase extends SubsystemBase {
 
   private NeutralMode motorNeutralMode;
 
+  private final SimpleMotorFeedforward feedforward =
+      new SimpleMotorFeedforward(PathConstants.kS, PathConstants.kV, PathConstants.kA);
+  // Only used when the velocity loop runs on the roboRIO.
+  private final PIDController leftVelocityController =
+      new PIDController(PathConstants.kP, PathConstants.kI, PathConstants.KD);
+  private final PIDController rightVelocityController =
+      new PIDController(PathConstants.kP, PathConstants.kI, PathConstants.KD);
+  /* The last cycle's setpoints, which the acceleration is differenced from, and the newest ones. */
+  private double prevLeftSetpoint;
+  private double prevRightSetpoint;
+  private double lastLeftSetpoint;
+  private double lastRightSetpoint;
+  private double lastVelocityCommandSeconds = Double.NEGATIVE_INFINITY;
+  private boolean velocityCommandsContinuous;
+
   private final LobstahDifferentialDrive differentialDrive;
-  private final DifferentialDrivePoseEstimator poseEstimator;
+  private final DrivePoseEstimator poseEstimator;
+  private final WheelOdometryFilter odometryFilter;
+  private final WheelVelocityEstimator velocityEstimator;
+  private final OdometryThread odometry;
+  private final VisionMeasurementFilter visionFilter =
+      new VisionMeasurementFilter(DriveConstants.VISION_STD_DEVS, DriveConstants.STATE_STD_DEVS);
   private final PhotonVision photonVision;
-  private final ADXRS450_Gyro gyro = new ADXRS450_Gyro();
-  private final ADXRS450_GyroSim m_gyroSim;
+  private final DriveIO io;
+  private final DriveIOSim simIO;
+  private final DriveInputs inputs = new DriveInputs();
+  private long lastCanCalls;
+  private volatile DriveState state =
+      new DriveState(new Pose2d(), 0, 0, DriveConstants.KINEMATICS.trackWidthMeters, 0);
+  private final EstimatedRobotPose[] visionPoses = new EstimatedRobotPose[VisionConstants.POSE_QUEUE_CAPACITY];
 
   // These classes help us simulate our drivetrain
-  public DifferentialDrivetrainSim m_drivetrainSimulator;
+  public DrivetrainModel m_drivetrainSimulator;
   // The Field2d class shows the field in the sim GUI
   private final Field2d m_fieldSim;
+  private final RateLimitedTrace simTrace =
+      new RateLimitedTrace("DriveBase sim", DriveConstants.SIM_TRACE_PERIOD_SECONDS, DriveConstants.SIM_TRACE_ENABLED);
 
   /** Creates a new DriveSubsystem. */
   public DriveBase(int leftFrontId, int leftBackId, int rightFrontId, int rightBackId) {
     // We need to invert one side of the drivetrain so that positive voltages
     // result in both sides moving forward. Depending on how your robot's
     // gearbox is constructed, you might have to invert the left side instead.
+    // The front motors lead and the back motors follow them, so each side takes one setpoint.
     leftFrontMotor = new WPI_TalonFX(leftFrontId);
     leftFrontMotor.setInverted(TalonFXInvertType.CounterClockwise);
     leftBackMotor = new WPI_TalonFX(leftBackId);
-    leftBackMotor.setInverted(TalonFXInvertType.CounterClockwise);
+    leftBackMotor.follow(leftFrontMotor);
+    leftBackMotor.setInverted(TalonFXInvertType.FollowMaster);
 
     rightFrontMotor = new WPI_TalonFX(rightFrontId);
     rightFrontMotor.setInverted(TalonFXInvertType.Clockwise);
     rightBackMotor = new WPI_TalonFX(rightBackId);
-    rightBackMotor.setInverted(TalonFXInvertType.Clockwise);
-
-    m_leftMotors = new MotorControllerGroup(leftFrontMotor, leftBackMotor);
-    m_rightMotors = new MotorControllerGroup(rightFrontMotor, rightBackMotor);
+    rightBackMotor.follow(rightFrontMotor);
+    rightBackMotor.setInverted(TalonFXInvertType.FollowMaster);
 
     leftFrontMotor.configSelectedFeedbackSensor(FeedbackDevice.IntegratedSensor);
     leftBackMotor.configSelectedFeedbackSensor(FeedbackDevice.IntegratedSensor);
     rightFrontMotor.configSelectedFeedbackSensor(FeedbackDevice.IntegratedSensor);
     rightBackMotor.configSelectedFeedbackSensor(FeedbackDevice.IntegratedSensor);
-
+    // Talons keep their periods until they power cycle, so this is only the defaults on a fresh boot.
+    SmartDashboard.putNumber("Drive/Default Status Frames Per Second",
+        getStatusFramesPerSecond(leftFrontMotor, leftBackMotor, rightFrontMotor, rightBackMotor));
+    if (DriveConstants.TUNE_STATUS_FRAMES) {
+      configureFrames(leftFrontMotor, true);
+      configureFrames(leftBackMotor, false);
+      configureFrames(rightFrontMotor, true);
+      configureFrames(rightBackMotor, false);
+    }
+    SmartDashboard.putNumber("Drive/Status Frames Per Second",
+        getStatusFramesPerSecond(leftFrontMotor, leftBackMotor, rightFrontMotor, rightBackMotor));
+    configureVelocityLoop(leftFrontMotor);
+    configureVelocityLoop(rightFrontMotor);
 
     setNeutralMode(NeutralMode.Brake);
 
-    differentialDrive =
-        new LobstahDifferentialDrive(
-            new MotorControllerGroup(leftFrontMotor, leftBackMotor),
-            new MotorControllerGroup(rightFrontMotor, rightBackMotor),
-            DriveConstants.ACCELERATION_RATE_LIMIT);
+    if (RobotBase.isSimulation()) {
+      simIO = new DriveIOSim();
+      io = simIO;
+    } else {
+      simIO = null;
+      io = new DriveIOTalonFX(leftFrontMotor, leftBackMotor, rightFrontMotor, rightBackMotor, new ADXRS450_Gyro());
+    }
 
-    poseEstimator =
-        new DifferentialDrivePoseEstimator(DriveConstants.KINEMATICS, gyro.getRotation2d(), 0, 0, new Pose2d());
+    differentialDrive =
+        new LobstahDifferentialDrive(leftFrontMotor, rightFrontMotor, DriveConstants.ACCELERATION_RATE_LIMIT);
+
+    poseEstimator = new DrivePoseEstimator(DriveConstants.STATE_STD_DEVS, DriveConstants.VISION_STD_DEVS,
+        DriveConstants.POSE_HISTORY_CAPACITY, DriveConstants.POSE_HISTORY_SECONDS);
+    io.updateInputs(inputs);
+    odometryFilter = new WheelOdometryFilter(DriveConstants.KINEMATICS.trackWidthMeters,
+        DriveConstants.FOLLOWER_FEEDBACK_STATUS_PERIOD_MS / 1000.0);
+    velocityEstimator = new WheelVelocityEstimator(DriveConstants.kDrivetrainPlant, PathConstants.kS,
+        DriveConstants.VELOCITY_ESTIMATOR_ACCELERATION_STD_DEV, DriveConstants.VELOCITY_ESTIMATOR_POSITION_STD_DEV);
+    odometry = new OdometryThread(poseEstimator, io, odometryFilter, velocityEstimator,
+        DriveConstants.ODOMETRY_PERIOD_SECONDS);
+    // Measured from the encoders' current readings rather than zeroing them; see resetOdometry.
+    odometry.resetPose(0, 0, 0);
 
     this.photonVision = new PhotonVision();
 
-    resetEncoders();
     // m_odometry =
     //     new DifferentialDriveOdometry(
     //         Rotation2d.fromDegrees(getHeading()),
@@ -118,14 +193,10 @@ public class DriveBase extends SubsystemBase {
 
     if (RobotBase.isSimulation()) { // If our robot is simulated
       // This class simulates our drivetrain's motion around the field.
-      m_drivetrainSimulator =
-          new DifferentialDrivetrainSim(
-              DriveConstants.kDrivetrainPlant,
-              DriveConstants.kDriveGearbox,
-              DriveConstants.kDriveGearing,
-              Units.inchesToMeters(RobotConstants.TRACK_WIDTH),
-              Units.inchesToMeters(RobotConstants.WHEEL_RADIUS_INCHES / 2.0),
-              VecBuilder.fill(0, 0, 0.0001, 0.1, 0.1, 0.005, 0.005));
+      m_drivetrainSimulator = DrivetrainModel.fromConstants(DrivetrainModel.DEFAULT_INTEGRATOR,
+          DrivetrainModel.DEFAULT_SUBSTEPS);
+      m_drivetrainSimulator.setMeasurementNoise(DriveConstants.SIM_MEASUREMENT_STD_DEVS,
+          DriveConstants.SIM_MEASUREMENT_SEED);
 
       simLeftBackMotor = new TalonFXSimCollection(leftBackMotor);
       simRightBackMotor = new TalonFXSimCollection(rightBackMotor);
@@ -142,55 +213,147 @@ public class DriveBase extends SubsystemBase {
       simRightBackMotor.setStatorCurrent(DriveConstants.STATOR_CURRENT_LIMIT);
   
 
-      // The encoder and gyro angle sims let us set simulated sensor readings
-      m_gyroSim = new ADXRS450_GyroSim(gyro);
       // the Field2d class lets us visualize our robot in the simulation GUI.
       m_fieldSim = new Field2d();
       SmartDashboard.putData("Field", m_fieldSim);
     } else {
       m_fieldSim = null;
-      m_gyroSim = null;
       simLeftBackMotor = null;
       simLeftFrontMotor = null;
       simRightBackMotor = null;
       simRightFrontMotor = null;
     }
+
+    // Recording and replaying need every sensor read to happen in the main loop, in order.
+    if (!InputLog.isActive()) {
+      odometry.start();
+    }
   }
 
+  /**
+   * Reads this cycle's {@link DriveInputs}, corrects the pose estimate with the cameras and publishes the cycle's
+   * {@link DriveState}. Subsystems run before commands, so every command sees this cycle's state. Odometry samples the
+   * encoders and gyro on the {@link OdometryThread}, or here from this cycle's inputs when it isn't running.
+   */
   @Override
   public void periodic() {
-    // Update the odometry in the periodic block
-    poseEstimator.update(getHeading(), getLeftEncoderDistanceMeters(), getRightEncoderDistanceMeters());
-    m_fieldSim.setRobotPose(getPose());
+    io.updateInputs(inputs);
+    double timestampSeconds = inputs.timestampSeconds;
+    if (!odometry.isRunning()) {
+      odometry.sample(inputs);
+    }
+    int visionCount = photonVision.drainPoses(visionPoses);
+    // This cycle's speeds aren't published yet; last cycle's are close enough to judge motion blur.
+    DriveState lastState = state;
+    synchronized (poseEstimator) {
+      for (int i = 0; i < visionCount; i++) {
+        visionFilter.apply(poseEstimator, visionPoses[i], lastState.linearVelocityMetersPerSecond,
+            lastState.angularVelocityRadiansPerSecond);
+      }
+    }
+    if (visionCount > 0) {
+      odometry.publish();
+      SmartDashboard.putString("PhotonVision Pose", visionPoses[visionCount - 1].estimatedPose.toString());
+      for (int i = 0; i < visionCount; i++) {
+        visionPoses[i] = null;
+      }
+    }
+    SmartDashboard.putNumber("Vision/Accepted", visionFilter.getAcceptedMeasurements());
+    SmartDashboard.putNumber("Vision/Rejected", visionFilter.getRejectedMeasurements());
+    SmartDashboard.putNumber("Vision/Too Old", poseEstimator.getRejectedMeasurements());
+    SmartDashboard.putNumber("Vision/Mahalanobis Distance", visionFilter.getLastMahalanobisDistance());
+    SmartDashboard.putNumber("Odometry/Samples", odometry.getSamples());
+    SmartDashboard.putNumber("Odometry/Overruns", odometry.getOverruns());
+    SmartDashboard.putNumber("Odometry/Period (ms)", odometry.getLastPeriodMillis());
+    SmartDashboard.putNumber("Odometry/Max Jitter (ms)", odometry.getMaxJitterMillis());
+    SmartDashboard.putNumber("Odometry/Duration (ms)", odometry.getLastDurationMillis());
+    SmartDashboard.putNumber("Odometry/Max Duration (ms)", odometry.getMaxDurationMillis());
+    SmartDashboard.putNumber("Odometry/Slip Samples", odometryFilter.getSlipSamples());
+    SmartDashboard.putNumber("Odometry/Encoder Disagreements", odometryFilter.getDisagreementSamples());
+    SmartDashboard.putNumber("Odometry/Left Weight", odometryFilter.getLastLeftWeight());
+    SmartDashboard.putNumber("Odometry/Right Weight", odometryFilter.getLastRightWeight());
+    // Plotted together, the estimate should lead the Talons' averaged velocity by about 50 ms.
+    OdometryThread.Snapshot snapshot = odometry.getSnapshot();
+    SmartDashboard.putNumber("Drive/Left Velocity Estimate (m per s)", snapshot.leftVelocityMetersPerSecond);
+    SmartDashboard.putNumber("Drive/Right Velocity Estimate (m per s)", snapshot.rightVelocityMetersPerSecond);
+    SmartDashboard.putNumber("Drive/Left Talon Velocity (m per s)", inputs.getLeftVelocityMetersPerSecond());
+    SmartDashboard.putNumber("Drive/Right Talon Velocity (m per s)", inputs.getRightVelocityMetersPerSecond());
+    // Counted since the last cycle, so this includes the odometry thread's reads in between.
+    long canCalls = io.getCanCalls();
+    SmartDashboard.putNumber("Drive/CAN Calls Per Loop", canCalls - lastCanCalls);
+    lastCanCalls = canCalls;
+    SmartDashboard.putNumber("Drive/CAN Bus Utilization (%)",
+        RobotController.getCANStatus().percentBusUtilization * 100);
+    SmartDashboard.putNumber("Drive/Feedback Age (ms)", inputs.getMaxFeedbackAgeSeconds() * 1000);
+    SmartDashboard.putNumber("Drive/Current (A)", inputs.getTotalCurrentAmps());
+    SmartDashboard.putNumber("Drive/Max Temperature (C)", inputs.getMaxTemperatureCelsius());
+    publishState(timestampSeconds);
+    if (m_fieldSim != null) {
+      m_fieldSim.setRobotPose(state.pose);
+    }
+  }
+
+  /**
+   * Publishes a new {@link DriveState} with the odometry thread's latest pose and wheel velocities, or this cycle's
+   * Talon velocities if {@link DriveConstants#ESTIMATE_WHEEL_VELOCITY} is off.
+   */
+  private void publishState(double timestampSeconds) {
+    OdometryThread.Snapshot snapshot = odometry.getSnapshot();
+    double leftVelocity = DriveConstants.ESTIMATE_WHEEL_VELOCITY ? snapshot.leftVelocityMetersPerSecond
+        : inputs.getLeftVelocityMetersPerSecond();
+    double rightVelocity = DriveConstants.ESTIMATE_WHEEL_VELOCITY ? snapshot.rightVelocityMetersPerSecond
+        : inputs.getRightVelocityMetersPerSecond();
+    state = new DriveState(snapshot.toPose2d(), leftVelocity, rightVelocity,
+        DriveConstants.KINEMATICS.trackWidthMeters, timestampSeconds);
   }
 
   @Override
   public void simulationPeriodic() {
-    // To update our simulation, we set motor voltage inputs, update the simulation,
-    // and write the simulated positions and velocities to our simulated encoder and gyro.
-    // We negate the right side so that positive voltages make the right side
-    // move forward.
+    // To update our simulation, we read the voltages the simulated Talons apply, whether from a percent output or
+    // their own velocity loop, update the simulation, and hand it to the sim IO. The simulated Talons still get the
+    // positions and velocities, for their velocity loop. The sim collections ignore setInverted, so the right side's
+    // voltage is negated to make positive voltages move it forward.
+    double batteryVoltage = RobotController.getBatteryVoltage();
+    simLeftFrontMotor.setBusVoltage(batteryVoltage);
+    simLeftBackMotor.setBusVoltage(batteryVoltage);
+    simRightFrontMotor.setBusVoltage(batteryVoltage);
+    simRightBackMotor.setBusVoltage(batteryVoltage);
     m_drivetrainSimulator.setInputs(
-        m_leftMotors.get() * RobotController.getBatteryVoltage(),
-        -m_rightMotors.get() * RobotController.getBatteryVoltage());
+        simLeftFrontMotor.getMotorOutputLeadVoltage(),
+        -simRightFrontMotor.getMotorOutputLeadVoltage(),
+        batteryVoltage);
     m_drivetrainSimulator.update(0.020);
-
-    simLeftFrontMotor.setIntegratedSensorRawPosition((int) LobstahMath.distanceToNativeUnits(m_drivetrainSimulator.getLeftPositionMeters()));
-    System.out.println(m_drivetrainSimulator.getLeftVelocityMetersPerSecond());
-    System.out.println(m_drivetrainSimulator.getRightVelocityMetersPerSecond());
-    simLeftBackMotor.setIntegratedSensorRawPosition((int) LobstahMath.distanceToNativeUnits(m_drivetrainSimulator.getLeftPositionMeters()));
-    simRightFrontMotor.setIntegratedSensorRawPosition(-(int) LobstahMath.distanceToNativeUnits(m_drivetrainSimulator.getRightPositionMeters()));
-    simRightBackMotor.setIntegratedSensorRawPosition(-(int) LobstahMath.distanceToNativeUnits(m_drivetrainSimulator.getRightPositionMeters()));
-    simLeftFrontMotor.setIntegratedSensorVelocity((int) LobstahMath.metersPerSecondToFalcon500Velocity(m_drivetrainSimulator.getLeftVelocityMetersPerSecond(), Units.inchesToMeters(3)));
-    simLeftBackMotor.setIntegratedSensorVelocity((int) LobstahMath.metersPerSecondToFalcon500Velocity(m_drivetrainSimulator.getLeftVelocityMetersPerSecond(), Units.inchesToMeters(3)));
-    simRightFrontMotor.setIntegratedSensorVelocity(-(int) LobstahMath.metersPerSecondToFalcon500Velocity(m_drivetrainSimulator.getRightVelocityMetersPerSecond(), Units.inchesToMeters(3)));
-    simRightBackMotor.setIntegratedSensorVelocity(-(int) LobstahMath.metersPerSecondToFalcon500Velocity(m_drivetrainSimulator.getRightVelocityMetersPerSecond(), Units.inchesToMeters(3)));
-    m_gyroSim.setAngle(-m_drivetrainSimulator.getHeading().getDegrees());
+    simIO.update(m_drivetrainSimulator);
+
+    // Each side is converted once, rounding to the nearest count, and written to both of its motors.
+    double leftVelocity = m_drivetrainSimulator.getLeftVelocityMetersPerSecond();
+    double rightVelocity = m_drivetrainSimulator.getRightVelocityMetersPerSecond();
+    int leftPosition =
+        (int) Math.round(LobstahMath.metersToNativeUnits(m_drivetrainSimulator.getLeftPositionMeters()));
+    int rightPosition =
+        -(int) Math.round(LobstahMath.metersToNativeUnits(m_drivetrainSimulator.getRightPositionMeters()));
+    int leftNativeVelocity = (int) Math.round(LobstahMath.velocityMetersPerSecondToNativeUnits(leftVelocity));
+    int rightNativeVelocity = -(int) Math.round(LobstahMath.velocityMetersPerSecondToNativeUnits(rightVelocity));
+
+    simLeftFrontMotor.setIntegratedSensorRawPosition(leftPosition);
+    simLeftBackMotor.setIntegratedSensorRawPosition(leftPosition);
+    simRightFrontMotor.setIntegratedSensorRawPosition(rightPosition);
+    simRightBackMotor.setIntegratedSensorRawPosition(rightPosition);
+    simLeftFrontMotor.setIntegratedSensorVelocity(leftNativeVelocity);
+    simLeftBackMotor.setIntegratedSensorVelocity(leftNativeVelocity);
+    simRightFrontMotor.setIntegratedSensorVelocity(rightNativeVelocity);
+    simRightBackMotor.setIntegratedSensorVelocity(rightNativeVelocity);
+    photonVision.simulationUpdate(m_drivetrainSimulator.getState(DrivetrainModel.X),
+        m_drivetrainSimulator.getState(DrivetrainModel.Y), m_drivetrainSimulator.getState(DrivetrainModel.HEADING));
+
+    if (simTrace.isReady()) {
+      simTrace.println(String.format("left %.3f m/s, right %.3f m/s", leftVelocity, rightVelocity));
+    }
   }
 
   /**
    * Returns the current being drawn by the drivetrain. This works in SIMULATION ONLY! If you want
-   * it to work elsewhere, use the code in {@link DifferentialDrivetrainSim#getCurrentDrawAmps()}
+   * it to work elsewhere, use the code in {@link DrivetrainModel#getCurrentDrawAmps()}
    *
    * @return The drawn current in Amps.
    */
@@ -198,6 +361,28 @@ public class DriveBase extends SubsystemBase {
     return m_drivetrainSimulator.getCurrentDrawAmps();
   }
 
+  /**
+   * Places the simulated drivetrain at the given pose, at rest, and resets the encoders and odometry to match.
+   * This works in SIMULATION ONLY!
+   *
+   * @param pose The pose to place the robot at
+   */
+  public void resetSimulation(Pose2d pose) {
+    m_drivetrainSimulator.setPose(pose);
+    simIO.update(m_drivetrainSimulator);
+    simLeftFrontMotor.setIntegratedSensorRawPosition(0);
+    simLeftBackMotor.setIntegratedSensorRawPosition(0);
+    simRightFrontMotor.setIntegratedSensorRawPosition(0);
+    simRightBackMotor.setIntegratedSensorRawPosition(0);
+    simLeftFrontMotor.setIntegratedSensorVelocity(0);
+    simLeftBackMotor.setIntegratedSensorVelocity(0);
+    simRightFrontMotor.setIntegratedSensorVelocity(0);
+    simRightBackMotor.setIntegratedSensorVelocity(0);
+    resetEncoders();
+    odometry.resetPose(pose.getX(), pose.getY(), pose.getRotation().getRadians());
+    publishState(Timer.getFPGATimestamp());
+  }
+
   /**
    * Toggles the {@link NeutralMode} between Coast and Brake.
    */
@@ -229,35 +414,42 @@ public class DriveBase extends SubsystemBase {
   }
 
   /**
-   * Returns the currently-estimated pose of the robot.
+   * Returns the drivetrain state published at the start of this cycle.
+   */
+  public DriveState getState() {
+    return state;
+  }
+
+  /**
+   * Returns the currently-estimated pose of the robot, as of the start of this cycle.
    *
    * @return The pose.
    */
   public Pose2d getPose() {
-    poseEstimator.update(getHeading(), getLeftEncoderDistanceMeters(), getRightEncoderDistanceMeters());
-    // EstimatedRobotPose estimatedVisionPose = this.photonVision.getCurrentPose();
-    // SmartDashboard.putString("PhotonVision Pose", estimatedVisionPose.estimatedPose.toString());
-    // poseEstimator.addVisionMeasurement(estimatedVisionPose.estimatedPose, estimatedVisionPose.timestampSeconds);
-    try {
-      EstimatedRobotPose estimatedVisionPose = this.photonVision.getCurrentPose();
-      SmartDashboard.putString("PhotonVision Pose", estimatedVisionPose.estimatedPose.toString());
-      poseEstimator.addVisionMeasurement(estimatedVisionPose.estimatedPose,
-          estimatedVisionPose.timestampSeconds);
-    } catch (NullPointerException npe) {
+    return state.pose;
+  }
 
-    }
-    return poseEstimator.getEstimatedPosition();
+  /**
+   * Returns the newest pose estimate from the odometry thread, which may be newer than this cycle's {@link #getPose()}.
+   */
+  public Pose2d getEstimatedPose() {
+    return odometry.getSnapshot().toPose2d();
   }
 
   /**
-   * Returns the current wheel speeds of the robot.
+   * Returns the pose reported by the simulated drivetrain. This works in SIMULATION ONLY!
+   */
+  public Pose2d getSimulatedPose() {
+    return m_drivetrainSimulator.getPose();
+  }
+
+  /**
+   * Returns the wheel speeds of the robot, as of the start of this cycle.
    *
    * @return The current wheel speeds.
    */
   public DifferentialDriveWheelSpeeds getWheelSpeeds() {
-    return new DifferentialDriveWheelSpeeds(
-        LobstahMath.nativeUnitsToVelocityMetersPerSecond(leftFrontMotor.getSelectedSensorVelocity()),
-        LobstahMath.nativeUnitsToVelocityMetersPerSecond(rightFrontMotor.getSelectedSensorVelocity()));
+    return state.wheelSpeeds;
   }
 
   /**
@@ -267,31 +459,36 @@ public class DriveBase extends SubsystemBase {
    * @param rotation The gyro angle to use when creating a {@link Pose2d} to reset the odometry.
    */
   public void resetOdometry(Translation2d translation2d, Rotation2d rotation) {
-    gyro.reset();
-    poseEstimator.resetPosition(new Rotation2d(), 0, 0, new Pose2d(translation2d, rotation));
-    resetEncoders();
+    // The estimator is measured from the sensors' current readings rather than zeroing them, because a zeroed encoder
+    // keeps reading its old position until its next status frame, which the odometry thread would see as a jump.
+    odometry.resetPose(translation2d.getX(), translation2d.getY(), rotation.getRadians());
+    publishState(Timer.getFPGATimestamp());
   }
 
   /** Resets the drive encoders to currently read a position of 0. */
   public void resetEncoders() {
-    leftFrontMotor.setSelectedSensorPosition(0);
-    leftBackMotor.setSelectedSensorPosition(0);
-    rightFrontMotor.setSelectedSensorPosition(0);
-    rightBackMotor.setSelectedSensorPosition(0);
+    io.resetEncoders();
   }
 
   /**
-   * Gets the distance of the left encoder in meters.
+   * Returns this cycle's sensor readings. They are overwritten in place every cycle, so don't keep them.
+   */
+  public DriveInputs getInputs() {
+    return inputs;
+  }
+
+  /**
+   * Gets the distance of the left encoder in meters, as of the start of this cycle.
    */
   public double getLeftEncoderDistanceMeters() {
-    return LobstahMath.nativeUnitsToDistanceMeters(leftFrontMotor.getSelectedSensorPosition()) / 2;
+    return inputs.getLeftDistanceMeters();
   }
 
   /**
-   * Gets the distance of the right encoder in meters.
+   * Gets the distance of the right encoder in meters, as of the start of this cycle.
    */
   public double getRightEncoderDistanceMeters() {
-    return LobstahMath.nativeUnitsToDistanceMeters(rightBackMotor.getSelectedSensorPosition()) / 2;
+    return inputs.getRightDistanceMeters();
   }
 
   /**
@@ -305,7 +502,7 @@ public class DriveBase extends SubsystemBase {
 
   /** Zeroes the gyro value. */
   public void zeroGyro() {
-    gyro.reset();
+    io.zeroGyro();
   }
 
   /**
@@ -319,21 +516,159 @@ public class DriveBase extends SubsystemBase {
   }
 
   /**
-   * Returns the heading of the robot from 180 to -180 degrees in radians.
+   * Drives each side at a wheel velocity, with a feedforward from {@link PathConstants}' kS, kV and kA. With
+   * {@link DriveConstants#ONBOARD_VELOCITY_CONTROL} the velocity and feedforward are sent to the Talons, which close
+   * the loop at 1 kHz on their own encoders; otherwise PathConstants' PID closes it here, once per cycle.
+   *
+   * @param leftMetersPerSecond The left wheel velocity
+   * @param rightMetersPerSecond The right wheel velocity
+   */
+  public void tankDriveVelocity(double leftMetersPerSecond, double rightMetersPerSecond) {
+    double timestampSeconds = Timer.getFPGATimestamp();
+    // Another setpoint in the same cycle replaces the one before it, so both difference from the last cycle's.
+    if (timestampSeconds > lastVelocityCommandSeconds) {
+      // Setpoints from an earlier command say nothing about the acceleration now.
+      velocityCommandsContinuous = timestampSeconds - lastVelocityCommandSeconds < 2 * TimedRobot.kDefaultPeriod;
+      if (!velocityCommandsContinuous) {
+        leftVelocityController.reset();
+        rightVelocityController.reset();
+      }
+      prevLeftSetpoint = lastLeftSetpoint;
+      prevRightSetpoint = lastRightSetpoint;
+      lastVelocityCommandSeconds = timestampSeconds;
+    }
+    lastLeftSetpoint = leftMetersPerSecond;
+    lastRightSetpoint = rightMetersPerSecond;
+    // Differenced over the nominal period: the time between calls jitters, and is 0 on a paused simulation clock.
+    double leftAcceleration = 0;
+    double rightAcceleration = 0;
+    if (velocityCommandsContinuous) {
+      leftAcceleration = (leftMetersPerSecond - prevLeftSetpoint) / TimedRobot.kDefaultPeriod;
+      rightAcceleration = (rightMetersPerSecond - prevRightSetpoint) / TimedRobot.kDefaultPeriod;
+    }
+
+    double leftFeedforwardVolts = feedforward.calculate(leftMetersPerSecond, leftAcceleration);
+    double rightFeedforwardVolts = feedforward.calculate(rightMetersPerSecond, rightAcceleration);
+    if (!DriveConstants.ONBOARD_VELOCITY_CONTROL) {
+      DifferentialDriveWheelSpeeds measured = state.wheelSpeeds;
+      tankDriveVoltage(
+          leftFeedforwardVolts + leftVelocityController.calculate(measured.leftMetersPerSecond, leftMetersPerSecond),
+          rightFeedforwardVolts
+              + rightVelocityController.calculate(measured.rightMetersPerSecond, rightMetersPerSecond));
+      return;
+    }
+    // Arbitrary feedforward is a fraction of the bus voltage, like setVoltage.
+    double batteryVoltage = RobotController.getBatteryVoltage();
+    setVelocity(leftFrontMotor, leftMetersPerSecond, leftFeedforwardVolts / batteryVoltage);
+    setVelocity(rightFrontMotor, rightMetersPerSecond, rightFeedforwardVolts / batteryVoltage);
+    // The motors are driven directly, so tell motor safety they are still being commanded.
+    differentialDrive.feed();
+  }
+
+  /**
+   * Starts the velocity setpoints over from the given wheel velocities, e.g. a new trajectory's initial state, so the
+   * next {@link #tankDriveVelocity(double, double)} takes its acceleration from them instead of from whatever was
+   * commanded before.
+   */
+  public void resetVelocitySetpoints(double leftMetersPerSecond, double rightMetersPerSecond) {
+    prevLeftSetpoint = leftMetersPerSecond;
+    prevRightSetpoint = rightMetersPerSecond;
+    lastLeftSetpoint = leftMetersPerSecond;
+    lastRightSetpoint = rightMetersPerSecond;
+    lastVelocityCommandSeconds = Timer.getFPGATimestamp();
+    velocityCommandsContinuous = true;
+  }
+
+  private static void setVelocity(WPI_TalonFX motor, double metersPerSecond, double feedforwardPercent) {
+    motor.set(TalonFXControlMode.Velocity, LobstahMath.velocityMetersPerSecondToNativeUnits(metersPerSecond),
+        DemandType.ArbitraryFeedForward, feedforwardPercent);
+  }
+
+  /**
+   * Sets how often a motor sends each status frame, by its role. See {@link DriveConstants#TUNE_STATUS_FRAMES}.
+   */
+  private static void configureFrames(WPI_TalonFX motor, boolean leader) {
+    for (StatusFrameEnhanced frame : STATUS_FRAMES) {
+      motor.setStatusFramePeriod(frame, getStatusFramePeriodMs(frame, leader), DriveConstants.CAN_CONFIG_TIMEOUT_MS);
+    }
+    if (leader) {
+      motor.setControlFramePeriod(ControlFrame.Control_3_General, DriveConstants.LEADER_CONTROL_PERIOD_MS);
+    }
+  }
+
+  private static int getStatusFramePeriodMs(StatusFrameEnhanced frame, boolean leader) {
+    switch (frame) {
+      case Status_1_General:
+        return leader ? DriveConstants.LEADER_GENERAL_STATUS_PERIOD_MS
+            : DriveConstants.FOLLOWER_GENERAL_STATUS_PERIOD_MS;
+      case Status_2_Feedback0:
+        // Odometry reads the leaders, so their position should be at least as fresh as its samples.
+        return leader ? (int) Math.round(DriveConstants.ODOMETRY_PERIOD_SECONDS * 1000)
+            : DriveConstants.FOLLOWER_FEEDBACK_STATUS_PERIOD_MS;
+      case Status_Brushless_Current:
+        return DriveConstants.CURRENT_STATUS_PERIOD_MS;
+      case Status_4_AinTempVbat:
+        return DriveConstants.TEMPERATURE_STATUS_PERIOD_MS;
+      default:
+        return DriveConstants.UNUSED_STATUS_PERIOD_MS;
+    }
+  }
+
+  /**
+   * Returns how many status frames the given motors send per second, from the periods they report.
+   */
+  private static double getStatusFramesPerSecond(WPI_TalonFX... motors) {
+    double framesPerSecond = 0;
+    for (WPI_TalonFX motor : motors) {
+      for (StatusFrameEnhanced frame : STATUS_FRAMES) {
+        int periodMs = motor.getStatusFramePeriod(frame, DriveConstants.CAN_CONFIG_TIMEOUT_MS);
+        if (periodMs > 0) {
+          framesPerSecond += 1000.0 / periodMs;
+        }
+      }
+    }
+    return framesPerSecond;
+  }
+
+  /**
+   * Loads PathConstants' PID gains into a Talon's velocity slot, in its units, and ramps its closed loop output at the
+   * same rate {@link LobstahDifferentialDrive} limits percent output.
+   *
+   * <p>
+   * The Talon's error is in native velocity units and its output in 1023ths of full output, and it accumulates the
+   * integral and differences the error once per {@link DriveConstants#ONBOARD_LOOP_PERIOD_SECONDS} loop instead of per
+   * second, so kI is scaled by the loop period and kD divided by it.
+   */
+  private static void configureVelocityLoop(WPI_TalonFX motor) {
+    double perNativeUnit = TALON_FULL_OUTPUT / DriveConstants.NOMINAL_VOLTAGE
+        / LobstahMath.velocityMetersPerSecondToNativeUnits(1);
+    motor.config_kP(DriveConstants.VELOCITY_SLOT, PathConstants.kP * perNativeUnit);
+    motor.config_kI(DriveConstants.VELOCITY_SLOT,
+        PathConstants.kI * perNativeUnit * DriveConstants.ONBOARD_LOOP_PERIOD_SECONDS);
+    motor.config_kD(DriveConstants.VELOCITY_SLOT,
+        PathConstants.KD * perNativeUnit / DriveConstants.ONBOARD_LOOP_PERIOD_SECONDS);
+    // The feedforward is sent with every setpoint.
+    motor.config_kF(DriveConstants.VELOCITY_SLOT, 0);
+    motor.selectProfileSlot(DriveConstants.VELOCITY_SLOT, 0);
+    motor.configClosedloopRamp(1 / DriveConstants.ACCELERATION_RATE_LIMIT);
+  }
+
+  /**
+   * Returns the gyro's heading of the robot, counterclockwise positive, as of the start of this cycle.
    *
    * @return the robot's heading in radians as a Rotation2d.
    */
   public Rotation2d getHeading() {
-    return new Rotation2d(Math.toRadians(gyro.getAngle()));
+    return new Rotation2d(inputs.gyroAngleRadians);
   }
 
   /**
-   * Returns the turn rate of the robot.
+   * Returns the turn rate of the robot, counterclockwise positive, as of the start of this cycle.
    *
    * @return The turn rate of the robot, in degrees per second
    */
   public double getTurnRate() {
-    return gyro.getRate();
+    return Math.toDegrees(inputs.gyroRateRadiansPerSecond);
   }
 
   /**
@@ -349,8 +684,26 @@ public class DriveBase extends SubsystemBase {
    * @return A PathPlannerTrajectory to follow to the target position.
    */
   public PathPlannerTrajectory generatePath(List<Pose2d> waypoints) {
+    return generatePath(this.getPose(), 0, waypoints);
+  }
+
+  /**
+   * Generates a trajectory from the given start through a list of waypoints. Reads nothing from the drivetrain, so it
+   * can run on a background thread.
+   *
+   * @param start The pose to start from
+   * @param startSpeedMetersPerSecond The speed to start at, so a robot already driving forward doesn't have to stop;
+   *          0 or less starts at rest
+   * @param waypoints The waypoints to drive through, ending at the target
+   * @return A PathPlannerTrajectory to follow to the target position.
+   */
+  public PathPlannerTrajectory generatePath(Pose2d start, double startSpeedMetersPerSecond, List<Pose2d> waypoints) {
     ArrayList<PathPoint> pathPoints = new ArrayList<>();
-    pathPoints.add(new PathPoint(this.getPose().getTranslation(), this.getPose().getRotation()));
+    if (startSpeedMetersPerSecond > 0) {
+      pathPoints.add(new PathPoint(start.getTranslation(), start.getRotation(), startSpeedMetersPerSecond));
+    } else {
+      pathPoints.add(new PathPoint(start.getTranslation(), start.getRotation()));
+    }
     for (Pose2d waypoint : waypoints) {
       pathPoints.add(new PathPoint(waypoint.getTranslation(), waypoint.getRotation()));
     }
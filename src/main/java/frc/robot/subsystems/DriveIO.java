@@ -0,0 +1,38 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+/**
+ * The drivetrain's sensors: {@link DriveIOTalonFX} on the robot and {@link DriveIOSim} in simulation. The rest of the
+ * drivetrain reads them only through the {@link DriveInputs} these fill.
+ *
+ * <p>
+ * {@link #updateOdometryInputs(DriveInputs)} is called from the {@link OdometryThread} while the main loop calls the
+ * others, so implementations must be safe to use from both.
+ */
+public interface DriveIO {
+  /**
+   * Reads every sensor into the inputs.
+   */
+  void updateInputs(DriveInputs inputs);
+
+  /**
+   * Reads only what odometry needs, the wheel positions, the applied voltages and the gyro angle, into the inputs. The
+   * other fields are left as they were.
+   */
+  void updateOdometryInputs(DriveInputs inputs);
+
+  /** Makes the encoders read a position of 0. */
+  void resetEncoders();
+
+  /** Makes the gyro read an angle of 0. */
+  void zeroGyro();
+
+  /**
+   * Returns how many calls have been made to the CAN devices so far, from every thread. On the robot each is a call
+   * into the motor controller library; in simulation, the calls the robot would have made.
+   */
+  long getCanCalls();
+}
@@ -0,0 +1,110 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.sim.DrivetrainModel;
+
+/**
+ * Reads the drivetrain's sensors from a {@link DrivetrainModel}.
+ *
+ * <p>
+ * The model is stepped by the main loop, which hands its outputs over with {@link #update(DrivetrainModel)}, so the
+ * odometry thread never reads the model mid-step. Reading the model rather than the simulated Talons means a reset
+ * encoder reads zero right away, instead of after the Talon's next status frame, and feedback is as old as the last
+ * step. Both motors on a side read the same position and velocity and draw half the side's current, and there is no
+ * thermal model.
+ */
+public class DriveIOSim implements DriveIO {
+  /* What the motors read when they haven't been run, and forever in simulation. */
+  private static final double AMBIENT_TEMPERATURE_CELSIUS = 25;
+
+  private double leftPositionMeters;
+  private double rightPositionMeters;
+  private double leftVelocityMetersPerSecond;
+  private double rightVelocityMetersPerSecond;
+  private double leftCurrentAmps;
+  private double rightCurrentAmps;
+  private double leftVolts;
+  private double rightVolts;
+  private double headingRadians;
+  private double angularVelocityRadiansPerSecond;
+  private double leftPositionOffsetMeters;
+  private double rightPositionOffsetMeters;
+  private double headingOffsetRadians;
+  private double updateSeconds;
+  private long canCalls;
+
+  /**
+   * Takes the model's outputs after it has been stepped.
+   */
+  public synchronized void update(DrivetrainModel model) {
+    leftPositionMeters = model.getLeftPositionMeters();
+    rightPositionMeters = model.getRightPositionMeters();
+    leftVelocityMetersPerSecond = model.getLeftVelocityMetersPerSecond();
+    rightVelocityMetersPerSecond = model.getRightVelocityMetersPerSecond();
+    leftCurrentAmps = model.getLeftCurrentDrawAmps();
+    rightCurrentAmps = model.getRightCurrentDrawAmps();
+    leftVolts = model.getLeftVolts();
+    rightVolts = model.getRightVolts();
+    headingRadians = model.getHeadingRadians();
+    angularVelocityRadiansPerSecond = model.getAngularVelocityRadiansPerSecond();
+    updateSeconds = Timer.getFPGATimestamp();
+  }
+
+  @Override
+  public synchronized void updateInputs(DriveInputs inputs) {
+    updateOdometryInputs(inputs);
+    inputs.velocityMetersPerSecond[DriveInputs.LEFT_FRONT] = leftVelocityMetersPerSecond;
+    inputs.velocityMetersPerSecond[DriveInputs.LEFT_BACK] = leftVelocityMetersPerSecond;
+    inputs.velocityMetersPerSecond[DriveInputs.RIGHT_FRONT] = rightVelocityMetersPerSecond;
+    inputs.velocityMetersPerSecond[DriveInputs.RIGHT_BACK] = rightVelocityMetersPerSecond;
+    inputs.currentAmps[DriveInputs.LEFT_FRONT] = leftCurrentAmps / 2;
+    inputs.currentAmps[DriveInputs.LEFT_BACK] = leftCurrentAmps / 2;
+    inputs.currentAmps[DriveInputs.RIGHT_FRONT] = rightCurrentAmps / 2;
+    inputs.currentAmps[DriveInputs.RIGHT_BACK] = rightCurrentAmps / 2;
+    for (int i = 0; i < DriveInputs.MOTORS; i++) {
+      inputs.temperatureCelsius[i] = AMBIENT_TEMPERATURE_CELSIUS;
+      inputs.feedbackAgeSeconds[i] =
+          inputs.velocityMetersPerSecond[i] == 0 ? 0 : inputs.timestampSeconds - updateSeconds;
+    }
+    canCalls += 3 * DriveInputs.MOTORS;
+    inputs.gyroRateRadiansPerSecond = angularVelocityRadiansPerSecond;
+  }
+
+  @Override
+  public synchronized void updateOdometryInputs(DriveInputs inputs) {
+    inputs.timestampSeconds = Timer.getFPGATimestamp();
+    double left = leftPositionMeters - leftPositionOffsetMeters;
+    double right = rightPositionMeters - rightPositionOffsetMeters;
+    inputs.positionMeters[DriveInputs.LEFT_FRONT] = left;
+    inputs.positionMeters[DriveInputs.LEFT_BACK] = left;
+    inputs.positionMeters[DriveInputs.RIGHT_FRONT] = right;
+    inputs.positionMeters[DriveInputs.RIGHT_BACK] = right;
+    inputs.appliedVolts[DriveInputs.LEFT_FRONT] = leftVolts;
+    inputs.appliedVolts[DriveInputs.LEFT_BACK] = leftVolts;
+    inputs.appliedVolts[DriveInputs.RIGHT_FRONT] = rightVolts;
+    inputs.appliedVolts[DriveInputs.RIGHT_BACK] = rightVolts;
+    canCalls += DriveInputs.MOTORS + 2;
+    inputs.gyroAngleRadians = headingRadians - headingOffsetRadians;
+  }
+
+  @Override
+  public synchronized void resetEncoders() {
+    leftPositionOffsetMeters = leftPositionMeters;
+    rightPositionOffsetMeters = rightPositionMeters;
+    canCalls += DriveInputs.MOTORS;
+  }
+
+  @Override
+  public synchronized void zeroGyro() {
+    headingOffsetRadians = headingRadians;
+  }
+
+  @Override
+  public synchronized long getCanCalls() {
+    return canCalls;
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonFX;
+import edu.wpi.first.wpilibj.ADXRS450_Gyro;
+import edu.wpi.first.wpilibj.Timer;
+import lobstah.stl.math.LobstahMath;
+
+/**
+ * Reads the drivetrain's four TalonFXs and its ADXRS450 gyro.
+ *
+ * <p>
+ * The ADXRS450 reads clockwise positive, so its angle and rate are negated to match the counterclockwise positive
+ * headings odometry and WPILib's geometry use.
+ *
+ * <p>
+ * A Talon's reading only changes when its next status frame arrives, so the time since a moving motor's position last
+ * changed is how old its feedback is. The odometry thread reads often enough to see each leader frame arrive.
+ */
+public class DriveIOTalonFX implements DriveIO {
+  private final WPI_TalonFX[] motors;
+  private final ADXRS450_Gyro gyro;
+  private final AtomicLong canCalls = new AtomicLong();
+  /* Written by whichever thread reads a motor, so guarded by this. */
+  private final double[] lastPositions = new double[DriveInputs.MOTORS];
+  private final double[] lastChangeSeconds = new double[DriveInputs.MOTORS];
+
+  /**
+   * Reads the given motors, which must already be inverted so that forward reads positive on both sides.
+   */
+  public DriveIOTalonFX(WPI_TalonFX leftFront, WPI_TalonFX leftBack, WPI_TalonFX rightFront, WPI_TalonFX rightBack,
+      ADXRS450_Gyro gyro) {
+    motors = new WPI_TalonFX[DriveInputs.MOTORS];
+    motors[DriveInputs.LEFT_FRONT] = leftFront;
+    motors[DriveInputs.LEFT_BACK] = leftBack;
+    motors[DriveInputs.RIGHT_FRONT] = rightFront;
+    motors[DriveInputs.RIGHT_BACK] = rightBack;
+    this.gyro = gyro;
+    Arrays.fill(lastPositions, Double.NaN);
+  }
+
+  @Override
+  public void updateInputs(DriveInputs inputs) {
+    double timestampSeconds = Timer.getFPGATimestamp();
+    inputs.timestampSeconds = timestampSeconds;
+    for (int i = 0; i < DriveInputs.MOTORS; i++) {
+      WPI_TalonFX motor = motors[i];
+      inputs.positionMeters[i] = readPosition(i, timestampSeconds);
+      inputs.velocityMetersPerSecond[i] =
+          LobstahMath.nativeUnitsToVelocityMetersPerSecond(motor.getSelectedSensorVelocity());
+      inputs.currentAmps[i] = motor.getSupplyCurrent();
+      inputs.temperatureCelsius[i] = motor.getTemperature();
+      inputs.feedbackAgeSeconds[i] = inputs.velocityMetersPerSecond[i] == 0 ? 0
+          : getFeedbackAgeSeconds(i, timestampSeconds);
+    }
+    canCalls.addAndGet(3 * DriveInputs.MOTORS);
+    readAppliedVolts(inputs);
+    inputs.gyroAngleRadians = -Math.toRadians(gyro.getAngle());
+    inputs.gyroRateRadiansPerSecond = -Math.toRadians(gyro.getRate());
+  }
+
+  @Override
+  public void updateOdometryInputs(DriveInputs inputs) {
+    double timestampSeconds = Timer.getFPGATimestamp();
+    inputs.timestampSeconds = timestampSeconds;
+    for (int i = 0; i < DriveInputs.MOTORS; i++) {
+      inputs.positionMeters[i] = readPosition(i, timestampSeconds);
+    }
+    readAppliedVolts(inputs);
+    inputs.gyroAngleRadians = -Math.toRadians(gyro.getAngle());
+  }
+
+  /**
+   * Reads the leaders' output voltages. The followers apply the same, so they aren't read.
+   */
+  private void readAppliedVolts(DriveInputs inputs) {
+    double left = motors[DriveInputs.LEFT_FRONT].getMotorOutputVoltage();
+    double right = motors[DriveInputs.RIGHT_FRONT].getMotorOutputVoltage();
+    inputs.appliedVolts[DriveInputs.LEFT_FRONT] = left;
+    inputs.appliedVolts[DriveInputs.LEFT_BACK] = left;
+    inputs.appliedVolts[DriveInputs.RIGHT_FRONT] = right;
+    inputs.appliedVolts[DriveInputs.RIGHT_BACK] = right;
+    canCalls.addAndGet(2);
+  }
+
+  private double readPosition(int motor, double timestampSeconds) {
+    double position = LobstahMath.nativeUnitsToDistanceMeters(motors[motor].getSelectedSensorPosition());
+    canCalls.incrementAndGet();
+    synchronized (this) {
+      if (position != lastPositions[motor]) {
+        lastPositions[motor] = position;
+        lastChangeSeconds[motor] = timestampSeconds;
+      }
+    }
+    return position;
+  }
+
+  private synchronized double getFeedbackAgeSeconds(int motor, double timestampSeconds) {
+    // The other thread may have seen a change after this read's timestamp.
+    return Math.max(0, timestampSeconds - lastChangeSeconds[motor]);
+  }
+
+  @Override
+  public void resetEncoders() {
+    for (WPI_TalonFX motor : motors) {
+      motor.setSelectedSensorPosition(0);
+    }
+    canCalls.addAndGet(DriveInputs.MOTORS);
+  }
+
+  @Override
+  public void zeroGyro() {
+    gyro.reset();
+  }
+
+  @Override
+  public long getCanCalls() {
+    return canCalls.get();
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import lobstah.stl.math.LobstahMath;
+
+/**
+ * Everything the drivetrain reads from its hardware in one cycle, filled in place by a {@link DriveIO}.
+ *
+ * <p>
+ * Only primitives and preallocated arrays, so reading the sensors every cycle allocates nothing. The motor arrays are
+ * indexed by {@link #LEFT_FRONT}, {@link #LEFT_BACK}, {@link #RIGHT_FRONT} and {@link #RIGHT_BACK}. Distances and
+ * velocities are the encoders' native units converted with {@link LobstahMath}, positive forward on both sides, and
+ * angles are counterclockwise positive like the rest of WPILib's geometry. The front motors lead their sides.
+ */
+public class DriveInputs {
+  public static final int LEFT_FRONT = 0;
+  public static final int LEFT_BACK = 1;
+  public static final int RIGHT_FRONT = 2;
+  public static final int RIGHT_BACK = 3;
+  public static final int MOTORS = 4;
+
+  public final double[] positionMeters = new double[MOTORS];
+  public final double[] velocityMetersPerSecond = new double[MOTORS];
+  public final double[] currentAmps = new double[MOTORS];
+  public final double[] temperatureCelsius = new double[MOTORS];
+  /* The voltage each motor is applying; the followers apply their leaders'. */
+  public final double[] appliedVolts = new double[MOTORS];
+  /* How long ago each motor's position last changed, as of this read; 0 while it isn't moving. */
+  public final double[] feedbackAgeSeconds = new double[MOTORS];
+  public double gyroAngleRadians;
+  public double gyroRateRadiansPerSecond;
+  public double timestampSeconds;
+
+  /**
+   * Returns the distance the left side has driven, read from its leader.
+   */
+  public double getLeftDistanceMeters() {
+    return positionMeters[LEFT_FRONT];
+  }
+
+  /**
+   * Returns the distance the right side has driven, read from its leader.
+   */
+  public double getRightDistanceMeters() {
+    return positionMeters[RIGHT_FRONT];
+  }
+
+  public double getLeftVelocityMetersPerSecond() {
+    return velocityMetersPerSecond[LEFT_FRONT];
+  }
+
+  public double getRightVelocityMetersPerSecond() {
+    return velocityMetersPerSecond[RIGHT_FRONT];
+  }
+
+  public double getLeftAppliedVolts() {
+    return appliedVolts[LEFT_FRONT];
+  }
+
+  public double getRightAppliedVolts() {
+    return appliedVolts[RIGHT_FRONT];
+  }
+
+  /**
+   * Returns the current drawn by all four motors.
+   */
+  public double getTotalCurrentAmps() {
+    double total = 0;
+    for (int i = 0; i < MOTORS; i++) {
+      total += currentAmps[i];
+    }
+    return total;
+  }
+
+  /**
+   * Returns the age of the staler leader's feedback: the part of the time from a command to seeing its effect that is
+   * spent waiting for a status frame.
+   */
+  public double getMaxFeedbackAgeSeconds() {
+    return Math.max(feedbackAgeSeconds[LEFT_FRONT], feedbackAgeSeconds[RIGHT_FRONT]);
+  }
+
+  /**
+   * Returns the temperature of the hottest motor.
+   */
+  public double getMaxTemperatureCelsius() {
+    double max = temperatureCelsius[0];
+    for (int i = 1; i < MOTORS; i++) {
+      max = Math.max(max, temperatureCelsius[i]);
+    }
+    return max;
+  }
+}
@@ -0,0 +1,257 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Fuses differential drive odometry with delayed vision measurements, like WPILib's DifferentialDrivePoseEstimator,
+ * but with the pose kept as primitives and the history kept in an {@link OdometryHistory}, so steady-state updates and
+ * corrections allocate nothing.
+ *
+ * <p>
+ * Odometry integrates the wheel distances along an arc and takes the heading from the gyro plus an offset. A vision
+ * measurement is compared with the odometry pose interpolated at the measurement's timestamp, and the difference, as
+ * a twist, is scaled by a steady-state Kalman gain per axis. The corrected pose replaces the sample, and every newer
+ * sample is replayed from its recorded wheel distances and gyro angle, so the present estimate includes the correction
+ * and everything that happened since the frame was captured.
+ */
+public class DrivePoseEstimator {
+  private final OdometryHistory history;
+  private final double historySeconds;
+  private final double[] stateVariances = new double[3];
+  private final double[] defaultVisionStdDevs = new double[3];
+  private final double[] sample = new double[OdometryHistory.FIELDS];
+  private final double[] twist = new double[3];
+  private final double[] pose = new double[3];
+
+  private double x;
+  private double y;
+  private double heading;
+  private double gyroOffset;
+  private double lastLeftDistance;
+  private double lastRightDistance;
+  private double lastHeading;
+  private long rejectedMeasurements;
+
+  /**
+   * Creates an estimator at the origin.
+   *
+   * @param stateStdDevs The trust in odometry: standard deviations of x, y and heading
+   * @param visionStdDevs The default trust in vision measurements: standard deviations of x, y and heading
+   * @param historyCapacity The most odometry samples kept
+   * @param historySeconds How far back vision measurements are accepted
+   */
+  public DrivePoseEstimator(double[] stateStdDevs, double[] visionStdDevs, int historyCapacity,
+      double historySeconds) {
+    this.history = new OdometryHistory(historyCapacity);
+    this.historySeconds = historySeconds;
+    for (int i = 0; i < 3; i++) {
+      stateVariances[i] = stateStdDevs[i] * stateStdDevs[i];
+      defaultVisionStdDevs[i] = visionStdDevs[i];
+    }
+  }
+
+  /**
+   * Places the robot at the given pose and forgets the history.
+   *
+   * @param gyroAngleRadians The gyro angle now, counterclockwise positive
+   * @param leftDistanceMeters The left wheel distance now
+   * @param rightDistanceMeters The right wheel distance now
+   * @param poseX The x position
+   * @param poseY The y position
+   * @param poseHeadingRadians The heading
+   */
+  public void resetPosition(double gyroAngleRadians, double leftDistanceMeters, double rightDistanceMeters,
+      double poseX, double poseY, double poseHeadingRadians) {
+    history.clear();
+    x = poseX;
+    y = poseY;
+    heading = poseHeadingRadians;
+    gyroOffset = poseHeadingRadians - gyroAngleRadians;
+    lastLeftDistance = leftDistanceMeters;
+    lastRightDistance = rightDistanceMeters;
+    lastHeading = poseHeadingRadians;
+  }
+
+  /**
+   * Integrates odometry and records the sample.
+   *
+   * @param timestampSeconds The time the sensors were read
+   * @param gyroAngleRadians The gyro angle, counterclockwise positive
+   * @param leftDistanceMeters The left wheel distance
+   * @param rightDistanceMeters The right wheel distance
+   */
+  public void update(double timestampSeconds, double gyroAngleRadians, double leftDistanceMeters,
+      double rightDistanceMeters) {
+    integrate(gyroAngleRadians, leftDistanceMeters, rightDistanceMeters);
+    if (history.size() > 0 && timestampSeconds <= history.getTimestamp(history.size() - 1)) {
+      return;
+    }
+    history.add(timestampSeconds, x, y, heading, leftDistanceMeters, rightDistanceMeters, gyroAngleRadians);
+  }
+
+  private void integrate(double gyroAngleRadians, double leftDistanceMeters, double rightDistanceMeters) {
+    double newHeading = gyroAngleRadians + gyroOffset;
+    double distance = (leftDistanceMeters - lastLeftDistance + rightDistanceMeters - lastRightDistance) / 2;
+    double headingChange = MathUtil.angleModulus(newHeading - lastHeading);
+    pose[0] = x;
+    pose[1] = y;
+    pose[2] = heading;
+    exp(pose, distance, 0, headingChange);
+    x = pose[0];
+    y = pose[1];
+    heading = newHeading;
+    lastLeftDistance = leftDistanceMeters;
+    lastRightDistance = rightDistanceMeters;
+    lastHeading = newHeading;
+  }
+
+  /**
+   * Corrects the estimate with a vision measurement, trusting it as much as the default vision standard deviations.
+   */
+  public void addVisionMeasurement(double visionX, double visionY, double visionHeadingRadians,
+      double timestampSeconds) {
+    addVisionMeasurement(visionX, visionY, visionHeadingRadians, timestampSeconds, defaultVisionStdDevs[0],
+        defaultVisionStdDevs[1], defaultVisionStdDevs[2]);
+  }
+
+  /**
+   * Corrects the estimate with a vision measurement taken in the past.
+   *
+   * @param visionX The measured x position
+   * @param visionY The measured y position
+   * @param visionHeadingRadians The measured heading
+   * @param timestampSeconds The time the measurement was captured, in the same time base as {@link #update}
+   * @param xStdDev The standard deviation of the measured x
+   * @param yStdDev The standard deviation of the measured y
+   * @param headingStdDev The standard deviation of the measured heading
+   * @return False if the measurement was too old or the history was empty
+   */
+  public boolean addVisionMeasurement(double visionX, double visionY, double visionHeadingRadians,
+      double timestampSeconds, double xStdDev, double yStdDev, double headingStdDev) {
+    int size = history.size();
+    if (size == 0 || history.getTimestamp(size - 1) - timestampSeconds > historySeconds
+        || !history.sample(timestampSeconds, sample)) {
+      rejectedMeasurements++;
+      return false;
+    }
+
+    // The twist from the odometry pose at the measurement time to the measurement, scaled by the Kalman gain.
+    log(sample[OdometryHistory.X], sample[OdometryHistory.Y], sample[OdometryHistory.HEADING], visionX, visionY,
+        visionHeadingRadians);
+    pose[0] = sample[OdometryHistory.X];
+    pose[1] = sample[OdometryHistory.Y];
+    pose[2] = sample[OdometryHistory.HEADING];
+    exp(pose, twist[0] * gain(0, xStdDev), twist[1] * gain(1, yStdDev), twist[2] * gain(2, headingStdDev));
+
+    // Replay odometry from the corrected pose through every newer sample.
+    x = pose[0];
+    y = pose[1];
+    heading = pose[2];
+    gyroOffset = heading - sample[OdometryHistory.GYRO_ANGLE];
+    lastLeftDistance = sample[OdometryHistory.LEFT_DISTANCE];
+    lastRightDistance = sample[OdometryHistory.RIGHT_DISTANCE];
+    lastHeading = heading;
+    for (int index = history.floorIndex(timestampSeconds) + 1; index < size; index++) {
+      integrate(history.get(index, OdometryHistory.GYRO_ANGLE), history.get(index, OdometryHistory.LEFT_DISTANCE),
+          history.get(index, OdometryHistory.RIGHT_DISTANCE));
+      history.setPose(index, x, y, heading);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the steady-state Kalman gain for one axis, as WPILib computes it for a pose estimator.
+   */
+  private double gain(int axis, double visionStdDev) {
+    double q = stateVariances[axis];
+    if (q == 0) {
+      return 0;
+    }
+    return q / (q + Math.sqrt(q * visionStdDev * visionStdDev));
+  }
+
+  /**
+   * Writes the twist that moves the start pose to the end pose into {@link #twist}.
+   */
+  private void log(double startX, double startY, double startHeading, double endX, double endY, double endHeading) {
+    double cos = Math.cos(startHeading);
+    double sin = Math.sin(startHeading);
+    double dx = cos * (endX - startX) + sin * (endY - startY);
+    double dy = -sin * (endX - startX) + cos * (endY - startY);
+    double dtheta = MathUtil.angleModulus(endHeading - startHeading);
+    double halfDtheta = dtheta / 2;
+    double cosMinusOne = Math.cos(dtheta) - 1;
+    double halfThetaByTanOfHalfDtheta;
+    if (Math.abs(cosMinusOne) < 1e-9) {
+      halfThetaByTanOfHalfDtheta = 1 - dtheta * dtheta / 12;
+    } else {
+      halfThetaByTanOfHalfDtheta = -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    }
+    twist[0] = halfThetaByTanOfHalfDtheta * dx + halfDtheta * dy;
+    twist[1] = -halfDtheta * dx + halfThetaByTanOfHalfDtheta * dy;
+    twist[2] = dtheta;
+  }
+
+  /**
+   * Moves a pose, stored as x, y and heading, along a twist in its own frame.
+   */
+  private static void exp(double[] pose, double dx, double dy, double dtheta) {
+    double sinTheta = Math.sin(dtheta);
+    double cosTheta = Math.cos(dtheta);
+    double s;
+    double c;
+    if (Math.abs(dtheta) < 1e-9) {
+      s = 1 - dtheta * dtheta / 6;
+      c = dtheta / 2;
+    } else {
+      s = sinTheta / dtheta;
+      c = (1 - cosTheta) / dtheta;
+    }
+    double localX = dx * s - dy * c;
+    double localY = dx * c + dy * s;
+    double cos = Math.cos(pose[2]);
+    double sin = Math.sin(pose[2]);
+    pose[0] += cos * localX - sin * localY;
+    pose[1] += sin * localX + cos * localY;
+    pose[2] += dtheta;
+  }
+
+  public double getX() {
+    return x;
+  }
+
+  public double getY() {
+    return y;
+  }
+
+  /**
+   * Returns the estimated heading in radians, counterclockwise positive, not wrapped.
+   */
+  public double getHeadingRadians() {
+    return heading;
+  }
+
+  /**
+   * Returns the estimated pose.
+   */
+  public Pose2d getEstimatedPosition() {
+    return new Pose2d(x, y, new Rotation2d(heading));
+  }
+
+  /**
+   * Returns the number of vision measurements that were older than the history.
+   */
+  public long getRejectedMeasurements() {
+    return rejectedMeasurements;
+  }
+
+  public OdometryHistory getHistory() {
+    return history;
+  }
+}
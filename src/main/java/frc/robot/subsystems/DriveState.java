@@ -0,0 +1,57 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.DifferentialDriveWheelSpeeds;
+
+/**
+ * An immutable snapshot of the drivetrain's estimated pose and velocity, taken once per robot cycle by
+ * {@link DriveBase#periodic()}. Everything that needs the pose during a cycle reads the same snapshot, so they agree
+ * with each other and nobody pays for another estimator update, CAN read or vision poll.
+ */
+public class DriveState {
+  /** The fused odometry and vision pose. */
+  public final Pose2d pose;
+
+  /** The left side's velocity in meters per second. */
+  public final double leftVelocityMetersPerSecond;
+
+  /** The right side's velocity in meters per second. */
+  public final double rightVelocityMetersPerSecond;
+
+  /** The wheel speeds, for path followers that want them as an object. Don't modify. */
+  public final DifferentialDriveWheelSpeeds wheelSpeeds;
+
+  /** The forward velocity of the robot's center in meters per second. */
+  public final double linearVelocityMetersPerSecond;
+
+  /** The counterclockwise turn rate in radians per second, from the wheel speeds. */
+  public final double angularVelocityRadiansPerSecond;
+
+  /** The FPGA time the sensors were read at. */
+  public final double timestampSeconds;
+
+  /**
+   * Constructs a DriveState.
+   *
+   * @param pose The estimated pose
+   * @param leftVelocityMetersPerSecond The left side's velocity
+   * @param rightVelocityMetersPerSecond The right side's velocity
+   * @param trackWidthMeters The distance between the left and right wheels
+   * @param timestampSeconds The FPGA time the sensors were read at
+   */
+  public DriveState(Pose2d pose, double leftVelocityMetersPerSecond, double rightVelocityMetersPerSecond,
+      double trackWidthMeters, double timestampSeconds) {
+    this.pose = pose;
+    this.leftVelocityMetersPerSecond = leftVelocityMetersPerSecond;
+    this.rightVelocityMetersPerSecond = rightVelocityMetersPerSecond;
+    this.wheelSpeeds = new DifferentialDriveWheelSpeeds(leftVelocityMetersPerSecond, rightVelocityMetersPerSecond);
+    this.linearVelocityMetersPerSecond = (leftVelocityMetersPerSecond + rightVelocityMetersPerSecond) / 2;
+    this.angularVelocityRadiansPerSecond =
+        (rightVelocityMetersPerSecond - leftVelocityMetersPerSecond) / trackWidthMeters;
+    this.timestampSeconds = timestampSeconds;
+  }
+}
@@ -0,0 +1,170 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.MathUtil;
+
+/**
+ * A fixed-capacity ring buffer of odometry samples, stored column by column in primitive arrays so that adding,
+ * looking up and rewriting samples never allocates. When full, each new sample replaces the oldest.
+ *
+ * <p>
+ * Each sample holds a timestamp, the estimated pose (x, y, heading), the wheel distances and the raw gyro angle the
+ * pose was computed from. The gyro angle is what lets {@link DrivePoseEstimator} replay odometry after a correction.
+ * Timestamps must be added in increasing order, so lookups are a binary search.
+ */
+public class OdometryHistory {
+  public static final int X = 0;
+  public static final int Y = 1;
+  public static final int HEADING = 2;
+  public static final int LEFT_DISTANCE = 3;
+  public static final int RIGHT_DISTANCE = 4;
+  public static final int GYRO_ANGLE = 5;
+  public static final int FIELDS = 6;
+
+  private final double[] timestamps;
+  private final double[][] fields = new double[FIELDS][];
+  private final int mask;
+  private int start;
+  private int size;
+
+  /**
+   * Creates an empty history.
+   *
+   * @param capacity The most samples kept, rounded up to a power of two
+   */
+  public OdometryHistory(int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+    }
+    int length = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    timestamps = new double[length];
+    for (int field = 0; field < FIELDS; field++) {
+      fields[field] = new double[length];
+    }
+    mask = length - 1;
+  }
+
+  public int getCapacity() {
+    return timestamps.length;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    start = 0;
+    size = 0;
+  }
+
+  /**
+   * Appends a sample, replacing the oldest one if the history is full.
+   *
+   * @throws IllegalArgumentException If the timestamp isn't after the newest sample's
+   */
+  public void add(double timestampSeconds, double x, double y, double heading, double leftDistance,
+      double rightDistance, double gyroAngle) {
+    if (size > 0 && timestampSeconds <= getTimestamp(size - 1)) {
+      throw new IllegalArgumentException("Odometry samples must be added in time order");
+    }
+    int slot;
+    if (size == timestamps.length) {
+      slot = start;
+      start = (start + 1) & mask;
+    } else {
+      slot = (start + size) & mask;
+      size++;
+    }
+    timestamps[slot] = timestampSeconds;
+    fields[X][slot] = x;
+    fields[Y][slot] = y;
+    fields[HEADING][slot] = heading;
+    fields[LEFT_DISTANCE][slot] = leftDistance;
+    fields[RIGHT_DISTANCE][slot] = rightDistance;
+    fields[GYRO_ANGLE][slot] = gyroAngle;
+  }
+
+  /**
+   * Returns the timestamp of a sample.
+   *
+   * @param index The sample, from 0 for the oldest to {@link #size()} - 1 for the newest
+   */
+  public double getTimestamp(int index) {
+    return timestamps[(start + index) & mask];
+  }
+
+  /**
+   * Returns one field of a sample.
+   *
+   * @param index The sample, from 0 for the oldest to {@link #size()} - 1 for the newest
+   * @param field One of {@link #X}, {@link #Y}, {@link #HEADING}, {@link #LEFT_DISTANCE}, {@link #RIGHT_DISTANCE} or
+   *          {@link #GYRO_ANGLE}
+   */
+  public double get(int index, int field) {
+    return fields[field][(start + index) & mask];
+  }
+
+  /**
+   * Rewrites the pose of a sample, e.g. when replaying odometry after a correction.
+   */
+  public void setPose(int index, double x, double y, double heading) {
+    int slot = (start + index) & mask;
+    fields[X][slot] = x;
+    fields[Y][slot] = y;
+    fields[HEADING][slot] = heading;
+  }
+
+  /**
+   * Returns the newest sample at or before the given time, or -1 if every sample is newer. Binary search.
+   */
+  public int floorIndex(double timestampSeconds) {
+    int low = 0;
+    int high = size - 1;
+    int found = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (getTimestamp(middle) <= timestampSeconds) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Linearly interpolates every field at the given time, taking the heading and gyro angle the short way around.
+   * Times after the newest sample get the newest sample.
+   *
+   * @param timestampSeconds The time to sample at
+   * @param out The array to write the {@link #FIELDS} fields to
+   * @return False if the history is empty or the time is before the oldest sample
+   */
+  public boolean sample(double timestampSeconds, double[] out) {
+    int floor = floorIndex(timestampSeconds);
+    if (floor < 0) {
+      return false;
+    }
+    if (floor == size - 1) {
+      for (int field = 0; field < FIELDS; field++) {
+        out[field] = get(floor, field);
+      }
+      return true;
+    }
+    double t0 = getTimestamp(floor);
+    double fraction = (timestampSeconds - t0) / (getTimestamp(floor + 1) - t0);
+    for (int field = 0; field < FIELDS; field++) {
+      double from = get(floor, field);
+      double delta = get(floor + 1, field) - from;
+      if (field == HEADING || field == GYRO_ANGLE) {
+        delta = MathUtil.angleModulus(delta);
+      }
+      out[field] = from + delta * fraction;
+    }
+    return true;
+  }
+}
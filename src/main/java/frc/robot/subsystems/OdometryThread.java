@@ -0,0 +1,235 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Samples the drive encoders and gyro through a {@link DriveIO} faster than the robot loop, fuses them with a
+ * {@link WheelOdometryFilter} and integrates them into a {@link DrivePoseEstimator}, on its own {@link Notifier}
+ * thread. The fused distances and applied voltages also drive a {@link WheelVelocityEstimator}.
+ *
+ * <p>
+ * The estimator is shared with the main loop, which corrects it with vision, so every access to it, to the filter and
+ * to the velocity estimator is synchronized on the estimator itself. After each sample the pose and wheel velocities
+ * are published as an immutable {@link Snapshot} that any thread can read without locking. The thread also measures
+ * how well it keeps its rate: the time between samples, its deviation from the period (jitter), how long each sample
+ * takes, and how often a sample was late or too slow (an overrun).
+ *
+ * <p>
+ * If the thread isn't started, e.g. while the {@link lobstah.stl.io.InputLog} needs every sensor read in the main loop,
+ * call {@link #sample(DriveInputs)} from the loop instead, with the inputs it read.
+ */
+public class OdometryThread {
+  /* A sample more than this many periods after the last one missed its slot. */
+  private static final double LATE_PERIODS = 1.5;
+
+  /** The estimated pose and wheel velocities as of one odometry sample. */
+  public static class Snapshot {
+    public final double timestampSeconds;
+    public final double x;
+    public final double y;
+    public final double headingRadians;
+    public final double leftVelocityMetersPerSecond;
+    public final double rightVelocityMetersPerSecond;
+
+    public Snapshot(double timestampSeconds, double x, double y, double headingRadians,
+        double leftVelocityMetersPerSecond, double rightVelocityMetersPerSecond) {
+      this.timestampSeconds = timestampSeconds;
+      this.x = x;
+      this.y = y;
+      this.headingRadians = headingRadians;
+      this.leftVelocityMetersPerSecond = leftVelocityMetersPerSecond;
+      this.rightVelocityMetersPerSecond = rightVelocityMetersPerSecond;
+    }
+
+    public Pose2d toPose2d() {
+      return new Pose2d(x, y, new Rotation2d(headingRadians));
+    }
+  }
+
+  private final DrivePoseEstimator estimator;
+  private final DriveIO io;
+  private final WheelOdometryFilter filter;
+  private final WheelVelocityEstimator velocityEstimator;
+  /* The sampling thread's inputs, and ones for resets from the main loop, which may run at the same time. */
+  private final DriveInputs sampleInputs = new DriveInputs();
+  private final DriveInputs resetInputs = new DriveInputs();
+  private final double periodSeconds;
+  private Notifier notifier;
+  private volatile Snapshot snapshot = new Snapshot(0, 0, 0, 0, 0, 0);
+
+  /* Written only by the sampling thread. */
+  private double lastSampleSeconds = Double.NaN;
+  private volatile long samples;
+  private volatile long overruns;
+  private volatile double lastPeriodMillis;
+  private volatile double maxJitterMillis;
+  private volatile double lastDurationMillis;
+  private volatile double maxDurationMillis;
+
+  /**
+   * Creates a sampler. Call {@link #start()} to run it on its own thread.
+   *
+   * @param estimator The estimator to update
+   * @param io Reads the wheel distances and gyro angle
+   * @param filter Fuses the readings into the distances the estimator integrates
+   * @param velocityEstimator Estimates the wheel velocities from the fused distances
+   * @param periodSeconds How often to sample
+   */
+  public OdometryThread(DrivePoseEstimator estimator, DriveIO io, WheelOdometryFilter filter,
+      WheelVelocityEstimator velocityEstimator, double periodSeconds) {
+    this.estimator = estimator;
+    this.io = io;
+    this.filter = filter;
+    this.velocityEstimator = velocityEstimator;
+    this.periodSeconds = periodSeconds;
+    publish();
+  }
+
+  /**
+   * Starts sampling every period on a thread named "Odometry".
+   */
+  public void start() {
+    if (notifier != null) {
+      return;
+    }
+    notifier = new Notifier(this::sample);
+    notifier.setName("Odometry");
+    notifier.startPeriodic(periodSeconds);
+  }
+
+  public boolean isRunning() {
+    return notifier != null;
+  }
+
+  /**
+   * Reads the sensors once, integrates them and publishes the new pose.
+   */
+  public void sample() {
+    sample(sampleInputs, true);
+  }
+
+  /**
+   * Integrates sensor readings the main loop has already taken this cycle and publishes the new pose, for when the
+   * thread isn't running.
+   */
+  public void sample(DriveInputs inputs) {
+    sample(inputs, false);
+  }
+
+  private void sample(DriveInputs inputs, boolean read) {
+    double startSeconds = Timer.getFPGATimestamp();
+    boolean overrun = false;
+    if (!Double.isNaN(lastSampleSeconds)) {
+      double period = startSeconds - lastSampleSeconds;
+      lastPeriodMillis = period * 1000;
+      maxJitterMillis = Math.max(maxJitterMillis, Math.abs(period - periodSeconds) * 1000);
+      overrun = period > LATE_PERIODS * periodSeconds;
+    }
+    lastSampleSeconds = startSeconds;
+
+    // The CAN and SPI reads are the slow part, so they happen outside the lock.
+    if (read) {
+      io.updateOdometryInputs(inputs);
+    }
+    // Stamped with when the sensors were read, which vision fusion looks odometry up by; startSeconds is only for the
+    // rate statistics.
+    synchronized (estimator) {
+      filter.update(inputs);
+      estimator.update(inputs.timestampSeconds, inputs.gyroAngleRadians, filter.getLeftDistanceMeters(),
+          filter.getRightDistanceMeters());
+      velocityEstimator.update(inputs.timestampSeconds, filter.getLeftDistanceMeters(),
+          filter.getRightDistanceMeters(), inputs.getLeftAppliedVolts(), inputs.getRightAppliedVolts());
+      snapshot = createSnapshot(inputs.timestampSeconds);
+    }
+
+    double duration = Timer.getFPGATimestamp() - startSeconds;
+    lastDurationMillis = duration * 1000;
+    maxDurationMillis = Math.max(maxDurationMillis, duration * 1000);
+    if (overrun || duration > periodSeconds) {
+      overruns++;
+    }
+    samples++;
+  }
+
+  /**
+   * Publishes the estimator's current pose, e.g. after a vision correction. The snapshot keeps the time of the newest
+   * odometry sample, since that is the time the pose is for.
+   */
+  public void publish() {
+    synchronized (estimator) {
+      OdometryHistory history = estimator.getHistory();
+      double timestampSeconds =
+          history.size() == 0 ? Timer.getFPGATimestamp() : history.getTimestamp(history.size() - 1);
+      snapshot = createSnapshot(timestampSeconds);
+    }
+  }
+
+  /* Called with the estimator locked. */
+  private Snapshot createSnapshot(double timestampSeconds) {
+    return new Snapshot(timestampSeconds, estimator.getX(), estimator.getY(), estimator.getHeadingRadians(),
+        velocityEstimator.getLeftVelocityMetersPerSecond(), velocityEstimator.getRightVelocityMetersPerSecond());
+  }
+
+  /**
+   * Places the robot at the given pose, measured from the sensors' current readings.
+   */
+  public void resetPose(double x, double y, double headingRadians) {
+    synchronized (estimator) {
+      io.updateOdometryInputs(resetInputs);
+      filter.reset(resetInputs);
+      velocityEstimator.reset(resetInputs.timestampSeconds, filter.getLeftDistanceMeters(),
+          filter.getRightDistanceMeters());
+      estimator.resetPosition(resetInputs.gyroAngleRadians, filter.getLeftDistanceMeters(),
+          filter.getRightDistanceMeters(), x, y, headingRadians);
+      publish();
+    }
+  }
+
+  /**
+   * Returns the newest published pose. Safe to call from any thread.
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  public double getPeriodSeconds() {
+    return periodSeconds;
+  }
+
+  public long getSamples() {
+    return samples;
+  }
+
+  /**
+   * Returns the number of samples that came more than 1.5 periods after the previous one or took longer than a period.
+   */
+  public long getOverruns() {
+    return overruns;
+  }
+
+  public double getLastPeriodMillis() {
+    return lastPeriodMillis;
+  }
+
+  /**
+   * Returns the largest difference between the time between two samples and the period.
+   */
+  public double getMaxJitterMillis() {
+    return maxJitterMillis;
+  }
+
+  public double getLastDurationMillis() {
+    return lastDurationMillis;
+  }
+
+  public double getMaxDurationMillis() {
+    return maxDurationMillis;
+  }
+}
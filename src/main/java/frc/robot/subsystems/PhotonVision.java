@@ -12,16 +12,32 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.Constants.VisionConstants;
+import frc.robot.photonvision.AprilTagFieldModel;
 import frc.robot.photonvision.EstimatedRobotPose;
+import frc.robot.photonvision.MultiTagPoseSolver;
 import frc.robot.photonvision.PhotonPoseEstimator;
+import frc.robot.sim.SimulatedCamera;
+import lobstah.stl.io.InputLog;
+import lobstah.stl.util.RingBuffer;
 
 /**
  * A subsystem that controls the PhotonVision tracking on the robot.
+ *
+ * <p>
+ * Frames from different cameras captured within {@link VisionConstants#FUSION_WINDOW_SECONDS} of each other are solved
+ * together by a {@link MultiTagPoseSolver}, which uses every corner of every tag they see.
  */
 public class PhotonVision extends SubsystemBase {
   private PhotonCamera frontLeftCamera;
@@ -32,7 +48,38 @@ public class PhotonVision extends SubsystemBase {
   private PhotonPoseEstimator frontLeftPoseEstimator;
   private PhotonPoseEstimator frontRightPoseEstimator;
   private List<PhotonPoseEstimator> estimators = new ArrayList<>();
-  private int currentCamera = -1;
+  private List<SimulatedCamera> simulatedCameras = new ArrayList<>();
+  private final AprilTagFieldModel fieldModel;
+  private final MultiTagPoseSolver solver;
+
+  /* Indexed by estimator id. */
+  private static final String[] CAMERA_NAMES = {"Rear", "Front Left", "Front Right"};
+  private final AtomicReferenceArray<PhotonPipelineResult> latestResults =
+      new AtomicReferenceArray<>(CAMERA_NAMES.length);
+  private final CameraStats[] cameraStats = new CameraStats[CAMERA_NAMES.length];
+  private final RingBuffer<EstimatedRobotPose> poseQueue = new RingBuffer<>(VisionConstants.POSE_QUEUE_CAPACITY);
+  private final Notifier visionThread;
+  private volatile long failedSolves;
+  private volatile int lastCameraMask;
+
+  /* Frames waiting to be solved together, indexed by estimator id. Vision thread only. */
+  private final PhotonPipelineResult[] groupResults = new PhotonPipelineResult[CAMERA_NAMES.length];
+  private int groupSize;
+  private double groupCaptureSeconds;
+  private double groupStartSeconds;
+
+  /** Per-camera counters, each written by only one thread. */
+  private static class CameraStats {
+    /* Written by the vision thread. */
+    volatile long dropped;
+    volatile double ingestLatencyMillis;
+    volatile double maxIngestLatencyMillis;
+    /* Written by the main thread. */
+    volatile double appliedLatencyMillis;
+    double framesPerSecond;
+    long windowStartFrames;
+    double windowStartSeconds = Double.NaN;
+  }
 
   /** Constructs a new Photonvision. */
   public PhotonVision() {
@@ -44,51 +91,97 @@ public class PhotonVision extends SubsystemBase {
       this.aprilTagFieldLayout =
           new AprilTagFieldLayout(Filesystem.getDeployDirectory() + "/AprilTagLayout/2023-chargedup.json");
     } catch (IOException io) {
+      DriverStation.reportError("[PhotonVision] Failed to load the AprilTag layout: " + io.getMessage(), false);
     }
 
+    this.fieldModel = new AprilTagFieldModel(aprilTagFieldLayout, VisionConstants.APRILTAG_SIZE_METERS);
+
     this.rearPoseEstimator =
-        new PhotonPoseEstimator(aprilTagFieldLayout, rearCamera,
+        new PhotonPoseEstimator(fieldModel, rearCamera,
             VisionConstants.ROBOT_TO_REAR_CAMERA, 0);
 
     this.frontLeftPoseEstimator =
-        new PhotonPoseEstimator(aprilTagFieldLayout, frontLeftCamera,
+        new PhotonPoseEstimator(fieldModel, frontLeftCamera,
             VisionConstants.ROBOT_TO_FRONT_LEFT_CAMERA, 1);
 
     this.frontRightPoseEstimator =
-        new PhotonPoseEstimator(aprilTagFieldLayout, frontRightCamera,
+        new PhotonPoseEstimator(fieldModel, frontRightCamera,
             VisionConstants.ROBOT_TO_FRONT_RIGHT_CAMERA, 2);
 
     estimators.add(rearPoseEstimator);
     estimators.add(frontLeftPoseEstimator);
     estimators.add(frontRightPoseEstimator);
+
+    Transform3d[] robotToCameras = new Transform3d[CAMERA_NAMES.length];
+    for (PhotonPoseEstimator estimator : estimators) {
+      robotToCameras[estimator.id] = estimator.getRobotToCamera();
+    }
+    this.solver = MultiTagPoseSolver.fromConstants(fieldModel, robotToCameras);
+
+    if (RobotBase.isSimulation()) {
+      for (PhotonPoseEstimator estimator : estimators) {
+        SimulatedCamera simulatedCamera =
+            new SimulatedCamera(fieldModel, estimator.getRobotToCamera(), estimator.id);
+        estimator.setResultSource(simulatedCamera::getLatestResult);
+        simulatedCameras.add(simulatedCamera);
+      }
+    }
+
+    for (int camera = 0; camera < CAMERA_NAMES.length; camera++) {
+      latestResults.set(camera, new PhotonPipelineResult());
+      cameraStats[camera] = new CameraStats();
+    }
+    // Recording and replaying need every camera read to happen in the main loop, in order.
+    if (InputLog.isActive()) {
+      visionThread = null;
+    } else {
+      visionThread = new Notifier(this::pollCameras);
+      visionThread.setName("PhotonVision");
+      visionThread.startPeriodic(VisionConstants.POLL_PERIOD_SECONDS);
+    }
+  }
+
+  /**
+   * Moves the simulated cameras to the given true robot pose and captures any frames that are due. This works in
+   * SIMULATION ONLY!
+   *
+   * @param x The true robot x position on the field
+   * @param y The true robot y position on the field
+   * @param headingRadians The true robot heading
+   */
+  public void simulationUpdate(double x, double y, double headingRadians) {
+    double nowSeconds = Timer.getFPGATimestamp();
+    for (SimulatedCamera simulatedCamera : simulatedCameras) {
+      simulatedCamera.update(x, y, headingRadians, nowSeconds);
+    }
   }
 
   /**
    * Returns the latest camera result from the front left camera.
    */
   public PhotonPipelineResult getFrontLeftLatestResult() {
-    return frontLeftCamera.getLatestResult();
+    return latestResults.get(frontLeftPoseEstimator.id);
   }
 
   /**
    * Returns the latest camera result from the front right camera.
    */
   public PhotonPipelineResult getFrontRightLatestResult() {
-    return frontRightCamera.getLatestResult();
+    return latestResults.get(frontRightPoseEstimator.id);
   }
 
   /**
    * Returns the latest camera result from the rear camera.
    */
   public PhotonPipelineResult getRearLatestResult() {
-    return rearCamera.getLatestResult();
+    return latestResults.get(rearPoseEstimator.id);
   }
 
   /**
    * Returns a List of the visible AprilTags from the front camera.
    */
   public List<PhotonTrackedTarget> getFrontTargets() {
-    List<PhotonTrackedTarget> targets = this.getFrontRightLatestResult().getTargets();
+    List<PhotonTrackedTarget> targets = new ArrayList<>(this.getFrontRightLatestResult().getTargets());
     targets.addAll(this.getFrontLeftLatestResult().getTargets());
     return targets;
   }
@@ -115,48 +208,151 @@ public class PhotonVision extends SubsystemBase {
   }
 
   /**
-   * Returns a list of estimated robot poses from the three {@link PhotonPoseEstimator}.
+   * Reads every camera once and groups new frames captured at about the same time. Runs on the vision thread, or on the
+   * main thread when the {@link InputLog} is active.
    */
-  public List<EstimatedRobotPose> getGlobalPoses() {
-    List<EstimatedRobotPose> poses = new ArrayList<>();
-
+  private void pollCameras() {
+    double nowSeconds = Timer.getFPGATimestamp();
     for (PhotonPoseEstimator estimator : estimators) {
-      Optional<EstimatedRobotPose> result = estimator.update();
-      if (result.isPresent()) {
-        poses.add(result.get());
+      PhotonPipelineResult result = estimator.getLatestResult();
+      latestResults.set(estimator.id, result);
+      if (!estimator.consumeFrame(result)) {
+        continue;
+      }
+      CameraStats stats = cameraStats[estimator.id];
+      double captureSeconds = result.getTimestampSeconds();
+      double latencyMillis = (nowSeconds - captureSeconds) * 1000;
+      stats.ingestLatencyMillis = latencyMillis;
+      stats.maxIngestLatencyMillis = Math.max(stats.maxIngestLatencyMillis, latencyMillis);
+
+      if (groupSize > 0 && (groupResults[estimator.id] != null
+          || Math.abs(captureSeconds - groupCaptureSeconds) > VisionConstants.FUSION_WINDOW_SECONDS)) {
+        solveGroup();
+      }
+      if (groupSize == 0) {
+        groupCaptureSeconds = captureSeconds;
+        groupStartSeconds = nowSeconds;
       }
+      groupResults[estimator.id] = result;
+      groupSize++;
+    }
+    // Wait a little for the other cameras' frames of the same moment, but no longer than the window.
+    if (groupSize > 0 && (groupSize == estimators.size()
+        || nowSeconds - groupStartSeconds >= VisionConstants.FUSION_WINDOW_SECONDS)) {
+      solveGroup();
     }
-    return poses;
   }
 
   /**
-   * Estimates the global field pose based on a selected {@link PhotonPoseEstimator}.
+   * Solves one pose from every tag in the grouped frames and queues it.
    */
-  public EstimatedRobotPose getCurrentPose() {
-    double bestConfidence = 0;
-    EstimatedRobotPose bestPose = null;
-    int bestId = -1;
+  private void solveGroup() {
+    solver.reset();
+    EstimatedRobotPose initialPose = null;
+    int cameraMask = 0;
+    int frames = 0;
+    double captureSecondsSum = 0;
+    int tags = 0;
+    double tagDistanceSum = 0;
     for (PhotonPoseEstimator estimator : estimators) {
-      Optional<EstimatedRobotPose> result = estimator.update();
-      if (result.isPresent()) {
-        EstimatedRobotPose pose = result.get();
-        if (estimator.id == currentCamera && pose.confidence > VisionConstants.MAINTAIN_CAMERA_CONFIDENCE_THRESHOLD) {
-          return pose;
+      PhotonPipelineResult result = groupResults[estimator.id];
+      groupResults[estimator.id] = null;
+      if (result == null || solver.addResult(estimator.id, result) == 0) {
+        continue;
+      }
+      cameraMask |= 1 << estimator.id;
+      frames++;
+      captureSecondsSum += result.getTimestampSeconds();
+      List<PhotonTrackedTarget> targets = result.getTargets();
+      for (int i = 0; i < targets.size(); i++) {
+        PhotonTrackedTarget target = targets.get(i);
+        if (fieldModel.hasTag(target.getFiducialId())) {
+          tags++;
+          tagDistanceSum += target.getBestCameraToTarget().getTranslation().getNorm();
         }
-        if (pose.confidence > bestConfidence) {
-          bestConfidence = pose.confidence;
-          bestPose = pose;
-          bestId = estimator.id;
+      }
+      // The best single-tag estimate starts the solve.
+      Optional<EstimatedRobotPose> singleTagPose = estimator.update(result);
+      if (singleTagPose.isPresent()
+          && (initialPose == null || singleTagPose.get().confidence > initialPose.confidence)) {
+        initialPose = singleTagPose.get();
+      }
+    }
+    groupSize = 0;
+    // A lone ambiguous tag may start the solve on the wrong side of it; those were never used before either.
+    if (initialPose == null || (solver.getTagCount() == 1 && initialPose.confidence == 0)) {
+      return;
+    }
+
+    Pose2d initial = initialPose.estimatedPose;
+    if (!solver.solve(initial.getX(), initial.getY(), initial.getRotation().getRadians())
+        || solver.getRmsErrorPixels() > VisionConstants.MAX_REPROJECTION_ERROR_PIXELS) {
+      failedSolves++;
+      return;
+    }
+    // Several tags leave no ambiguity; a lone tag's is that of its single-tag estimate.
+    boolean multiTag = solver.getTagCount() > 1;
+    EstimatedRobotPose pose = new EstimatedRobotPose(solver.getPose(), captureSecondsSum / frames,
+        multiTag ? 1 : initialPose.confidence, cameraMask, solver.getTagCount(), solver.copyCovariance(),
+        tagDistanceSum / tags, multiTag ? 0 : initialPose.ambiguity);
+    if (!poseQueue.offer(pose)) {
+      for (int camera = 0; camera < cameraStats.length; camera++) {
+        if (pose.usesCamera(camera)) {
+          cameraStats[camera].dropped++;
         }
       }
     }
-    currentCamera = bestId;
-    SmartDashboard.putString("Vision Pose", bestPose.toString());
-    return bestPose;
+  }
+
+  /**
+   * Moves the poses solved since the last call into the given array, oldest first. Call once per cycle.
+   *
+   * @param poses The array to fill
+   * @return The number of poses written
+   */
+  public int drainPoses(EstimatedRobotPose[] poses) {
+    if (visionThread == null) {
+      pollCameras();
+    }
+    double nowSeconds = Timer.getFPGATimestamp();
+    int count = 0;
+    EstimatedRobotPose pose;
+    while (count < poses.length && (pose = poseQueue.poll()) != null) {
+      for (int camera = 0; camera < cameraStats.length; camera++) {
+        if (pose.usesCamera(camera)) {
+          cameraStats[camera].appliedLatencyMillis = (nowSeconds - pose.timestampSeconds) * 1000;
+        }
+      }
+      lastCameraMask = pose.cameraMask;
+      poses[count++] = pose;
+    }
+    return count;
   }
 
   @Override
   public void periodic() {
-    SmartDashboard.putNumber("Current Camera Used:", currentCamera);
+    SmartDashboard.putNumber("Vision/Cameras Used", lastCameraMask);
+    SmartDashboard.putNumber("Vision/Failed Solves", failedSolves);
+    double nowSeconds = Timer.getFPGATimestamp();
+    for (PhotonPoseEstimator estimator : estimators) {
+      CameraStats stats = cameraStats[estimator.id];
+      long frames = estimator.getFrameSequence();
+      if (Double.isNaN(stats.windowStartSeconds)) {
+        stats.windowStartSeconds = nowSeconds;
+        stats.windowStartFrames = frames;
+      } else if (nowSeconds - stats.windowStartSeconds >= VisionConstants.FRAME_RATE_WINDOW_SECONDS) {
+        stats.framesPerSecond = (frames - stats.windowStartFrames) / (nowSeconds - stats.windowStartSeconds);
+        stats.windowStartSeconds = nowSeconds;
+        stats.windowStartFrames = frames;
+      }
+      String prefix = "Vision/" + CAMERA_NAMES[estimator.id] + "/";
+      SmartDashboard.putNumber(prefix + "Frames", frames);
+      SmartDashboard.putNumber(prefix + "Unique FPS", stats.framesPerSecond);
+      SmartDashboard.putNumber(prefix + "Duplicates Suppressed", estimator.getDuplicateFrames());
+      SmartDashboard.putNumber(prefix + "Dropped", stats.dropped);
+      SmartDashboard.putNumber(prefix + "Ingest Latency (ms)", stats.ingestLatencyMillis);
+      SmartDashboard.putNumber(prefix + "Max Ingest Latency (ms)", stats.maxIngestLatencyMillis);
+      SmartDashboard.putNumber(prefix + "Applied Latency (ms)", stats.appliedLatencyMillis);
+    }
   }
 }
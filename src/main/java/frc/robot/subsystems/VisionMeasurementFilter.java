@@ -0,0 +1,136 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.photonvision.EstimatedRobotPose;
+
+/**
+ * Decides how much to trust each vision measurement before it reaches the {@link DrivePoseEstimator}, and drops the
+ * ones that disagree too much with odometry.
+ *
+ * <p>
+ * The standard deviations grow with the distance to the tags, the pose ambiguity and the robot's speed, and shrink with
+ * the number of tags. A fused solve's own covariance is used instead when it is larger. The measurement is then
+ * compared with the odometry pose at the time the frame was captured: if the squared Mahalanobis distance, with each
+ * axis weighted by the odometry and measurement variances, is above {@link VisionConstants#GATE_CHI_SQUARED}, the
+ * measurement is rejected. So that a bad reset or a collision can't lock vision out for good, a measurement is accepted
+ * regardless after {@link VisionConstants#MAX_CONSECUTIVE_REJECTIONS} rejections in a row.
+ */
+public class VisionMeasurementFilter {
+  private final double[] baseStdDevs = new double[3];
+  private final double[] stateVariances = new double[3];
+  private final double[] stdDevs = new double[3];
+  private final double[] sample = new double[OdometryHistory.FIELDS];
+
+  private long acceptedMeasurements;
+  private long rejectedMeasurements;
+  private int consecutiveRejections;
+  private double lastMahalanobisDistance;
+
+  /**
+   * Creates a filter.
+   *
+   * @param visionStdDevs The standard deviations of x, y and heading of a close, unambiguous, single-tag measurement
+   *          taken standing still
+   * @param stateStdDevs The pose estimator's trust in odometry: standard deviations of x, y and heading
+   */
+  public VisionMeasurementFilter(double[] visionStdDevs, double[] stateStdDevs) {
+    for (int i = 0; i < 3; i++) {
+      baseStdDevs[i] = visionStdDevs[i];
+      stateVariances[i] = stateStdDevs[i] * stateStdDevs[i];
+    }
+  }
+
+  /**
+   * Weighs a measurement and, unless it is gated out, adds it to the estimator.
+   *
+   * @param estimator The estimator to correct
+   * @param measurement The vision measurement
+   * @param speedMetersPerSecond The robot's linear speed
+   * @param angularSpeedRadiansPerSecond The robot's angular speed
+   * @return Whether the estimator took the measurement
+   */
+  public boolean apply(DrivePoseEstimator estimator, EstimatedRobotPose measurement, double speedMetersPerSecond,
+      double angularSpeedRadiansPerSecond) {
+    computeStdDevs(measurement, speedMetersPerSecond, angularSpeedRadiansPerSecond);
+    Pose2d pose = measurement.estimatedPose;
+    double x = pose.getX();
+    double y = pose.getY();
+    double heading = pose.getRotation().getRadians();
+
+    // Measurements older than the history are left for the estimator to reject and count.
+    if (estimator.getHistory().sample(measurement.timestampSeconds, sample)) {
+      double dx = x - sample[OdometryHistory.X];
+      double dy = y - sample[OdometryHistory.Y];
+      double dheading = MathUtil.angleModulus(heading - sample[OdometryHistory.HEADING]);
+      double distanceSquared = dx * dx / (stateVariances[0] + stdDevs[0] * stdDevs[0])
+          + dy * dy / (stateVariances[1] + stdDevs[1] * stdDevs[1])
+          + dheading * dheading / (stateVariances[2] + stdDevs[2] * stdDevs[2]);
+      lastMahalanobisDistance = Math.sqrt(distanceSquared);
+      if (distanceSquared > VisionConstants.GATE_CHI_SQUARED
+          && consecutiveRejections < VisionConstants.MAX_CONSECUTIVE_REJECTIONS) {
+        consecutiveRejections++;
+        rejectedMeasurements++;
+        return false;
+      }
+    }
+
+    if (!estimator.addVisionMeasurement(x, y, heading, measurement.timestampSeconds, stdDevs[0], stdDevs[1],
+        stdDevs[2])) {
+      return false;
+    }
+    consecutiveRejections = 0;
+    acceptedMeasurements++;
+    return true;
+  }
+
+  private void computeStdDevs(EstimatedRobotPose measurement, double speedMetersPerSecond,
+      double angularSpeedRadiansPerSecond) {
+    double distance = Double.isNaN(measurement.averageTagDistanceMeters) ? 0 : measurement.averageTagDistanceMeters;
+    double ambiguity = Double.isNaN(measurement.ambiguity) ? 0 : measurement.ambiguity;
+    double scale = (1 + VisionConstants.DISTANCE_STD_DEV_SCALE * distance * distance)
+        * (1 + VisionConstants.AMBIGUITY_STD_DEV_SCALE * ambiguity)
+        * (1 + VisionConstants.SPEED_STD_DEV_SCALE * Math.abs(speedMetersPerSecond))
+        * (1 + VisionConstants.ANGULAR_SPEED_STD_DEV_SCALE * Math.abs(angularSpeedRadiansPerSecond))
+        / Math.sqrt(Math.max(1, measurement.tagCount));
+    for (int axis = 0; axis < 3; axis++) {
+      stdDevs[axis] = baseStdDevs[axis] * scale;
+      if (measurement.covariance != null) {
+        stdDevs[axis] = Math.max(stdDevs[axis], measurement.getStdDev(axis));
+      }
+    }
+  }
+
+  /**
+   * Returns the standard deviation used for the last measurement.
+   *
+   * @param axis 0, 1 or 2 for x, y or heading
+   */
+  public double getLastStdDev(int axis) {
+    return stdDevs[axis];
+  }
+
+  /**
+   * Returns the Mahalanobis distance of the last measurement that could be compared with odometry.
+   */
+  public double getLastMahalanobisDistance() {
+    return lastMahalanobisDistance;
+  }
+
+  public long getAcceptedMeasurements() {
+    return acceptedMeasurements;
+  }
+
+  /**
+   * Returns the number of measurements the gate rejected. Measurements too old for the estimator are counted by
+   * {@link DrivePoseEstimator#getRejectedMeasurements()} instead.
+   */
+  public long getRejectedMeasurements() {
+    return rejectedMeasurements;
+  }
+}
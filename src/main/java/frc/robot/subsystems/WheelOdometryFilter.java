@@ -0,0 +1,161 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.MathUtil;
+import frc.robot.Constants.DriveConstants;
+
+/**
+ * Turns all four encoders and the gyro into the left and right distances odometry integrates, trusting a side less
+ * when its wheels slip or its encoders disagree.
+ *
+ * <p>
+ * Each sample, each side's change in distance, with the gyro's change in heading, implies how far the robot's center
+ * moved: the left side's change plus, or the right side's minus, half the track width times the heading change. With
+ * both sides trusted equally their average is the usual differential drive distance. When they disagree by more than
+ * {@link DriveConstants#SLIP_THRESHOLD_METERS_PER_SECOND} allows, the side whose estimate is further from the center's
+ * recent velocity is taken to be slipping, and its weight falls with the square of the disagreement. Each side's
+ * leader is also checked against its follower, whose feedback is staler; a side whose two encoders disagree is
+ * weighted by {@link DriveConstants#ENCODER_DISAGREEMENT_WEIGHT}. The weighted center distance is split back into
+ * left and right distances that agree with the gyro, so the {@link DrivePoseEstimator} moves the robot as far as the
+ * trusted side says.
+ *
+ * <p>
+ * Not thread-safe; the {@link OdometryThread} uses it under the estimator's lock.
+ */
+public class WheelOdometryFilter {
+  private final double halfTrackWidthMeters;
+  private final double followerLagSeconds;
+
+  private double leftDistance;
+  private double rightDistance;
+  private double lastLeftLeader;
+  private double lastRightLeader;
+  private double leftFollowerOffset;
+  private double rightFollowerOffset;
+  private double lastGyroAngle;
+  private double lastTimestamp;
+  private double centerVelocity;
+
+  private volatile long slipSamples;
+  private volatile long disagreementSamples;
+  private volatile double lastLeftWeight = 1;
+  private volatile double lastRightWeight = 1;
+
+  /**
+   * Creates a filter for a drivetrain.
+   *
+   * @param trackWidthMeters The distance between the left and right wheels
+   * @param followerLagSeconds How much staler the followers' positions may be than the leaders'
+   */
+  public WheelOdometryFilter(double trackWidthMeters, double followerLagSeconds) {
+    this.halfTrackWidthMeters = trackWidthMeters / 2;
+    this.followerLagSeconds = followerLagSeconds;
+  }
+
+  /**
+   * Starts measuring from the given readings, with the distances equal to the leaders' positions.
+   */
+  public void reset(DriveInputs inputs) {
+    lastLeftLeader = inputs.positionMeters[DriveInputs.LEFT_FRONT];
+    lastRightLeader = inputs.positionMeters[DriveInputs.RIGHT_FRONT];
+    leftDistance = lastLeftLeader;
+    rightDistance = lastRightLeader;
+    leftFollowerOffset = lastLeftLeader - inputs.positionMeters[DriveInputs.LEFT_BACK];
+    rightFollowerOffset = lastRightLeader - inputs.positionMeters[DriveInputs.RIGHT_BACK];
+    lastGyroAngle = inputs.gyroAngleRadians;
+    lastTimestamp = inputs.timestampSeconds;
+    centerVelocity = 0;
+  }
+
+  /**
+   * Takes the next readings. Read the new distances with {@link #getLeftDistanceMeters()} and
+   * {@link #getRightDistanceMeters()}.
+   */
+  public void update(DriveInputs inputs) {
+    double dt = inputs.timestampSeconds - lastTimestamp;
+    double leftLeader = inputs.positionMeters[DriveInputs.LEFT_FRONT];
+    double rightLeader = inputs.positionMeters[DriveInputs.RIGHT_FRONT];
+    double headingChange = MathUtil.angleModulus(inputs.gyroAngleRadians - lastGyroAngle);
+    double turn = halfTrackWidthMeters * headingChange;
+    double leftCenter = leftLeader - lastLeftLeader + turn;
+    double rightCenter = rightLeader - lastRightLeader - turn;
+
+    double leftWeight = 1;
+    double rightWeight = 1;
+    double disagreement = Math.abs(leftCenter - rightCenter);
+    double tolerance = DriveConstants.SLIP_THRESHOLD_METERS_PER_SECOND * Math.max(dt, 0)
+        + DriveConstants.SLIP_SCRUB_METERS_PER_RADIAN * Math.abs(headingChange);
+    if (disagreement > tolerance) {
+      double weight = tolerance * tolerance / (disagreement * disagreement);
+      double expected = centerVelocity * dt;
+      if (Math.abs(leftCenter - expected) > Math.abs(rightCenter - expected)) {
+        leftWeight = weight;
+      } else {
+        rightWeight = weight;
+      }
+      slipSamples++;
+    }
+
+    double followerTolerance =
+        DriveConstants.ENCODER_DISAGREEMENT_METERS + Math.abs(centerVelocity) * followerLagSeconds;
+    boolean leftDisagrees = Math.abs(leftLeader - inputs.positionMeters[DriveInputs.LEFT_BACK]
+        - leftFollowerOffset) > followerTolerance;
+    boolean rightDisagrees = Math.abs(rightLeader - inputs.positionMeters[DriveInputs.RIGHT_BACK]
+        - rightFollowerOffset) > followerTolerance;
+    if (leftDisagrees) {
+      leftWeight *= DriveConstants.ENCODER_DISAGREEMENT_WEIGHT;
+    }
+    if (rightDisagrees) {
+      rightWeight *= DriveConstants.ENCODER_DISAGREEMENT_WEIGHT;
+    }
+    if (leftDisagrees || rightDisagrees) {
+      disagreementSamples++;
+    }
+
+    double center = (leftWeight * leftCenter + rightWeight * rightCenter) / (leftWeight + rightWeight);
+    leftDistance += center - turn;
+    rightDistance += center + turn;
+    if (dt > 0) {
+      centerVelocity = center / dt;
+    }
+    lastLeftLeader = leftLeader;
+    lastRightLeader = rightLeader;
+    lastGyroAngle = inputs.gyroAngleRadians;
+    lastTimestamp = inputs.timestampSeconds;
+    lastLeftWeight = leftWeight;
+    lastRightWeight = rightWeight;
+  }
+
+  public double getLeftDistanceMeters() {
+    return leftDistance;
+  }
+
+  public double getRightDistanceMeters() {
+    return rightDistance;
+  }
+
+  /**
+   * Returns the number of samples in which a side was taken to be slipping. Safe to call from any thread.
+   */
+  public long getSlipSamples() {
+    return slipSamples;
+  }
+
+  /**
+   * Returns the number of samples in which a side's leader and follower disagreed. Safe to call from any thread.
+   */
+  public long getDisagreementSamples() {
+    return disagreementSamples;
+  }
+
+  public double getLastLeftWeight() {
+    return lastLeftWeight;
+  }
+
+  public double getLastRightWeight() {
+    return lastRightWeight;
+  }
+}
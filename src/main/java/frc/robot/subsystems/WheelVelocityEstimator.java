@@ -0,0 +1,186 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.numbers.N2;
+import edu.wpi.first.math.system.LinearSystem;
+
+/**
+ * Estimates each side's wheel velocity with a small Kalman filter on its position, driven by the drivetrain plant and
+ * the applied voltages.
+ *
+ * <p>
+ * The TalonFX reports velocity as the change in position over the last 100 ms, so it lags the wheels by about 50 ms.
+ * Here each side has its own filter whose state is its position and velocity. Between samples the velocity follows
+ * the plant, {@code dv/dt = A v + B u}, with the other side's latest estimate and both voltages held as known inputs,
+ * less the static friction {@code kS} the linear plant leaves out; the prediction is exact for a constant input over
+ * the sample. Unmodeled acceleration, with standard deviation {@code accelerationStdDev}, widens the uncertainty, and
+ * each new position, with standard deviation {@code positionStdDev}, corrects both states.
+ *
+ * <p>
+ * Every matrix is 2x2 and symmetric where it can be, so it is kept as plain fields and nothing is allocated per
+ * update. Not thread-safe; the {@link OdometryThread} uses it under the estimator's lock.
+ */
+public class WheelVelocityEstimator {
+  private static final int LEFT = 0;
+  private static final int RIGHT = 1;
+
+  /* The plant, row-major: A couples the sides' velocities, B maps the sides' voltages to accelerations. */
+  private final double[] a = new double[4];
+  private final double[] b = new double[4];
+  private final double kS;
+  private final double accelerationVariance;
+  private final double positionVariance;
+
+  /* Per side: position, velocity, and the covariance's three distinct entries. */
+  private final double[] position = new double[2];
+  private final double[] velocity = new double[2];
+  private final double[] p00 = new double[2];
+  private final double[] p01 = new double[2];
+  private final double[] p11 = new double[2];
+  private double lastTimestamp = Double.NaN;
+
+  /**
+   * Creates an estimator from a drivetrain plant whose states are the left and right velocities.
+   *
+   * @param plant The plant, e.g. {@link frc.robot.Constants.DriveConstants#kDrivetrainPlant}
+   * @param kS The static friction voltage, which the plant leaves out
+   * @param accelerationStdDev How far the wheels may accelerate away from the plant, in meters per second squared
+   * @param positionStdDev How far a position reading may be off, in meters
+   */
+  public WheelVelocityEstimator(LinearSystem<N2, N2, N2> plant, double kS, double accelerationStdDev,
+      double positionStdDev) {
+    this(new double[] {plant.getA(0, 0), plant.getA(0, 1), plant.getA(1, 0), plant.getA(1, 1)},
+        new double[] {plant.getB(0, 0), plant.getB(0, 1), plant.getB(1, 0), plant.getB(1, 1)},
+        kS, accelerationStdDev, positionStdDev);
+  }
+
+  /**
+   * Creates an estimator from the plant's continuous A and B matrices, each 2x2 and row-major.
+   */
+  public WheelVelocityEstimator(double[] a, double[] b, double kS, double accelerationStdDev, double positionStdDev) {
+    System.arraycopy(a, 0, this.a, 0, 4);
+    System.arraycopy(b, 0, this.b, 0, 4);
+    this.kS = kS;
+    this.accelerationVariance = accelerationStdDev * accelerationStdDev;
+    this.positionVariance = positionStdDev * positionStdDev;
+  }
+
+  /**
+   * Starts estimating from rest at the given positions, which are taken as exact.
+   */
+  public void reset(double timestampSeconds, double leftPositionMeters, double rightPositionMeters) {
+    lastTimestamp = timestampSeconds;
+    position[LEFT] = leftPositionMeters;
+    position[RIGHT] = rightPositionMeters;
+    for (int side = LEFT; side <= RIGHT; side++) {
+      velocity[side] = 0;
+      p00[side] = 0;
+      p01[side] = 0;
+      p11[side] = 0;
+    }
+  }
+
+  /**
+   * Predicts forward to the time of the new positions, with the voltages applied since the last update, and corrects
+   * with the positions.
+   *
+   * @param timestampSeconds The time the positions were read
+   * @param leftPositionMeters The left wheel position
+   * @param rightPositionMeters The right wheel position
+   * @param leftVolts The voltage applied to the left side since the last update
+   * @param rightVolts The voltage applied to the right side since the last update
+   */
+  public void update(double timestampSeconds, double leftPositionMeters, double rightPositionMeters,
+      double leftVolts, double rightVolts) {
+    if (Double.isNaN(lastTimestamp)) {
+      reset(timestampSeconds, leftPositionMeters, rightPositionMeters);
+      return;
+    }
+    double dt = timestampSeconds - lastTimestamp;
+    lastTimestamp = timestampSeconds;
+    if (dt > 0) {
+      double leftEffective = withoutStaticFriction(leftVolts, velocity[LEFT]);
+      double rightEffective = withoutStaticFriction(rightVolts, velocity[RIGHT]);
+      double leftVelocity = velocity[LEFT];
+      double rightVelocity = velocity[RIGHT];
+      predict(LEFT, dt, a[0], a[1] * rightVelocity + b[0] * leftEffective + b[1] * rightEffective);
+      predict(RIGHT, dt, a[3], a[2] * leftVelocity + b[2] * leftEffective + b[3] * rightEffective);
+    }
+    correct(LEFT, leftPositionMeters);
+    correct(RIGHT, rightPositionMeters);
+  }
+
+  /**
+   * Returns the voltage left to accelerate the wheels once static friction is overcome. A wheel at rest with less than
+   * kS applied doesn't move at all.
+   */
+  private double withoutStaticFriction(double volts, double velocity) {
+    double direction = velocity != 0 ? Math.signum(velocity) : Math.signum(volts);
+    double effective = volts - kS * direction;
+    if (velocity == 0 && Math.signum(effective) != Math.signum(volts)) {
+      return 0;
+    }
+    return effective;
+  }
+
+  /**
+   * Advances one side by dt under dv/dt = aSelf v + forcing, with the forcing held constant, and grows its covariance
+   * by continuous white acceleration noise.
+   */
+  private void predict(int side, double dt, double aSelf, double forcing) {
+    double decay;
+    double phi01;
+    double gamma0;
+    if (Math.abs(aSelf * dt) < 1e-6) {
+      decay = 1 + aSelf * dt;
+      phi01 = dt;
+      gamma0 = dt * dt / 2;
+    } else {
+      decay = Math.exp(aSelf * dt);
+      phi01 = (decay - 1) / aSelf;
+      gamma0 = (phi01 - dt) / aSelf;
+    }
+    position[side] += phi01 * velocity[side] + gamma0 * forcing;
+    velocity[side] = decay * velocity[side] + phi01 * forcing;
+
+    // P = Phi P Phi^T + Q, with Phi = [[1, phi01], [0, decay]].
+    double c00 = p00[side];
+    double c01 = p01[side];
+    double c11 = p11[side];
+    double q = accelerationVariance;
+    p00[side] = c00 + 2 * phi01 * c01 + phi01 * phi01 * c11 + q * dt * dt * dt / 3;
+    p01[side] = decay * (c01 + phi01 * c11) + q * dt * dt / 2;
+    p11[side] = decay * decay * c11 + q * dt;
+  }
+
+  /**
+   * Corrects one side with a measured position.
+   */
+  private void correct(int side, double measuredPosition) {
+    double innovationVariance = p00[side] + positionVariance;
+    if (innovationVariance <= 0) {
+      return;
+    }
+    double k0 = p00[side] / innovationVariance;
+    double k1 = p01[side] / innovationVariance;
+    double innovation = measuredPosition - position[side];
+    position[side] += k0 * innovation;
+    velocity[side] += k1 * innovation;
+    double c00 = p00[side];
+    double c01 = p01[side];
+    p00[side] = (1 - k0) * c00;
+    p01[side] = (1 - k0) * c01;
+    p11[side] -= k1 * c01;
+  }
+
+  public double getLeftVelocityMetersPerSecond() {
+    return velocity[LEFT];
+  }
+
+  public double getRightVelocityMetersPerSecond() {
+    return velocity[RIGHT];
+  }
+}
@@ -0,0 +1,366 @@
+package lobstah.stl.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Records every input a robot program consumes to a compact binary log, and feeds a log back in place of the live
+ * inputs, so a run can be reproduced exactly.
+ *
+ * <p>
+ * Code that reads an input passes the live value through one of the {@code log} methods along with a channel number
+ * and uses the returned value. When live, the value is returned unchanged. When recording, it is also appended to the
+ * log. When replaying, the live value is ignored and the recorded one is returned. Each robot loop starts with
+ * {@link #beginCycle(long)}, and outputs that should be reproduced exactly are passed to
+ * {@link #checkOutput(int, double)}, which compares them bit for bit while replaying.
+ *
+ * <p>
+ * Replay relies on the program reading the same channels in the same order. If it doesn't, the run has diverged and
+ * the next {@code log} call throws an {@link IllegalStateException} naming the cycle. The log is only meant to be used
+ * from the main robot thread, but the shutdown hook that flushes a recording runs on its own, so every method that
+ * touches the log holds the class's lock.
+ */
+public final class InputLog {
+  /** What the log does with the values passed through it. */
+  public enum Mode {
+    /** Values are returned unchanged and nothing is written. */
+    LIVE,
+    /** Values are returned unchanged and appended to the log file. */
+    RECORD,
+    /** Values are read back from a log file instead. */
+    REPLAY
+  }
+
+  private static final int MAGIC = 0x4C42494C; // "LBIL"
+  private static final short VERSION = 1;
+
+  private static final byte CYCLE = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte INT = 3;
+  private static final byte STRING = 4;
+  private static final byte BYTES = 5;
+  private static final byte OUTPUT = 6;
+
+  private static Mode mode = Mode.LIVE;
+  private static DataOutputStream output;
+  private static ByteBuffer input;
+  private static long cycle = -1;
+  private static long outputMismatches;
+  private static long firstMismatchCycle = -1;
+  private static boolean shutdownHookRegistered;
+
+  private InputLog() {}
+
+  /**
+   * Starts recording to the given file, replacing it if it exists.
+   *
+   * @param path The file to record to
+   */
+  public static synchronized void startRecording(String path) throws IOException {
+    close();
+    output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+    output.writeInt(MAGIC);
+    output.writeShort(VERSION);
+    mode = Mode.RECORD;
+    // The simulation is usually ended by closing it, so make sure the buffered tail reaches the file.
+    if (!shutdownHookRegistered) {
+      Runtime.getRuntime().addShutdownHook(new Thread(InputLog::close, "InputLog flush"));
+      shutdownHookRegistered = true;
+    }
+  }
+
+  /**
+   * Loads the given log into memory and starts replaying it.
+   *
+   * @param path The file to replay
+   */
+  public static synchronized void startReplay(String path) throws IOException {
+    close();
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+    if (buffer.remaining() < 6 || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+      throw new IOException(path + " is not an input log");
+    }
+    input = buffer;
+    mode = Mode.REPLAY;
+  }
+
+  /**
+   * Flushes and closes any log and returns to {@link Mode#LIVE}.
+   */
+  public static synchronized void close() {
+    if (output != null) {
+      try {
+        output.close();
+      } catch (IOException io) {
+        DriverStation.reportError("[InputLog] Failed to close the log: " + io.getMessage(), false);
+      }
+    }
+    output = null;
+    input = null;
+    mode = Mode.LIVE;
+    cycle = -1;
+  }
+
+  public static Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns whether values are being recorded or replayed.
+   */
+  public static boolean isActive() {
+    return mode != Mode.LIVE;
+  }
+
+  public static boolean isRecording() {
+    return mode == Mode.RECORD;
+  }
+
+  public static boolean isReplaying() {
+    return mode == Mode.REPLAY;
+  }
+
+  /**
+   * Returns the number of the current cycle, counting from 0, or -1 before the first.
+   */
+  public static long getCycle() {
+    return cycle;
+  }
+
+  /**
+   * Returns whether the replayed log has another cycle left.
+   */
+  public static boolean hasRemainingCycles() {
+    return mode == Mode.REPLAY && input.remaining() > 0 && input.get(input.position()) == CYCLE;
+  }
+
+  /**
+   * Returns the timestamp the next replayed cycle was recorded at, without consuming it.
+   */
+  public static long peekCycleTimestamp() {
+    // Skips the type, channel and cycle number.
+    return input.getLong(input.position() + 1 + 2 + 8);
+  }
+
+  /**
+   * Marks the start of a robot loop.
+   *
+   * @param timestampMicros The present FPGA time, which replay checks to make sure the clocks agree
+   */
+  public static synchronized void beginCycle(long timestampMicros) {
+    if (mode == Mode.LIVE) {
+      return;
+    }
+    cycle++;
+    if (mode == Mode.RECORD) {
+      try {
+        writeHeader(CYCLE, 0);
+        output.writeLong(cycle);
+        output.writeLong(timestampMicros);
+      } catch (IOException io) {
+        fail(io);
+      }
+    } else {
+      readHeader(CYCLE, 0);
+      long recordedCycle = input.getLong();
+      long recordedTimestamp = input.getLong();
+      if (recordedCycle != cycle || recordedTimestamp != timestampMicros) {
+        throw diverged("cycle " + recordedCycle + " at " + recordedTimestamp + " us",
+            "cycle " + cycle + " at " + timestampMicros + " us");
+      }
+    }
+  }
+
+  /**
+   * Passes a double input through the log.
+   *
+   * @param channel The channel the value belongs to
+   * @param value The live value
+   * @return The value to use
+   */
+  public static synchronized double logDouble(int channel, double value) {
+    switch (mode) {
+      case RECORD:
+        try {
+          writeHeader(DOUBLE, channel);
+          output.writeDouble(value);
+        } catch (IOException io) {
+          fail(io);
+        }
+        return value;
+      case REPLAY:
+        readHeader(DOUBLE, channel);
+        return input.getDouble();
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * Passes an int input through the log.
+   *
+   * @param channel The channel the value belongs to
+   * @param value The live value
+   * @return The value to use
+   */
+  public static synchronized int logInt(int channel, int value) {
+    switch (mode) {
+      case RECORD:
+        try {
+          writeHeader(INT, channel);
+          output.writeInt(value);
+        } catch (IOException io) {
+          fail(io);
+        }
+        return value;
+      case REPLAY:
+        readHeader(INT, channel);
+        return input.getInt();
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * Passes a boolean input through the log.
+   *
+   * @param channel The channel the value belongs to
+   * @param value The live value
+   * @return The value to use
+   */
+  public static boolean logBoolean(int channel, boolean value) {
+    return logInt(channel, value ? 1 : 0) != 0;
+  }
+
+  /**
+   * Passes a string input, which may be null, through the log.
+   *
+   * @param channel The channel the value belongs to
+   * @param value The live value
+   * @return The value to use
+   */
+  public static String logString(int channel, String value) {
+    byte[] bytes = logBytes(channel, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Passes a byte array input, which may be null, through the log.
+   *
+   * @param channel The channel the value belongs to
+   * @param value The live value
+   * @return The value to use
+   */
+  public static synchronized byte[] logBytes(int channel, byte[] value) {
+    switch (mode) {
+      case RECORD:
+        try {
+          writeHeader(BYTES, channel);
+          output.writeInt(value == null ? -1 : value.length);
+          if (value != null) {
+            output.write(value);
+          }
+        } catch (IOException io) {
+          fail(io);
+        }
+        return value;
+      case REPLAY:
+        readHeader(BYTES, channel);
+        int length = input.getInt();
+        if (length < 0) {
+          return null;
+        }
+        byte[] recorded = new byte[length];
+        input.get(recorded);
+        return recorded;
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * Records an output when recording, and compares it bit for bit with the recorded value when replaying.
+   *
+   * @param channel The channel the value belongs to
+   * @param value The value the program produced
+   */
+  public static synchronized void checkOutput(int channel, double value) {
+    switch (mode) {
+      case RECORD:
+        try {
+          writeHeader(OUTPUT, channel);
+          output.writeDouble(value);
+        } catch (IOException io) {
+          fail(io);
+        }
+        break;
+      case REPLAY:
+        readHeader(OUTPUT, channel);
+        if (Double.doubleToRawLongBits(input.getDouble()) != Double.doubleToRawLongBits(value)) {
+          if (outputMismatches == 0) {
+            firstMismatchCycle = cycle;
+          }
+          outputMismatches++;
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Returns the number of replayed outputs that differed from the recording.
+   */
+  public static long getOutputMismatches() {
+    return outputMismatches;
+  }
+
+  /**
+   * Returns the first cycle with an output that differed from the recording, or -1 if none has.
+   */
+  public static long getFirstMismatchCycle() {
+    return firstMismatchCycle;
+  }
+
+  private static void writeHeader(byte type, int channel) throws IOException {
+    output.writeByte(type);
+    output.writeShort(channel);
+  }
+
+  private static void readHeader(byte type, int channel) {
+    try {
+      byte recordedType = input.get();
+      int recordedChannel = input.getShort();
+      if (recordedType != type || recordedChannel != (short) channel) {
+        throw diverged(describe(recordedType, recordedChannel), describe(type, channel));
+      }
+    } catch (BufferUnderflowException e) {
+      throw diverged("the end of the log", describe(type, channel));
+    }
+  }
+
+  private static String describe(byte type, int channel) {
+    return type == CYCLE ? "a new cycle" : "type " + type + " on channel " + channel;
+  }
+
+  private static IllegalStateException diverged(String recorded, String actual) {
+    return new IllegalStateException(
+        "[InputLog] Replay diverged in cycle " + cycle + ": the log has " + recorded + " but the program read "
+            + actual);
+  }
+
+  /* A failed write shouldn't take the robot program down with it, so recording just stops. */
+  private static void fail(IOException io) {
+    DriverStation.reportError("[InputLog] Recording stopped: " + io.getMessage(), false);
+    close();
+  }
+}
@@ -8,6 +8,13 @@ import edu.wpi.first.wpilibj2.command.button.JoystickButton;
  * An extension of the {@link GenericHID} class that adds some useful utilities.
  */
 public class LobstahGamepad extends GenericHID {
+  /* Each port gets its own block of InputLog channels: axes first, then buttons, then POVs. */
+  private static final int CHANNEL_BASE = 0x1000;
+  private static final int CHANNELS_PER_PORT = 0x40;
+  private static final int BUTTON_CHANNEL_OFFSET = 0x10;
+  private static final int POV_CHANNEL_OFFSET = 0x30;
+
+  private final int channelBase;
 
   /**
    * Creates a new LobstahGamepad.
@@ -16,6 +23,31 @@ public class LobstahGamepad extends GenericHID {
    */
   public LobstahGamepad(int port) {
     super(port);
+    this.channelBase = CHANNEL_BASE + port * CHANNELS_PER_PORT;
+  }
+
+  /**
+   * Returns the value of the axis, passed through the {@link InputLog} so that recorded runs can be replayed.
+   */
+  @Override
+  public double getRawAxis(int axis) {
+    return InputLog.logDouble(channelBase + axis, super.getRawAxis(axis));
+  }
+
+  /**
+   * Returns the state of the button, passed through the {@link InputLog} so that recorded runs can be replayed.
+   */
+  @Override
+  public boolean getRawButton(int button) {
+    return InputLog.logBoolean(channelBase + BUTTON_CHANNEL_OFFSET + button, super.getRawButton(button));
+  }
+
+  /**
+   * Returns the angle of the POV, passed through the {@link InputLog} so that recorded runs can be replayed.
+   */
+  @Override
+  public int getPOV(int pov) {
+    return InputLog.logInt(channelBase + POV_CHANNEL_OFFSET + pov, super.getPOV(pov));
   }
 
   /**
@@ -0,0 +1,60 @@
+package lobstah.stl.io;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
+
+/**
+ * A {@link SendableChooser} whose selection passes through the {@link InputLog}, so a replayed run makes the same
+ * choices as the recorded one. The name of the selected option is logged, not the object.
+ *
+ * @param <V> The type of the values to be stored
+ */
+public class LoggedSendableChooser<V> extends SendableChooser<V> {
+  private final int channel;
+  private final Map<String, V> options = new LinkedHashMap<>();
+
+  /**
+   * Creates a new LoggedSendableChooser.
+   *
+   * @param channel The {@link InputLog} channel for the selection
+   */
+  public LoggedSendableChooser(int channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public void addOption(String name, V object) {
+    super.addOption(name, object);
+    options.put(name, object);
+  }
+
+  @Override
+  public void setDefaultOption(String name, V object) {
+    super.setDefaultOption(name, object);
+    options.put(name, object);
+  }
+
+  @Override
+  public V getSelected() {
+    V selected = super.getSelected();
+    if (!InputLog.isActive()) {
+      return selected;
+    }
+    String name = InputLog.logString(channel, nameOf(selected));
+    return name == null ? null : options.get(name);
+  }
+
+  private String nameOf(V selected) {
+    if (selected == null) {
+      return null;
+    }
+    for (Map.Entry<String, V> option : options.entrySet()) {
+      if (selected.equals(option.getValue())) {
+        return option.getKey();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,65 @@
+package lobstah.stl.io;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * An optional debug output channel that prints at most once per period, so it can be left in code that runs every
+ * loop. Check {@link #isReady()} before building the message, so a disabled or throttled trace costs nothing.
+ *
+ * <pre>
+ * if (trace.isReady()) {
+ *   trace.println(String.format("left %.3f", left));
+ * }
+ * </pre>
+ */
+public class RateLimitedTrace {
+  private final String name;
+  private final double periodSeconds;
+  private boolean enabled;
+  private double lastTraceSeconds = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Creates a new RateLimitedTrace.
+   *
+   * @param name The name printed in front of each message
+   * @param periodSeconds The minimum time between messages
+   * @param enabled Whether the trace starts enabled
+   */
+  public RateLimitedTrace(String name, double periodSeconds, boolean enabled) {
+    this.name = name;
+    this.periodSeconds = periodSeconds;
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns whether a message should be printed now. Returns true at most once per period, and never when disabled.
+   */
+  public boolean isReady() {
+    if (!enabled) {
+      return false;
+    }
+    double now = Timer.getFPGATimestamp();
+    if (now - lastTraceSeconds < periodSeconds) {
+      return false;
+    }
+    lastTraceSeconds = now;
+    return true;
+  }
+
+  /**
+   * Prints a message to the console, prefixed with the name of this trace.
+   *
+   * @param message The message to print
+   */
+  public void println(String message) {
+    System.out.println("[" + name + "] " + message);
+  }
+}
@@ -5,6 +5,7 @@
 package lobstah.stl.math;
 
 import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Quaternion;
 import edu.wpi.first.math.util.Units;
 import frc.robot.Constants;
 
@@ -44,11 +45,29 @@ public class LobstahMath {
    * @param positionMeters The distance in meters to convert to native units
    */
   public static int distanceToNativeUnits(double positionMeters) {
+    return (int) metersToNativeUnits(positionMeters);
+  }
+
+  /**
+   * Converts a distance in meters to native Falcon units of sensor counts, without truncating to whole counts.
+   * 
+   * @param positionMeters The distance in meters to convert to native units
+   */
+  public static double metersToNativeUnits(double positionMeters) {
     double wheelRotations =
-        positionMeters / (Math.PI * Units.inchesToMeters(Constants.RobotConstants.WHEEL_RADIUS_INCHES));
+        positionMeters / (Math.PI * Units.inchesToMeters(Constants.RobotConstants.WHEEL_DIAMETER_INCHES));
     double motorRotations = wheelRotations * Constants.RobotConstants.SENSOR_GEAR_RATIO;
-    int sensorCounts = (int) (motorRotations * Constants.RobotConstants.COUNTS_PER_REV);
-    return sensorCounts;
+    return motorRotations * Constants.RobotConstants.COUNTS_PER_REV;
+  }
+
+  /**
+   * Converts a velocity in meters per second to native Falcon velocity units of sensor counts per 100 ms. This is the
+   * inverse of {@link #nativeUnitsToVelocityMetersPerSecond(double)}.
+   * 
+   * @param velocityMetersPerSecond The velocity in meters per second to convert to native units
+   */
+  public static double velocityMetersPerSecondToNativeUnits(double velocityMetersPerSecond) {
+    return metersToNativeUnits(velocityMetersPerSecond) / 10;
   }
 
   /**
@@ -61,7 +80,7 @@ public class LobstahMath {
     double motorRotationsPerSecond = motorRotationsPer100ms * 10;
     double wheelRotationsPerSecond = motorRotationsPerSecond / Constants.RobotConstants.SENSOR_GEAR_RATIO;
     double velocityMetersPerSecond =
-        wheelRotationsPerSecond * (Math.PI * Units.inchesToMeters(Constants.RobotConstants.WHEEL_RADIUS_INCHES));
+        wheelRotationsPerSecond * (Math.PI * Units.inchesToMeters(Constants.RobotConstants.WHEEL_DIAMETER_INCHES));
     return velocityMetersPerSecond;
   }
 
@@ -74,7 +93,7 @@ public class LobstahMath {
     double motorRotations = (double) sensorCounts / Constants.RobotConstants.COUNTS_PER_REV;
     double wheelRotations = motorRotations / Constants.RobotConstants.SENSOR_GEAR_RATIO;
     double positionMeters =
-        wheelRotations * (Math.PI * Units.inchesToMeters(Constants.RobotConstants.WHEEL_RADIUS_INCHES));
+        wheelRotations * (Math.PI * Units.inchesToMeters(Constants.RobotConstants.WHEEL_DIAMETER_INCHES));
     return positionMeters;
   }
 
@@ -304,5 +323,26 @@ public class LobstahMath {
   public static double radiansToFalcon500Position(double positionRadians) {
     return degreesToFalcon500Position(Math.toDegrees(positionRadians));
   }
-}
 
+  /**
+   * Writes the rotation matrix of a unit quaternion, row-major, into the first nine elements of an array.
+   *
+   * @param q The rotation
+   * @param matrix The array to write to
+   */
+  public static void quaternionToRotationMatrix(Quaternion q, double[] matrix) {
+    double w = q.getW();
+    double x = q.getX();
+    double y = q.getY();
+    double z = q.getZ();
+    matrix[0] = 1 - 2 * (y * y + z * z);
+    matrix[1] = 2 * (x * y - z * w);
+    matrix[2] = 2 * (x * z + y * w);
+    matrix[3] = 2 * (x * y + z * w);
+    matrix[4] = 1 - 2 * (x * x + z * z);
+    matrix[5] = 2 * (y * z - x * w);
+    matrix[6] = 2 * (x * z - y * w);
+    matrix[7] = 2 * (y * z + x * w);
+    matrix[8] = 1 - 2 * (x * x + y * y);
+  }
+}
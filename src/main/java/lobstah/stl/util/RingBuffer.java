@@ -0,0 +1,83 @@
+package lobstah.stl.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for handing objects from one producer thread to one consumer thread, e.g. from a sensor
+ * thread to the robot loop. Neither side ever blocks or allocates: {@link #offer(Object)} returns false when the
+ * buffer is full, and {@link #poll()} returns null when it is empty.
+ *
+ * <p>
+ * Only one thread may call {@link #offer(Object)} and only one thread may call {@link #poll()}. The head and tail are
+ * ever-increasing counters, so the buffer is full when they are a capacity apart and empty when they are equal.
+ *
+ * @param <T> The type of the elements
+ */
+public class RingBuffer<T> {
+  private final AtomicReferenceArray<T> elements;
+  private final int mask;
+  /* The next index to read. Written only by the consumer. */
+  private final AtomicLong head = new AtomicLong();
+  /* The next index to write. Written only by the producer. */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Creates a new RingBuffer.
+   *
+   * @param capacity The most elements the buffer holds, rounded up to a power of two
+   */
+  public RingBuffer(int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.elements = new AtomicReferenceArray<>(Math.max(size, 1));
+    this.mask = elements.length() - 1;
+  }
+
+  public int getCapacity() {
+    return elements.length();
+  }
+
+  /**
+   * Adds an element. Producer thread only.
+   *
+   * @param element The element to add, not null
+   * @return False if the buffer was full and the element was not added
+   */
+  public boolean offer(T element) {
+    long index = tail.get();
+    if (index - head.get() == elements.length()) {
+      return false;
+    }
+    elements.lazySet((int) index & mask, element);
+    tail.lazySet(index + 1);
+    return true;
+  }
+
+  /**
+   * Removes the oldest element. Consumer thread only.
+   *
+   * @return The oldest element, or null if the buffer is empty
+   */
+  public T poll() {
+    long index = head.get();
+    if (index == tail.get()) {
+      return null;
+    }
+    int slot = (int) index & mask;
+    T element = elements.get(slot);
+    elements.lazySet(slot, null);
+    head.lazySet(index + 1);
+    return element;
+  }
+
+  /**
+   * Returns the number of elements in the buffer. Exact only when called from the producer or consumer while the other
+   * is idle.
+   */
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+}
@@ -0,0 +1,102 @@
+package frc.robot.photonvision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import frc.robot.sim.SimulatedCamera;
+
+class MultiTagPoseSolverTest {
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 800;
+  private static final double FOV_RADIANS = Math.toRadians(70);
+  private static final double TAG_SIZE = 0.1524;
+
+  /* Three tags on the wall at x = 0, facing into the field. */
+  private static final AprilTagFieldModel FIELD = new AprilTagFieldModel(new AprilTagFieldLayout(List.of(
+      new AprilTag(1, new Pose3d(0, 0.4, 0.6, new Rotation3d())),
+      new AprilTag(2, new Pose3d(0, 1.2, 0.45, new Rotation3d())),
+      new AprilTag(3, new Pose3d(0, 2.0, 0.6, new Rotation3d()))), 16.5, 8), TAG_SIZE);
+
+  private static final Transform3d[] ROBOT_TO_CAMERAS = {
+      new Transform3d(new Translation3d(0.25, 0.1, 0.5), new Rotation3d(0, Math.toRadians(-5), 0.2)),
+      new Transform3d(new Translation3d(0.25, -0.1, 0.3), new Rotation3d(0, Math.toRadians(-10), -0.2)),
+  };
+
+  private static SimulatedCamera camera(int camera, double pixelNoise) {
+    return new SimulatedCamera(FIELD, ROBOT_TO_CAMERAS[camera], WIDTH, HEIGHT, FOV_RADIANS, 10, pixelNoise, 30, 0,
+        camera);
+  }
+
+  private static MultiTagPoseSolver solver() {
+    return new MultiTagPoseSolver(FIELD, ROBOT_TO_CAMERAS, WIDTH / 2.0 / Math.tan(FOV_RADIANS / 2), WIDTH / 2.0,
+        HEIGHT / 2.0, 0.5, 20);
+  }
+
+  @Test
+  void recoversThePoseFromExactCorners() {
+    double x = 2.6;
+    double y = 1.1;
+    double heading = Math.PI - 0.1;
+    MultiTagPoseSolver solver = solver();
+    for (int camera = 0; camera < ROBOT_TO_CAMERAS.length; camera++) {
+      solver.addResult(camera, camera(camera, 0).capture(x, y, heading, 0));
+    }
+    assertTrue(solver.getTagCount() >= 3, "both cameras should see the tags");
+
+    assertTrue(solver.solve(x + 0.3, y - 0.2, heading + 0.1));
+    assertEquals(x, solver.getX(), 1e-6);
+    assertEquals(y, solver.getY(), 1e-6);
+    assertEquals(heading, solver.getHeadingRadians(), 1e-6);
+    assertEquals(0, solver.getRmsErrorPixels(), 1e-6);
+  }
+
+  @Test
+  void staysCloseWithNoisyCorners() {
+    double x = 3.2;
+    double y = 1.4;
+    double heading = -Math.PI + 0.15;
+    MultiTagPoseSolver solver = solver();
+    for (int camera = 0; camera < ROBOT_TO_CAMERAS.length; camera++) {
+      solver.addResult(camera, camera(camera, 0.5).capture(x, y, heading, 0));
+    }
+
+    assertTrue(solver.solve(x - 0.2, y + 0.2, heading - 0.05));
+    assertEquals(x, solver.getX(), 0.05);
+    assertEquals(y, solver.getY(), 0.05);
+    assertEquals(0, Math.IEEEremainder(solver.getHeadingRadians() - heading, 2 * Math.PI), Math.toRadians(2));
+    for (int axis = 0; axis < 3; axis++) {
+      assertTrue(solver.getCovariance(axis, axis) > 0);
+    }
+    assertEquals(solver.getCovariance(0, 1), solver.getCovariance(1, 0), 1e-15);
+  }
+
+  @Test
+  void failsWithoutCorners() {
+    MultiTagPoseSolver solver = solver();
+    // Facing away from the wall, so no tag is in view.
+    solver.addResult(0, camera(0, 0).capture(2.6, 1.1, 0, 0));
+    assertEquals(0, solver.getCornerCount());
+    assertFalse(solver.solve(2.6, 1.1, 0));
+  }
+
+  @Test
+  void resetForgetsTheCorners() {
+    MultiTagPoseSolver solver = solver();
+    solver.addResult(0, camera(0, 0).capture(2.6, 1.1, Math.PI, 0));
+    assertTrue(solver.getCornerCount() > 0);
+    solver.reset();
+    assertEquals(0, solver.getCornerCount());
+    assertEquals(0, solver.getTagCount());
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DrivePoseEstimatorTest {
+  private static final double[] STATE_STD_DEVS = {0.02, 0.02, 0.01};
+  private static final double[] VISION_STD_DEVS = {0.1, 0.1, 0.1};
+  private static final double PERIOD = 0.02;
+  private static final double EPSILON = 1e-9;
+
+  private static DrivePoseEstimator create() {
+    DrivePoseEstimator estimator = new DrivePoseEstimator(STATE_STD_DEVS, VISION_STD_DEVS, 128, 1.5);
+    estimator.resetPosition(0, 0, 0, 1, 2, 0.3);
+    return estimator;
+  }
+
+  /* A drive that curves one way and then the other, so replay has to follow both arcs. */
+  private static double gyroAngle(int step) {
+    return 0.4 * Math.sin(step * 0.05);
+  }
+
+  private static double leftDistance(int step) {
+    return 0.03 * step - 0.002 * step * Math.cos(step * 0.05);
+  }
+
+  private static double rightDistance(int step) {
+    return 0.03 * step + 0.002 * step * Math.cos(step * 0.05);
+  }
+
+  private static void update(DrivePoseEstimator estimator, int step) {
+    estimator.update(step * PERIOD, gyroAngle(step), leftDistance(step), rightDistance(step));
+  }
+
+  private static boolean correct(DrivePoseEstimator estimator, double x, double y, double heading, double timestamp) {
+    return estimator.addVisionMeasurement(x, y, heading, timestamp, VISION_STD_DEVS[0], VISION_STD_DEVS[1],
+        VISION_STD_DEVS[2]);
+  }
+
+  @Test
+  void integratesAStraightLineAlongTheHeading() {
+    DrivePoseEstimator estimator = new DrivePoseEstimator(STATE_STD_DEVS, VISION_STD_DEVS, 16, 1.5);
+    estimator.resetPosition(0, 0, 0, 0, 0, Math.PI / 2);
+    estimator.update(0.02, 0, 1, 1);
+    assertEquals(0, estimator.getX(), EPSILON);
+    assertEquals(1, estimator.getY(), EPSILON);
+    assertEquals(Math.PI / 2, estimator.getHeadingRadians(), EPSILON);
+  }
+
+  @Test
+  void delayedCorrectionMatchesReintegratingFromIt() {
+    int correctionStep = 30;
+    int steps = 50;
+
+    // The measurement arrives late, after odometry has already moved on to the last step.
+    DrivePoseEstimator delayed = create();
+    for (int step = 1; step <= steps; step++) {
+      update(delayed, step);
+    }
+    assertTrue(correct(delayed, 1.4, 2.9, 0.5, correctionStep * PERIOD));
+
+    // The same measurement applied on time, with odometry integrated straight through after it.
+    DrivePoseEstimator onTime = create();
+    for (int step = 1; step <= correctionStep; step++) {
+      update(onTime, step);
+    }
+    assertTrue(correct(onTime, 1.4, 2.9, 0.5, correctionStep * PERIOD));
+    for (int step = correctionStep + 1; step <= steps; step++) {
+      update(onTime, step);
+    }
+
+    assertEquals(onTime.getX(), delayed.getX(), EPSILON);
+    assertEquals(onTime.getY(), delayed.getY(), EPSILON);
+    assertEquals(onTime.getHeadingRadians(), delayed.getHeadingRadians(), EPSILON);
+    // The replayed history matches too, so a later correction starts from the same poses.
+    OdometryHistory delayedHistory = delayed.getHistory();
+    OdometryHistory onTimeHistory = onTime.getHistory();
+    assertEquals(onTimeHistory.size(), delayedHistory.size());
+    for (int index = 0; index < delayedHistory.size(); index++) {
+      for (int field = OdometryHistory.X; field <= OdometryHistory.HEADING; field++) {
+        assertEquals(onTimeHistory.get(index, field), delayedHistory.get(index, field), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  void correctionMovesTowardTheMeasurement() {
+    DrivePoseEstimator estimator = create();
+    for (int step = 1; step <= 10; step++) {
+      update(estimator, step);
+    }
+    double x = estimator.getX();
+    assertTrue(correct(estimator, x + 1, estimator.getY(), estimator.getHeadingRadians(), 10 * PERIOD));
+    assertTrue(estimator.getX() > x && estimator.getX() < x + 1);
+  }
+
+  @Test
+  void rejectsMeasurementsOlderThanTheHistory() {
+    DrivePoseEstimator estimator = create();
+    assertFalse(correct(estimator, 0, 0, 0, 0));
+    for (int step = 1; step <= 100; step++) {
+      update(estimator, step);
+    }
+    assertFalse(correct(estimator, 0, 0, 0, 100 * PERIOD - 2));
+    assertEquals(2, estimator.getRejectedMeasurements());
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class OdometryHistoryTest {
+  private static final double EPSILON = 1e-12;
+
+  private static void add(OdometryHistory history, double timestamp, double value) {
+    history.add(timestamp, value, 2 * value, 0.1 * value, 3 * value, 4 * value, 0.1 * value);
+  }
+
+  @Test
+  void replacesTheOldestSampleWhenFull() {
+    OdometryHistory history = new OdometryHistory(3);
+    assertEquals(4, history.getCapacity());
+    for (int i = 0; i < 6; i++) {
+      add(history, i, i);
+    }
+    assertEquals(4, history.size());
+    assertEquals(2, history.getTimestamp(0), EPSILON);
+    assertEquals(5, history.getTimestamp(3), EPSILON);
+    assertEquals(2 * 5, history.get(3, OdometryHistory.Y), EPSILON);
+  }
+
+  @Test
+  void rejectsSamplesOutOfOrder() {
+    OdometryHistory history = new OdometryHistory(4);
+    add(history, 1, 0);
+    assertThrows(IllegalArgumentException.class, () -> add(history, 1, 0));
+    assertThrows(IllegalArgumentException.class, () -> add(history, 0.5, 0));
+  }
+
+  @Test
+  void findsTheFloorSampleAfterWrapping() {
+    OdometryHistory history = new OdometryHistory(4);
+    for (int i = 0; i < 7; i++) {
+      add(history, 0.02 * i, i);
+    }
+    // Samples 3 to 6 remain, at 0.06 to 0.12 s.
+    assertEquals(-1, history.floorIndex(0.05));
+    assertEquals(0, history.floorIndex(0.06));
+    assertEquals(1, history.floorIndex(0.09));
+    assertEquals(3, history.floorIndex(1));
+  }
+
+  @Test
+  void interpolatesBetweenSamples() {
+    OdometryHistory history = new OdometryHistory(8);
+    history.add(1, 0, 0, 0, 0, 0, 0);
+    history.add(2, 1, -2, 0.4, 1, 2, 0.4);
+    double[] sample = new double[OdometryHistory.FIELDS];
+
+    assertTrue(history.sample(1.25, sample));
+    assertEquals(0.25, sample[OdometryHistory.X], EPSILON);
+    assertEquals(-0.5, sample[OdometryHistory.Y], EPSILON);
+    assertEquals(0.1, sample[OdometryHistory.HEADING], EPSILON);
+    assertEquals(0.25, sample[OdometryHistory.LEFT_DISTANCE], EPSILON);
+    assertEquals(0.5, sample[OdometryHistory.RIGHT_DISTANCE], EPSILON);
+    assertEquals(0.1, sample[OdometryHistory.GYRO_ANGLE], EPSILON);
+
+    // Exactly on a sample, and past the newest one, return the sample itself.
+    assertTrue(history.sample(1, sample));
+    assertEquals(0, sample[OdometryHistory.X], EPSILON);
+    assertTrue(history.sample(5, sample));
+    assertEquals(1, sample[OdometryHistory.X], EPSILON);
+
+    assertFalse(history.sample(0.5, sample));
+    assertFalse(new OdometryHistory(4).sample(1, sample));
+  }
+
+  @Test
+  void interpolatesAnglesTheShortWayAround() {
+    OdometryHistory history = new OdometryHistory(4);
+    history.add(0, 0, 0, Math.PI - 0.1, 0, 0, Math.PI - 0.1);
+    history.add(1, 0, 0, -Math.PI + 0.1, 0, 0, -Math.PI + 0.1);
+    double[] sample = new double[OdometryHistory.FIELDS];
+    assertTrue(history.sample(0.5, sample));
+    assertEquals(Math.PI, sample[OdometryHistory.HEADING], EPSILON);
+    assertEquals(Math.PI, sample[OdometryHistory.GYRO_ANGLE], EPSILON);
+  }
+}
@@ -0,0 +1,85 @@
+package lobstah.stl.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RingBufferTest {
+  @Test
+  void roundsCapacityUpToAPowerOfTwo() {
+    assertEquals(1, new RingBuffer<Integer>(1).getCapacity());
+    assertEquals(2, new RingBuffer<Integer>(2).getCapacity());
+    assertEquals(4, new RingBuffer<Integer>(3).getCapacity());
+    assertEquals(4, new RingBuffer<Integer>(4).getCapacity());
+    assertEquals(8, new RingBuffer<Integer>(5).getCapacity());
+  }
+
+  @Test
+  void rejectsCapacitiesOutOfRange() {
+    assertThrows(IllegalArgumentException.class, () -> new RingBuffer<Integer>(0));
+    assertThrows(IllegalArgumentException.class, () -> new RingBuffer<Integer>((1 << 30) + 1));
+  }
+
+  @Test
+  void pollsNullWhenEmpty() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4);
+    assertNull(buffer.poll());
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  void refusesOffersWhenFull() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(i));
+    }
+    assertFalse(buffer.offer(4));
+    assertEquals(4, buffer.size());
+
+    // Freeing one slot makes room for exactly one more.
+    assertEquals(0, buffer.poll());
+    assertTrue(buffer.offer(4));
+    assertFalse(buffer.offer(5));
+    for (int i = 1; i <= 4; i++) {
+      assertEquals(i, buffer.poll());
+    }
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  void keepsOrderAcrossManyWraps() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4);
+    int next = 0;
+    int expected = 0;
+    // Fill to capacity and drain with the head and tail at every offset of the array.
+    for (int round = 0; round < 10; round++) {
+      while (buffer.size() < 4) {
+        assertTrue(buffer.offer(next++));
+      }
+      assertFalse(buffer.offer(next));
+      while (buffer.size() > round % 3) {
+        assertEquals(expected++, buffer.poll());
+      }
+    }
+    while (buffer.size() > 0) {
+      assertEquals(expected++, buffer.poll());
+    }
+    assertEquals(next, expected);
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  void holdsOneElementAtCapacityOne() {
+    RingBuffer<String> buffer = new RingBuffer<>(1);
+    assertTrue(buffer.offer("a"));
+    assertFalse(buffer.offer("b"));
+    assertEquals("a", buffer.poll());
+    assertNull(buffer.poll());
+    assertTrue(buffer.offer("b"));
+    assertEquals("b", buffer.poll());
+  }
+}